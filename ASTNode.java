@@ -0,0 +1,47 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+// Base class for AST nodes
+abstract class ASTNode {
+    // Name shown in the AST view, e.g. "Add" or the operand itself
+    abstract String label();
+
+    // Short form used by print(), e.g. "+"
+    String symbol() {
+        return label();
+    }
+
+    int childCount() {
+        return 0;
+    }
+
+    ASTNode child(int index) {
+        throw new IndexOutOfBoundsException("Error: Node has no child " + index + ".");
+    }
+
+    // Method to print the AST for visualization
+    public void print() {
+        walk(this, (node, depth) -> System.out.println(node.symbol()));
+    }
+
+    // Pre-order walk with an explicit stack, so deeply nested trees cannot overflow the call stack
+    static void walk(ASTNode root, ObjIntConsumer<ASTNode> visitor) {
+        ArrayDeque<ASTNode> nodes = new ArrayDeque<>();
+        int[] depths = new int[16];
+        nodes.push(root);
+        depths[0] = 0;
+        while (!nodes.isEmpty()) {
+            ASTNode node = nodes.pop();
+            int depth = depths[nodes.size()];
+            visitor.accept(node, depth);
+            for (int i = node.childCount() - 1; i >= 0; i--) {
+                if (nodes.size() == depths.length) {
+                    depths = Arrays.copyOf(depths, depths.length * 2);
+                }
+                depths[nodes.size()] = depth + 1;
+                nodes.push(node.child(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,847 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Parser class to generate AST from input expression
+// (supporting + - * /, parentheses, unary minus, function calls, array literals
+// such as [a, 2, b], whole-array parameters written x[], and the conditionals
+// cond ? a : b, if(cond, a, b), && and ||). Any nonzero value, NaN included, is true.
+// The parser keeps no state of its own: every call to parse() works on its own
+// ParseContext, so one instance can be shared by any number of threads.
+class ASTParser {
+    private final ContextPool pool;
+
+    public ASTParser() {
+        this(null);
+    }
+
+    // With a pool, token and argument buffers are reused across parse() calls
+    public ASTParser(ContextPool pool) {
+        this.pool = pool;
+    }
+
+    public ASTNode parse(String expression) {
+        TreeBuilder builder = new TreeBuilder();
+        return builder.nodes.get(parse(expression, builder));
+    }
+
+    // Parse into the compact struct-of-arrays encoding instead of node objects
+    public FlatAST parseFlat(String expression) {
+        FlatAST.Builder builder = new FlatAST.Builder();
+        parse(expression, builder);
+        return builder.build();
+    }
+
+    // Drive any builder; returns the builder's handle for the root node.
+    // Parsing is iterative (shunting-yard over explicit operator and operand stacks),
+    // so nesting depth is limited only by memory, not by the Java call stack.
+    public int parse(String expression, ASTBuilder builder) {
+        ParseContext context = pool != null ? pool.acquire() : new ParseContext();
+        try {
+            context.reset(expression);
+            return parse(context, builder);
+        } finally {
+            if (pool != null) {
+                pool.release(context);
+            }
+        }
+    }
+
+    static boolean isNumber(String token) {
+        return Character.isDigit(token.charAt(0)) || token.charAt(0) == '.';
+    }
+
+    private int parse(ParseContext context, ASTBuilder builder) {
+        boolean expectOperand = true;
+        while (context.current() != null) {
+            String token = context.current();
+            char c = token.charAt(0);
+            if (expectOperand) {
+                if (c == '-') {
+                    context.pushValue(builder.operand("0"));
+                    context.pushOperator(NEGATE, 0);
+                } else if (c == '(') {
+                    context.pushOperator('(', 0);
+                } else if (c == '[') {
+                    context.pushOperator(ARRAY, 0);
+                } else if (c == ')' && context.topOperator() == CALL && context.valueCount == context.topBase()) {
+                    finishCall(context, builder);
+                    expectOperand = false;
+                } else if (c == ']' && context.topOperator() == ARRAY && context.valueCount == context.topBase()) {
+                    finishArray(context, builder);
+                    expectOperand = false;
+                } else if (ParseContext.isWordStart(c)) {
+                    if (context.peek(1) != null && context.peek(1).equals("(")) {
+                        context.pushOperator(CALL, context.position);
+                        context.advance();
+                    } else if (context.peek(1) != null && context.peek(1).equals("[") && !isNumber(token)) {
+                        if (context.peek(2) == null || !context.peek(2).equals("]")) {
+                            throw new IllegalArgumentException("Error: Expected ']' after '" + token + "['.");
+                        }
+                        context.pushValue(builder.arrayOperand(token));
+                        context.advance();
+                        context.advance();
+                        expectOperand = false;
+                    } else {
+                        context.pushValue(builder.operand(token));
+                        expectOperand = false;
+                    }
+                } else {
+                    throw new IllegalArgumentException("Error: Unexpected token '" + token + "'.");
+                }
+            } else if (c == '+' || c == '-' || c == '*' || c == '/' || c == AND || c == OR) {
+                while (context.operatorCount > 0 && precedence(context.topOperator()) >= precedence(c)) {
+                    reduce(context, builder);
+                }
+                context.pushOperator(c, 0);
+                expectOperand = true;
+            } else if (c == '?') {
+                // Right-associative: a ? b : c ? d : e is a ? b : (c ? d : e)
+                while (context.operatorCount > 0 && precedence(context.topOperator()) > precedence(c)) {
+                    reduce(context, builder);
+                }
+                context.pushOperator(c, 0);
+                expectOperand = true;
+            } else if (c == ':') {
+                while (context.operatorCount > 0 && context.topOperator() != '?' && precedence(context.topOperator()) > 0) {
+                    reduce(context, builder);
+                }
+                if (context.operatorCount == 0 || context.topOperator() != '?') {
+                    throw new IllegalArgumentException("Error: Unexpected token ':'.");
+                }
+                // The condition and the first branch are on the value stack; the '?' becomes ':'
+                context.operators[context.operatorCount - 1] = TERNARY;
+                expectOperand = true;
+            } else if (c == ',') {
+                reduceToGroup(context, builder);
+                if (context.operatorCount == 0 || context.topOperator() != CALL && context.topOperator() != ARRAY) {
+                    throw new IllegalArgumentException("Error: Unexpected token ','.");
+                }
+                expectOperand = true;
+            } else if (c == ')') {
+                reduceToGroup(context, builder);
+                if (context.operatorCount == 0 || context.topOperator() == ARRAY) {
+                    throw new IllegalArgumentException("Error: Unexpected token ')'.");
+                }
+                if (context.topOperator() == '(') {
+                    context.operatorCount--;
+                } else {
+                    finishCall(context, builder);
+                }
+            } else if (c == ']') {
+                reduceToGroup(context, builder);
+                if (context.operatorCount == 0 || context.topOperator() != ARRAY) {
+                    throw new IllegalArgumentException("Error: Unexpected token ']'.");
+                }
+                finishArray(context, builder);
+            } else {
+                throw new IllegalArgumentException("Error: Unexpected token '" + token + "'.");
+            }
+            context.advance();
+        }
+        if (expectOperand) {
+            throw new IllegalArgumentException("Error: Unexpected end of expression.");
+        }
+        while (context.operatorCount > 0) {
+            if (context.topOperator() == '(' || context.topOperator() == CALL) {
+                throw new IllegalArgumentException("Error: Expected ')'.");
+            }
+            if (context.topOperator() == ARRAY) {
+                throw new IllegalArgumentException("Error: Expected ']'.");
+            }
+            reduce(context, builder);
+        }
+        return context.values[0];
+    }
+
+    private static final char CALL = 'f';
+    private static final char ARRAY = '[';
+    private static final char NEGATE = '~';
+    private static final char AND = '&';
+    private static final char OR = '|';
+    // A '?' whose ':' has been seen
+    private static final char TERNARY = ':';
+
+    // Parentheses, calls and arrays are never reduced by an operator, so they rank lowest
+    private static int precedence(char operator) {
+        switch (operator) {
+            case '?':
+            case TERNARY:
+                return 1;
+            case OR:
+                return 2;
+            case AND:
+                return 3;
+            case '+':
+            case '-':
+                return 4;
+            case '*':
+            case '/':
+                return 5;
+            case NEGATE:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    private static void reduce(ParseContext context, ASTBuilder builder) {
+        char operator = context.operators[--context.operatorCount];
+        if (operator == '?') {
+            throw new IllegalArgumentException("Error: Expected ':' after '?'.");
+        }
+        int right = context.values[--context.valueCount];
+        int left = context.values[--context.valueCount];
+        if (operator == TERNARY) {
+            int condition = context.values[--context.valueCount];
+            context.pushValue(builder.conditional(condition, left, right));
+        } else if (operator == AND || operator == OR) {
+            context.pushValue(builder.logical(operator, left, right));
+        } else {
+            context.pushValue(builder.binary(operator == NEGATE ? '-' : operator, left, right));
+        }
+    }
+
+    // Reduces the operators inside the innermost parenthesis, call or array literal
+    private static void reduceToGroup(ParseContext context, ASTBuilder builder) {
+        while (context.operatorCount > 0 && context.topOperator() != CALL && context.topOperator() != '('
+                && context.topOperator() != ARRAY) {
+            reduce(context, builder);
+        }
+    }
+
+    private static void finishArray(ParseContext context, ASTBuilder builder) {
+        context.operatorCount--;
+        int base = context.bases[context.operatorCount];
+        int node = builder.array(context.values, base, context.valueCount - base);
+        context.valueCount = base;
+        context.pushValue(node);
+    }
+
+    private static void finishCall(ParseContext context, ASTBuilder builder) {
+        context.operatorCount--;
+        int base = context.bases[context.operatorCount];
+        String name = context.tokens[context.nameTokens[context.operatorCount]].toLowerCase();
+        int node;
+        if (name.equals("if")) {
+            if (context.valueCount - base != 3) {
+                throw new IllegalArgumentException("Error: if takes a condition and two values.");
+            }
+            node = builder.conditional(context.values[base], context.values[base + 1], context.values[base + 2]);
+        } else {
+            node = builder.call(name, context.values, base, context.valueCount - base);
+        }
+        context.valueCount = base;
+        context.pushValue(node);
+    }
+
+    // Receives the parse bottom-up: children are always built before their parent.
+    // Each method returns the handle the parser passes back for the new node.
+    interface ASTBuilder {
+        int operand(String token);
+
+        int binary(char operator, int left, int right);
+
+        int call(String name, int[] args, int from, int count);
+
+        // A whole array passed by name, written x[] in the source
+        default int arrayOperand(String name) {
+            throw new IllegalArgumentException("Error: Array parameter '" + name + "[]' is not supported here.");
+        }
+
+        // An array literal [a, b, ...]; elements are handles like call arguments
+        default int array(int[] elements, int from, int count) {
+            throw new IllegalArgumentException("Error: Array literals are not supported here.");
+        }
+
+        // && (operator '&') or || ('|'); right must only be evaluated when left does not
+        // already decide the result
+        default int logical(char operator, int left, int right) {
+            throw new IllegalArgumentException("Error: && and || are not supported here.");
+        }
+
+        // cond ? then : otherwise, or if(cond, then, otherwise); only the chosen branch
+        // may be evaluated
+        default int conditional(int condition, int then, int otherwise) {
+            throw new IllegalArgumentException("Error: Conditionals are not supported here.");
+        }
+    }
+
+    // Builds the ASTNode object tree; handles are indexes into the node list
+    static final class TreeBuilder implements ASTBuilder {
+        final List<ASTNode> nodes = new ArrayList<>();
+
+        public int operand(String token) {
+            return add(new OperandNode(token));
+        }
+
+        public int binary(char operator, int left, int right) {
+            ASTNode l = nodes.get(left);
+            ASTNode r = nodes.get(right);
+            switch (operator) {
+                case '+':
+                    return add(new AddNode(l, r));
+                case '-':
+                    return add(new SubtractNode(l, r));
+                case '*':
+                    return add(new MultiplyNode(l, r));
+                default:
+                    return add(new DivideNode(l, r));
+            }
+        }
+
+        public int call(String name, int[] args, int from, int count) {
+            ASTNode[] callArgs = new ASTNode[count];
+            for (int i = 0; i < count; i++) {
+                callArgs[i] = nodes.get(args[from + i]);
+            }
+            return add(new CallNode(name, callArgs));
+        }
+
+        public int arrayOperand(String name) {
+            return add(new OperandNode(name + "[]"));
+        }
+
+        public int logical(char operator, int left, int right) {
+            ASTNode l = nodes.get(left);
+            ASTNode r = nodes.get(right);
+            return add(operator == '&' ? new AndNode(l, r) : new OrNode(l, r));
+        }
+
+        public int conditional(int condition, int then, int otherwise) {
+            return add(new ConditionalNode(nodes.get(condition), nodes.get(then), nodes.get(otherwise)));
+        }
+
+        public int array(int[] elements, int from, int count) {
+            ASTNode[] values = new ASTNode[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = nodes.get(elements[from + i]);
+            }
+            return add(new ArrayNode(values));
+        }
+
+        private int add(ASTNode node) {
+            nodes.add(node);
+            return nodes.size() - 1;
+        }
+    }
+
+    // Per-call parser state: the token buffer, the read position and the operand
+    // and operator stacks. Reused when parsing through a ContextPool.
+    static final class ParseContext {
+        private String[] tokens = new String[16];
+        private int count;
+        int position;
+        int[] values = new int[16];
+        int valueCount;
+        char[] operators = new char[16];
+        int[] nameTokens = new int[16];
+        int[] bases = new int[16];
+        int operatorCount;
+
+        void reset(String expression) {
+            count = 0;
+            position = 0;
+            valueCount = 0;
+            operatorCount = 0;
+            int i = 0;
+            int length = expression.length();
+            while (i < length) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                if (isWordStart(c)) {
+                    boolean number = Character.isDigit(c) || c == '.';
+                    i++;
+                    while (i < length) {
+                        char next = expression.charAt(i);
+                        boolean exponentSign = (next == '+' || next == '-') && number
+                                && (expression.charAt(i - 1) == 'e' || expression.charAt(i - 1) == 'E');
+                        if (!Character.isLetterOrDigit(next) && next != '_' && next != '.' && !exponentSign) {
+                            break;
+                        }
+                        i++;
+                    }
+                    add(expression.substring(start, i));
+                } else if ((c == '&' || c == '|') && i + 1 < length && expression.charAt(i + 1) == c) {
+                    add(c == '&' ? "&&" : "||");
+                    i += 2;
+                } else {
+                    int symbol = SYMBOLS.indexOf(c);
+                    if (symbol < 0) {
+                        throw new IllegalArgumentException("Error: Unexpected character '" + c + "'.");
+                    }
+                    add(SYMBOL_TOKENS[symbol]);
+                    i++;
+                }
+            }
+        }
+
+        private static final String SYMBOLS = "+-*/(),[]?:";
+        private static final String[] SYMBOL_TOKENS = { "+", "-", "*", "/", "(", ")", ",", "[", "]", "?", ":" };
+
+        private void add(String token) {
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+            }
+            tokens[count++] = token;
+        }
+
+        void pushValue(int node) {
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, valueCount * 2);
+            }
+            values[valueCount++] = node;
+        }
+
+        void pushOperator(char operator, int nameToken) {
+            if (operatorCount == operators.length) {
+                operators = Arrays.copyOf(operators, operatorCount * 2);
+                nameTokens = Arrays.copyOf(nameTokens, operatorCount * 2);
+                bases = Arrays.copyOf(bases, operatorCount * 2);
+            }
+            operators[operatorCount] = operator;
+            nameTokens[operatorCount] = nameToken;
+            bases[operatorCount] = valueCount;
+            operatorCount++;
+        }
+
+        char topOperator() {
+            return operatorCount > 0 ? operators[operatorCount - 1] : 0;
+        }
+
+        int topBase() {
+            return bases[operatorCount - 1];
+        }
+
+        static boolean isWordStart(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+        }
+
+        String current() {
+            return position < count ? tokens[position] : null;
+        }
+
+        String peek(int offset) {
+            return position + offset < count ? tokens[position + offset] : null;
+        }
+
+        void advance() {
+            position++;
+        }
+
+        // Drops references to the last input so a pooled context does not retain it
+        void clear() {
+            Arrays.fill(tokens, 0, count, null);
+            count = 0;
+            position = 0;
+            valueCount = 0;
+            operatorCount = 0;
+        }
+    }
+
+    // Bounded pool of ParseContexts; parse() falls back to a fresh context when empty
+    static final class ContextPool {
+        private final ArrayBlockingQueue<ParseContext> contexts;
+
+        ContextPool(int capacity) {
+            contexts = new ArrayBlockingQueue<>(capacity);
+        }
+
+        ParseContext acquire() {
+            ParseContext context = contexts.poll();
+            return context != null ? context : new ParseContext();
+        }
+
+        void release(ParseContext context) {
+            context.clear();
+            contexts.offer(context);
+        }
+    }
+
+    // Many threads share one parser, one evaluator and one compiled expression and
+    // check every result against a single-threaded run
+    public static class StressTest {
+        public static void main(String[] args) throws InterruptedException {
+            int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+            int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+            String[] sources = {
+                    "power(x, 2) + 3 * y",
+                    "-x + (y - 2) / 4",
+                    "maxofthree(x, y, 10) * 0.5 - findmin(x, y)",
+                    "gcd(12, x + 16) + sumofdigits(y * 1000)",
+                    "nthroot(areaofcircle(x), 3) / (1 + isprime(y))",
+            };
+            ASTParser parser = new ASTParser(new ContextPool(threads));
+            FunctionEvaluator evaluator = new FunctionEvaluator();
+            CompiledExpression shared = CompiledExpression.compile(sources[0]);
+            double[][] inputs = new double[64][];
+            double[][] expected = new double[sources.length][inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = new double[] { i + 1, 2 * i + 3 };
+                for (int e = 0; e < sources.length; e++) {
+                    expected[e][i] = CompiledExpression.compile(sources[e]).evaluate(inputs[i]);
+                }
+            }
+            String expectedCall = CompilerUI.implementFunction("int add(3,4);", evaluator);
+
+            AtomicInteger failures = new AtomicInteger();
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                workers[t] = new Thread(() -> {
+                    for (int n = 0; n < iterations; n++) {
+                        int e = (n + seed) % sources.length;
+                        int i = (n * 31 + seed) % inputs.length;
+                        try {
+                            parser.parse(sources[e]);
+                            double fresh = CompiledExpression.compile(sources[e]).evaluate(inputs[i]);
+                            double reused = shared.evaluate(inputs[i]);
+                            String call = CompilerUI.implementFunction("int add(3,4);", evaluator);
+                            if (Double.compare(fresh, expected[e][i]) != 0 || Double.compare(reused, expected[0][i]) != 0
+                                    || !call.equals(expectedCall)) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (RuntimeException ex) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println("Threads: " + threads + ", iterations per thread: " + iterations);
+            System.out.println(String.format("Elapsed: %.2f s", seconds));
+            System.out.println("Failures: " + failures.get());
+            if (failures.get() != 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    // Parses, compiles, evaluates and prints machine-generated formulas nested up to
+    // 1,000,000 levels deep, then reports shallow parse throughput for comparison
+    public static class DepthBenchmark {
+        public static void main(String[] args) {
+            int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            ASTParser parser = new ASTParser();
+            System.out.println("| Shape       | Depth     | Parse (ms) | Compile+eval (ms) | Result    |");
+            System.out.println("|-------------|-----------|------------|-------------------|-----------|");
+            for (int depth = 1000; depth <= maxDepth; depth *= 10) {
+                run(parser, "parentheses", nest(depth, "(", "x", ")"), depth);
+                run(parser, "unary minus", nest(depth, "-", "x", ""), depth);
+                run(parser, "right sums", nest(depth, "1 + (", "x", ")"), depth);
+                run(parser, "calls", nest(depth, "increment(", "x", ")"), depth);
+            }
+
+            String shallow = "nthroot(areaofcircle(x), 3) / (1 + isprime(y)) - maxofthree(x, y, 10) * 0.5";
+            int iterations = 300_000;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int n = 0; n < iterations; n++) {
+                    parser.parse(shallow);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (round == 2) {
+                    System.out.println(String.format("Shallow parse: %.1f Kparses/s", iterations / seconds / 1e3));
+                }
+            }
+        }
+
+        private static String nest(int depth, String open, String leaf, String close) {
+            StringBuilder out = new StringBuilder(depth * (open.length() + close.length()) + leaf.length());
+            for (int i = 0; i < depth; i++) {
+                out.append(open);
+            }
+            out.append(leaf);
+            for (int i = 0; i < depth; i++) {
+                out.append(close);
+            }
+            return out.toString();
+        }
+
+        private static void run(ASTParser parser, String shape, String source, int depth) {
+            long start = System.nanoTime();
+            ASTNode tree = parser.parse(source);
+            double parseMillis = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            double result = CompiledExpression.compile(source).evaluate(new double[] { 2 });
+            double evalMillis = (System.nanoTime() - start) / 1e6;
+            CompilerUI.formatAST(tree, 0);
+            System.out.println(String.format("| %-11s | %-9d | %-10.1f | %-17.1f | %-9.1f |",
+                    shape, depth, parseMillis, evalMillis, result));
+        }
+    }
+
+    // Parse throughput from 1 to N threads sharing one parser, with and without the pool
+    public static class Benchmark {
+        public static void main(String[] args) throws InterruptedException {
+            int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+            int cores = Runtime.getRuntime().availableProcessors();
+            String source = "nthroot(areaofcircle(x), 3) / (1 + isprime(y)) - maxofthree(x, y, 10) * 0.5";
+
+            System.out.println("| Threads | Pooled | Kparses/s |");
+            System.out.println("|---------|--------|-----------|");
+            for (int threads = 1; threads <= cores; threads++) {
+                run(new ASTParser(), source, threads, iterations, false);
+                run(new ASTParser(new ContextPool(threads)), source, threads, iterations, true);
+            }
+        }
+
+        private static void run(ASTParser parser, String source, int threads, int iterations, boolean pooled)
+                throws InterruptedException {
+            for (int round = 0; round < 2; round++) {
+                Thread[] workers = new Thread[threads];
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        for (int n = 0; n < iterations; n++) {
+                            parser.parse(source);
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (round == 1) {
+                    System.out.println(String.format("| %-7d | %-6s | %-9.1f |",
+                            threads, pooled ? "yes" : "no", threads * (double) iterations / seconds / 1e3));
+                }
+            }
+        }
+    }
+}
+
+// The nodes TreeBuilder builds; everything else sees them as ASTNode
+
+// Operand Node (for simple values like a, b, etc.)
+class OperandNode extends ASTNode {
+    String value;
+
+    public OperandNode(String value) {
+        this.value = value;
+    }
+
+    @Override
+    String label() {
+        return value;
+    }
+}
+
+// Shared shape of the arithmetic operations
+abstract class BinaryNode extends ASTNode {
+    ASTNode left, right;
+
+    BinaryNode(ASTNode left, ASTNode right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    int childCount() {
+        return 2;
+    }
+
+    @Override
+    ASTNode child(int index) {
+        return index == 0 ? left : right;
+    }
+}
+
+// Arithmetic Operations (Binary)
+class AddNode extends BinaryNode {
+    public AddNode(ASTNode left, ASTNode right) {
+        super(left, right);
+    }
+
+    @Override
+    String label() {
+        return "Add";
+    }
+
+    @Override
+    String symbol() {
+        return "+";
+    }
+}
+
+// SubtractNode class (for subtraction and unary minus)
+class SubtractNode extends BinaryNode {
+    public SubtractNode(ASTNode left, ASTNode right) {
+        super(left, right);
+    }
+
+    @Override
+    String label() {
+        return "Subtract";
+    }
+
+    @Override
+    String symbol() {
+        return "-";
+    }
+}
+
+// MultiplyNode class (for multiplication operation)
+class MultiplyNode extends BinaryNode {
+    public MultiplyNode(ASTNode left, ASTNode right) {
+        super(left, right);
+    }
+
+    @Override
+    String label() {
+        return "Multiply";
+    }
+
+    @Override
+    String symbol() {
+        return "*";
+    }
+}
+
+// DivideNode class (for division operation)
+class DivideNode extends BinaryNode {
+    public DivideNode(ASTNode left, ASTNode right) {
+        super(left, right);
+    }
+
+    @Override
+    String label() {
+        return "Divide";
+    }
+
+    @Override
+    String symbol() {
+        return "/";
+    }
+}
+
+// Call Node (for predefined function calls such as power(a, 2))
+class CallNode extends ASTNode {
+    String name;
+    ASTNode[] args;
+
+    public CallNode(String name, ASTNode[] args) {
+        this.name = name;
+        this.args = args;
+    }
+
+    @Override
+    String label() {
+        return name;
+    }
+
+    @Override
+    int childCount() {
+        return args.length;
+    }
+
+    @Override
+    ASTNode child(int index) {
+        return args[index];
+    }
+}
+
+// Short-circuit logical operators; the right operand is evaluated only when needed
+class AndNode extends BinaryNode {
+    public AndNode(ASTNode left, ASTNode right) {
+        super(left, right);
+    }
+
+    @Override
+    String label() {
+        return "And";
+    }
+
+    @Override
+    String symbol() {
+        return "&&";
+    }
+}
+
+class OrNode extends BinaryNode {
+    public OrNode(ASTNode left, ASTNode right) {
+        super(left, right);
+    }
+
+    @Override
+    String label() {
+        return "Or";
+    }
+
+    @Override
+    String symbol() {
+        return "||";
+    }
+}
+
+// Conditional Node, for both cond ? a : b and if(cond, a, b)
+class ConditionalNode extends ASTNode {
+    ASTNode condition, then, otherwise;
+
+    public ConditionalNode(ASTNode condition, ASTNode then, ASTNode otherwise) {
+        this.condition = condition;
+        this.then = then;
+        this.otherwise = otherwise;
+    }
+
+    @Override
+    String label() {
+        return "If";
+    }
+
+    @Override
+    String symbol() {
+        return "?:";
+    }
+
+    @Override
+    int childCount() {
+        return 3;
+    }
+
+    @Override
+    ASTNode child(int index) {
+        return index == 0 ? condition : index == 1 ? then : otherwise;
+    }
+}
+
+// Array literal Node, e.g. [a, 2, b * 3]; array parameters are OperandNodes named "x[]"
+class ArrayNode extends ASTNode {
+    ASTNode[] elements;
+
+    public ArrayNode(ASTNode[] elements) {
+        this.elements = elements;
+    }
+
+    @Override
+    String label() {
+        return "Array";
+    }
+
+    @Override
+    String symbol() {
+        return "[]";
+    }
+
+    @Override
+    int childCount() {
+        return elements.length;
+    }
+
+    @Override
+    ASTNode child(int index) {
+        return elements[index];
+    }
+}
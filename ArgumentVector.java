@@ -0,0 +1,177 @@
+// The arguments of one call, parsed once into primitive values.
+// Each argument is read as an int when it is a valid integer literal and as a double
+// otherwise, so executeFunction never reparses the same text. Surrounding whitespace
+// is ignored for every function. A vector can be reset and reused for the next call.
+// Array arguments are written [1, 2, 3] and parsed on demand by arrayAt and longArrayAt.
+final class ArgumentVector {
+    private String[] texts = new String[0];
+    private int[] ints = new int[4];
+    private double[] doubles = new double[4];
+    private boolean[] intValid = new boolean[4];
+    private boolean[] doubleValid = new boolean[4];
+    private int count;
+
+    // Splits a parameter list on the commas that are not inside [ ], so that
+    // "[1, 2, 3], 2" is two arguments
+    static String[] split(String params) {
+        java.util.List<String> parts = new java.util.ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < params.length(); i++) {
+            char c = params.charAt(i);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(params.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(params.substring(start));
+        return parts.toArray(new String[0]);
+    }
+
+    static ArgumentVector of(String[] params) {
+        ArgumentVector args = new ArgumentVector();
+        args.reset(params);
+        return args;
+    }
+
+    void reset(String[] params) {
+        count = params.length;
+        texts = params;
+        if (ints.length < count) {
+            ints = new int[count];
+            doubles = new double[count];
+            intValid = new boolean[count];
+            doubleValid = new boolean[count];
+        }
+        for (int i = 0; i < count; i++) {
+            String text = params[i];
+            long value = NumberParser.tryParseInt(text, 0, text.length());
+            if (value != NumberParser.INVALID_INT) {
+                ints[i] = (int) value;
+                doubles[i] = value;
+                intValid[i] = true;
+                doubleValid[i] = true;
+                continue;
+            }
+            intValid[i] = false;
+            try {
+                doubles[i] = NumberParser.parseDouble(text, 0, text.length());
+                doubleValid[i] = true;
+            } catch (NumberFormatException e) {
+                doubleValid[i] = false;
+            }
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    int intAt(int index) {
+        checkIndex(index);
+        if (!intValid[index]) {
+            throw new NumberFormatException("For input string: \"" + texts[index] + "\"");
+        }
+        return ints[index];
+    }
+
+    // Integers beyond the int range are parsed here, on demand
+    long longAt(int index) {
+        checkIndex(index);
+        return intValid[index] ? ints[index] : Long.parseLong(texts[index].trim());
+    }
+
+    double doubleAt(int index) {
+        checkIndex(index);
+        if (!doubleValid[index]) {
+            throw new NumberFormatException("For input string: \"" + texts[index] + "\"");
+        }
+        return doubles[index];
+    }
+
+    boolean isArray(int index) {
+        checkIndex(index);
+        String text = texts[index].trim();
+        return text.startsWith("[") && text.endsWith("]");
+    }
+
+    // Elements in an array argument, counted without parsing them
+    int arrayLength(int index) {
+        String text = arrayText(index);
+        return elementCount(text, text.indexOf('['), text.lastIndexOf(']'));
+    }
+
+    double[] arrayAt(int index) {
+        String text = arrayText(index);
+        int open = text.indexOf('[');
+        int close = text.lastIndexOf(']');
+        double[] values = new double[elementCount(text, open, close)];
+        for (int i = 0, from = open + 1; i < values.length; i++) {
+            int to = elementEnd(text, from, close);
+            values[i] = NumberParser.parseDouble(text, from, to);
+            from = to + 1;
+        }
+        return values;
+    }
+
+    // null when some element is not an integer, so callers can fall back to arrayAt
+    long[] longArrayAt(int index) {
+        String text = arrayText(index);
+        int open = text.indexOf('[');
+        int close = text.lastIndexOf(']');
+        long[] values = new long[elementCount(text, open, close)];
+        for (int i = 0, from = open + 1; i < values.length; i++) {
+            int to = elementEnd(text, from, close);
+            try {
+                values[i] = Long.parseLong(text.substring(from, to).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            from = to + 1;
+        }
+        return values;
+    }
+
+    private String arrayText(int index) {
+        if (!isArray(index)) {
+            throw new IllegalArgumentException("Error: Expected an array such as [1, 2, 3] but got '"
+                    + texts[index].trim() + "'.");
+        }
+        return texts[index];
+    }
+
+    // 0 for [], otherwise one more than the number of commas
+    private static int elementCount(String text, int open, int close) {
+        if (text.substring(open + 1, close).trim().isEmpty()) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = open + 1; i < close; i++) {
+            if (text.charAt(i) == ',') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int elementEnd(String text, int from, int close) {
+        int comma = text.indexOf(',', from);
+        return comma < 0 || comma > close ? close : comma;
+    }
+
+    // The argument exactly as it was written
+    String textAt(int index) {
+        checkIndex(index);
+        return texts[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index >= count) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+    }
+}
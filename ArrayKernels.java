@@ -0,0 +1,297 @@
+import java.util.Random;
+
+// Whole-array reductions for the array values of the language: sum, mean, dot, min, max
+// and norm over double[], and exact sum, min and max over long[]. The summing kernels
+// keep four independent accumulators, so consecutive adds do not wait on one another
+// and the loop runs at load speed instead of add latency; the four partial results are
+// combined at the end, so sums can differ from a left-to-right loop in the last bits.
+// The long sum is split into 32-bit halves that cannot overflow, so the loop needs no
+// overflow checks and the result is still exact. An empty array has a sum of 0 and a
+// NaN mean; an empty double[] also has a NaN min and max, while the long[] min and max
+// throw, since no long can stand for a missing value. Callers send empty arrays to the
+// double[] kernels, so min([]) and max([]) are NaN however they are evaluated.
+final class ArrayKernels {
+    private ArrayKernels() {
+    }
+
+    static double sum(double[] values) {
+        return sum(values, values.length);
+    }
+
+    // Sum of the first length values
+    static double sum(double[] values, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += values[i];
+            s1 += values[i + 1];
+            s2 += values[i + 2];
+            s3 += values[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += values[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static double mean(double[] values) {
+        return mean(values, values.length);
+    }
+
+    static double mean(double[] values, int length) {
+        return length == 0 ? Double.NaN : sum(values, length) / length;
+    }
+
+    static double dot(double[] a, double[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException(
+                    "Error: dot needs arrays of the same length, got " + a.length + " and " + b.length + ".");
+        }
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // NaN if any value is NaN, as with Math.min. Left as a plain loop: C2 already turns
+    // a Math.min or Math.max reduction into vector instructions, and splitting it into
+    // accumulators by hand stops it from doing so.
+    static double min(double[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        double m = values[0];
+        for (int i = 1; i < values.length; i++) {
+            m = Math.min(m, values[i]);
+        }
+        return m;
+    }
+
+    static double max(double[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        double m = values[0];
+        for (int i = 1; i < values.length; i++) {
+            m = Math.max(m, values[i]);
+        }
+        return m;
+    }
+
+    // Euclidean length. The plain sum of squares is used unless it overflowed or is so
+    // small that squares may have underflowed; then the values are rescaled by the
+    // largest magnitude first, as Math.hypot does for two values. NaN if any value is NaN.
+    static double norm(double[] values) {
+        double squares = dot(values, values);
+        if (squares >= 0x1p-968 && squares < Double.POSITIVE_INFINITY || Double.isNaN(squares)) {
+            return Math.sqrt(squares);
+        }
+        double largest = 0;
+        for (double value : values) {
+            largest = Math.max(largest, Math.abs(value));
+        }
+        if (largest == 0 || largest == Double.POSITIVE_INFINITY) {
+            return largest;
+        }
+        // A power of two, so scaling is exact until values underflow
+        double scale = Math.scalb(1.0, -Math.getExponent(largest));
+        double s0 = 0, s1 = 0;
+        int i = 0;
+        for (; i + 1 < values.length; i += 2) {
+            double x = values[i] * scale;
+            double y = values[i + 1] * scale;
+            s0 += x * x;
+            s1 += y * y;
+        }
+        if (i < values.length) {
+            double x = values[i] * scale;
+            s0 += x * x;
+        }
+        return Math.sqrt(s0 + s1) / scale;
+    }
+
+    // Exact; throws instead of wrapping when the sum does not fit in a long
+    static long sum(long[] values) {
+        // At most 2^31 terms below 2^32 and at least -2^31 each, so neither half overflows
+        long lows = 0;
+        long highs = 0;
+        for (long value : values) {
+            lows += value & 0xFFFFFFFFL;
+            highs += value >> 32;
+        }
+        highs += lows >>> 32;
+        lows &= 0xFFFFFFFFL;
+        // The sum is highs * 2^32 + lows with 0 <= lows < 2^32
+        if (highs < Integer.MIN_VALUE || highs > Integer.MAX_VALUE) {
+            throw new ArithmeticException("Error: Sum of " + values.length + " values overflows long.");
+        }
+        return highs << 32 | lows;
+    }
+
+    // The halves of the exact sum are combined in double, so the mean stays accurate
+    // even when the sum itself does not fit in a long
+    static double mean(long[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        long lows = 0;
+        long highs = 0;
+        for (long value : values) {
+            lows += value & 0xFFFFFFFFL;
+            highs += value >> 32;
+        }
+        highs += lows >>> 32;
+        lows &= 0xFFFFFFFFL;
+        return ((double) highs * 0x1p32 + lows) / values.length;
+    }
+
+    // Throws for an empty array, which has no long minimum
+    static long min(long[] values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("Error: min of an empty array.");
+        }
+        long m = values[0];
+        for (int i = 1; i < values.length; i++) {
+            m = Math.min(m, values[i]);
+        }
+        return m;
+    }
+
+    static long max(long[] values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("Error: max of an empty array.");
+        }
+        long m = values[0];
+        for (int i = 1; i < values.length; i++) {
+            m = Math.max(m, values[i]);
+        }
+        return m;
+    }
+
+    // Each kernel against the left-to-right loop it replaces, and a compiled sum over
+    // array slots against the same sum written out element by element. The default
+    // length fits in L1 cache; at millions of elements every kernel waits on memory.
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int length = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+            Random random = new Random(42);
+            double[] a = new double[length];
+            double[] b = new double[length];
+            long[] longs = new long[length];
+            for (int i = 0; i < length; i++) {
+                a[i] = random.nextGaussian();
+                b[i] = random.nextGaussian();
+                longs[i] = random.nextLong() >> 24;
+            }
+            int reps = Math.max(1, 20_000_000 / length);
+
+            System.out.println("| Kernel   | Loop (ns/element) | Kernel (ns/element) | Speedup | Difference |");
+            System.out.println("|----------|-------------------|---------------------|---------|------------|");
+            for (String kernel : new String[] { "sum", "dot", "max", "norm", "sum long" }) {
+                double loop = Double.MAX_VALUE;
+                double fast = Double.MAX_VALUE;
+                double loopResult = 0;
+                double kernelResult = 0;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (int r = 0; r < reps; r++) {
+                        loopResult = loop(kernel, a, b, longs);
+                    }
+                    loop = Math.min(loop, (double) (System.nanoTime() - start) / reps / length);
+                    start = System.nanoTime();
+                    for (int r = 0; r < reps; r++) {
+                        kernelResult = kernel(kernel, a, b, longs);
+                    }
+                    fast = Math.min(fast, (double) (System.nanoTime() - start) / reps / length);
+                }
+                System.out.println(String.format("| %-8s | %-17.3f | %-19.3f | %-7.2f | %-10.3g |", kernel, loop, fast,
+                        loop / fast, Math.abs(kernelResult - loopResult)));
+            }
+
+            int width = 64;
+            StringBuilder written = new StringBuilder();
+            for (int i = 0; i < width; i++) {
+                written.append(i == 0 ? "" : " + ").append('x').append(i);
+            }
+            CompiledExpression perElement = CompiledExpression.compile(written.toString());
+            CompiledExpression bulk = CompiledExpression.compile("sum(x[])");
+            double[] slots = java.util.Arrays.copyOf(a, width);
+            double[][] arrays = { slots };
+            int rows = 1_000_000;
+            double elementNanos = Double.MAX_VALUE;
+            double bulkNanos = Double.MAX_VALUE;
+            double sink = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < rows; i++) {
+                    sink += perElement.evaluate(slots);
+                }
+                elementNanos = Math.min(elementNanos, (double) (System.nanoTime() - start) / rows);
+                start = System.nanoTime();
+                for (int i = 0; i < rows; i++) {
+                    sink -= bulk.evaluate(CompiledExpression.NO_SLOTS, arrays);
+                }
+                bulkNanos = Math.min(bulkNanos, (double) (System.nanoTime() - start) / rows);
+            }
+            System.out.println();
+            System.out.println(String.format("%d values: \"x0 + ... + x%d\" %.1f ns, \"sum(x[])\" %.1f ns (%.2fx)%s",
+                    width, width - 1, elementNanos, bulkNanos, elementNanos / bulkNanos, sink == 42 ? " " : ""));
+        }
+
+        private static double loop(String kernel, double[] a, double[] b, long[] longs) {
+            double s = 0;
+            switch (kernel) {
+                case "sum":
+                    for (double x : a) {
+                        s += x;
+                    }
+                    return s;
+                case "dot":
+                    for (int i = 0; i < a.length; i++) {
+                        s += a[i] * b[i];
+                    }
+                    return s;
+                case "max":
+                    s = Double.NEGATIVE_INFINITY;
+                    for (double x : a) {
+                        s = Math.max(s, x);
+                    }
+                    return s;
+                case "norm":
+                    for (double x : a) {
+                        s += x * x;
+                    }
+                    return Math.sqrt(s);
+                default:
+                    long total = 0;
+                    for (long x : longs) {
+                        total = Math.addExact(total, x);
+                    }
+                    return total;
+            }
+        }
+
+        private static double kernel(String kernel, double[] a, double[] b, long[] longs) {
+            switch (kernel) {
+                case "sum":
+                    return sum(a);
+                case "dot":
+                    return dot(a, b);
+                case "max":
+                    return max(a);
+                case "norm":
+                    return norm(a);
+                default:
+                    return sum(longs);
+            }
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Numeric implementations of the predefined functions, resolved once when an
+// expression is compiled so that calls need no name lookup at run time.
+// Arithmetic runs in double precision, number-theory functions truncate their
+// arguments to int like the Implement button does, and booleans come back as 1 or 0.
+enum Builtin {
+    ADD("add", 2) {
+        double apply(double a, double b, double c) {
+            return a + b;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 1;
+        }
+    },
+    SUBTRACT("subtract", 2) {
+        double apply(double a, double b, double c) {
+            return a - b;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? 1 : -1;
+        }
+    },
+    MULTIPLY("multiply", 2) {
+        double apply(double a, double b, double c) {
+            return a * b;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? b : a;
+        }
+    },
+    DIVIDE("divide", 2) {
+        double apply(double a, double b, double c) {
+            if (b == 0)
+                throw new ArithmeticException("Error: Division by zero.");
+            return a / b;
+        }
+
+        double applyUnchecked(double a, double b, double c) {
+            return a / b;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? 1 / b : -a / (b * b);
+        }
+    },
+    MODULUS("modulus", 2) {
+        double apply(double a, double b, double c) {
+            if ((int) b == 0)
+                throw new ArithmeticException("Error: Modulo by zero.");
+            return (int) a % (int) b;
+        }
+
+        double applyUnchecked(double a, double b, double c) {
+            return (int) a % (int) b;
+        }
+    },
+    POWER("power", 2) {
+        double apply(double a, double b, double c) {
+            return Math.pow(a, b);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? b * Math.pow(a, b - 1) : value * Math.log(a);
+        }
+    },
+    SQUAREROOT("squareroot", 1) {
+        double apply(double a, double b, double c) {
+            return Math.sqrt(a);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 0.5 / value;
+        }
+    },
+    CUBEROOT("cuberoot", 1) {
+        double apply(double a, double b, double c) {
+            return Math.cbrt(a);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 1 / (3 * value * value);
+        }
+    },
+    NTHROOT("nthroot", 2) {
+        double apply(double a, double b, double c) {
+            return Math.pow(a, 1.0 / b);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? value / (b * a) : -value * Math.log(a) / (b * b);
+        }
+    },
+    ISEVEN("iseven", 1) {
+        double apply(double a, double b, double c) {
+            return truth((int) a % 2 == 0);
+        }
+    },
+    ISODD("isodd", 1) {
+        double apply(double a, double b, double c) {
+            return truth((int) a % 2 != 0);
+        }
+    },
+    HALFVALUE("halfvalue", 1) {
+        double apply(double a, double b, double c) {
+            return a / 2;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 0.5;
+        }
+    },
+    DOUBLEVALUE("doublevalue", 1) {
+        double apply(double a, double b, double c) {
+            return a * 2;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 2;
+        }
+    },
+    INCREMENT("increment", 1) {
+        double apply(double a, double b, double c) {
+            return a + 1;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 1;
+        }
+    },
+    DECREMENT("decrement", 1) {
+        double apply(double a, double b, double c) {
+            return a - 1;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 1;
+        }
+    },
+    FINDMAX("findmax", 2) {
+        double apply(double a, double b, double c) {
+            return Math.max(a, b);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return (argument == 0) == (a >= b) ? 1 : 0;
+        }
+    },
+    FINDMIN("findmin", 2) {
+        double apply(double a, double b, double c) {
+            return Math.min(a, b);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return (argument == 0) == (a <= b) ? 1 : 0;
+        }
+    },
+    ISPRIME("isprime", 1) {
+        double apply(double a, double b, double c) {
+            return truth(FunctionEvaluator.isPrime((int) a));
+        }
+
+        double apply(double a, double b, double c, EvaluationBudget.Meter meter) {
+            return truth(FunctionEvaluator.isPrime((int) a, meter));
+        }
+
+        boolean isMetered() {
+            return true;
+        }
+    },
+    SIN("sin", 1) {
+        double apply(double a, double b, double c) {
+            return Math.sin(Math.toRadians(a));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return Math.cos(Math.toRadians(a)) * DEGREE;
+        }
+    },
+    COS("cos", 1) {
+        double apply(double a, double b, double c) {
+            return Math.cos(Math.toRadians(a));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return -Math.sin(Math.toRadians(a)) * DEGREE;
+        }
+    },
+    TAN("tan", 1) {
+        double apply(double a, double b, double c) {
+            return Math.tan(Math.toRadians(a));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return (1 + value * value) * DEGREE;
+        }
+    },
+    COT("cot", 1) {
+        double apply(double a, double b, double c) {
+            return 1 / Math.tan(Math.toRadians(a));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return -(1 + value * value) * DEGREE;
+        }
+    },
+    SEC("sec", 1) {
+        double apply(double a, double b, double c) {
+            return 1 / Math.cos(Math.toRadians(a));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return value * Math.tan(Math.toRadians(a)) * DEGREE;
+        }
+    },
+    COSEC("cosec", 1) {
+        double apply(double a, double b, double c) {
+            return 1 / Math.sin(Math.toRadians(a));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return -value / Math.tan(Math.toRadians(a)) * DEGREE;
+        }
+    },
+    GCD("gcd", 2) {
+        double apply(double a, double b, double c) {
+            return FunctionEvaluator.gcd((long) a, (long) b);
+        }
+    },
+    LCM("lcm", 2) {
+        double apply(double a, double b, double c) {
+            return FunctionEvaluator.lcm((long) a, (long) b);
+        }
+    },
+    ABSOLUTEVALUE("absolutevalue", 1) {
+        double apply(double a, double b, double c) {
+            return Math.abs(a);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return Math.signum(a);
+        }
+    },
+    CEIL("ceil", 1) {
+        double apply(double a, double b, double c) {
+            return Math.ceil(a);
+        }
+    },
+    FLOOR("floor", 1) {
+        double apply(double a, double b, double c) {
+            return Math.floor(a);
+        }
+    },
+    ROUND("round", 1) {
+        double apply(double a, double b, double c) {
+            return Math.round(a);
+        }
+    },
+    ABSOLUTEDIFFERENCE("absolutedifference", 2) {
+        double apply(double a, double b, double c) {
+            return Math.abs(a - b);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? Math.signum(a - b) : -Math.signum(a - b);
+        }
+    },
+    ISPOSITIVE("ispositive", 1) {
+        double apply(double a, double b, double c) {
+            return truth(a > 0);
+        }
+    },
+    ISPERFECTSQUARE("isperfectsquare", 1) {
+        double apply(double a, double b, double c) {
+            return truth(FunctionEvaluator.isPerfectSquare((int) a));
+        }
+    },
+    CUBEOFDIFF("cubeofdiff", 2) {
+        double apply(double a, double b, double c) {
+            return Math.pow(a - b, 3);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? 3 * (a - b) * (a - b) : -3 * (a - b) * (a - b);
+        }
+    },
+    AVERAGEOF3("averageof3", 3) {
+        double apply(double a, double b, double c) {
+            return (a + b + c) / 3;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 1.0 / 3;
+        }
+    },
+    ISMULTIPLE("ismultiple", 2) {
+        double apply(double a, double b, double c) {
+            return truth((int) a % (int) b == 0);
+        }
+    },
+    SUMOFDIGITS("sumofdigits", 1) {
+        double apply(double a, double b, double c) {
+            return FunctionEvaluator.sumOfDigits((int) a);
+        }
+    },
+    SUMOFSQUARES("sumofsquares", 1) {
+        double apply(double a, double b, double c) {
+            return FunctionEvaluator.sumOfSquares((int) a);
+        }
+    },
+    RECIPROCAL("reciprocal", 1) {
+        double apply(double a, double b, double c) {
+            if (a == 0)
+                throw new ArithmeticException("Error: Division by zero.");
+            return 1 / a;
+        }
+
+        double applyUnchecked(double a, double b, double c) {
+            return 1 / a;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return -value * value;
+        }
+    },
+    MEAN("mean", 2) {
+        double apply(double a, double b, double c) {
+            return (a + b) / 2;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 0.5;
+        }
+    },
+    REVERSENUMBER("reversenumber", 1) {
+        double apply(double a, double b, double c) {
+            return FunctionEvaluator.reverseNumber((int) a);
+        }
+    },
+    DEGREESTORADIANS("degreestoradians", 1) {
+        double apply(double a, double b, double c) {
+            return Math.toRadians(a);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return DEGREE;
+        }
+    },
+    RADIANSTODEGREES("radianstodegrees", 1) {
+        double apply(double a, double b, double c) {
+            return Math.toDegrees(a);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 1 / DEGREE;
+        }
+    },
+    PERCENTAGE("percentage", 2) {
+        double apply(double a, double b, double c) {
+            return (a / b) * 100;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? 100 / b : -100 * a / (b * b);
+        }
+    },
+    AREAOFSQUARE("areaofsquare", 1) {
+        double apply(double a, double b, double c) {
+            return Math.pow(a, 2);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 2 * a;
+        }
+    },
+    AREAOFRECTANGLE("areaofrectangle", 2) {
+        double apply(double a, double b, double c) {
+            return a * b;
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == 0 ? b : a;
+        }
+    },
+    AREAOFCIRCLE("areaofcircle", 1) {
+        double apply(double a, double b, double c) {
+            return Math.PI * Math.pow(a, 2);
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return 2 * Math.PI * a;
+        }
+    },
+    MAXOFTHREE("maxofthree", 3) {
+        double apply(double a, double b, double c) {
+            return Math.max(a, Math.max(b, c));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == argmax(a, b, c) ? 1 : 0;
+        }
+    },
+    MINOFTHREE("minofthree", 3) {
+        double apply(double a, double b, double c) {
+            return Math.min(a, Math.min(b, c));
+        }
+
+        double partial(int argument, double a, double b, double c, double value) {
+            return argument == argmax(-a, -b, -c) ? 1 : 0;
+        }
+    },
+    ISPALINDROME("ispalindrome", 1) {
+        double apply(double a, double b, double c) {
+            return truth(FunctionEvaluator.isPalindrome(String.valueOf((int) a)));
+        }
+    };
+
+    private static final Map<String, Builtin> byName = new HashMap<>();
+    // d(radians)/d(degrees): the trigonometric functions take degrees
+    private static final double DEGREE = Math.PI / 180;
+
+    static {
+        for (Builtin builtin : values()) {
+            byName.put(builtin.functionName, builtin);
+        }
+    }
+
+    final String functionName;
+    final int arity;
+
+    Builtin(String functionName, int arity) {
+        this.functionName = functionName;
+        this.arity = arity;
+    }
+
+    // Unused trailing arguments are passed as 0
+    abstract double apply(double a, double b, double c);
+
+    // Partial derivative of apply with respect to argument 0, 1 or 2, given the
+    // arguments and the value apply returned; used for forward-mode differentiation.
+    // Functions that truncate to int or return booleans are piecewise constant, so
+    // their derivative is 0 wherever it exists.
+    double partial(int argument, double a, double b, double c, double value) {
+        return 0;
+    }
+
+    // apply charging the work that depends on the arguments to meter, a step per trial
+    // divisor for isprime; the other functions do a fixed amount of work
+    double apply(double a, double b, double c, EvaluationBudget.Meter meter) {
+        return apply(a, b, c);
+    }
+
+    boolean isMetered() {
+        return false;
+    }
+
+    // apply without the zero-divisor check, for calls RangeAnalysis proved safe
+    double applyUnchecked(double a, double b, double c) {
+        return apply(a, b, c);
+    }
+
+    String returnType() {
+        return CompilerUI.predefinedFunctions.get(functionName);
+    }
+
+    // Returns null when the name is not a predefined function
+    static Builtin lookup(String functionName) {
+        return byName.get(functionName.toLowerCase());
+    }
+
+    // Like lookup, but reports unknown names and wrong argument counts
+    static Builtin resolve(String functionName, int argumentCount) {
+        Builtin builtin = lookup(functionName);
+        if (builtin == null) {
+            throw new IllegalArgumentException("Error: Undefined Function '" + functionName + "'");
+        }
+        if (argumentCount != builtin.arity) {
+            throw new IllegalArgumentException("Error: Function '" + functionName + "' expects " + builtin.arity
+                    + " argument(s) but got " + argumentCount + ".");
+        }
+        return builtin;
+    }
+
+    static double truth(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    // Index of the argument Math.max picks first among three
+    static int argmax(double a, double b, double c) {
+        if (a >= b) {
+            return a >= c ? 0 : 2;
+        }
+        return b >= c ? 1 : 2;
+    }
+}
@@ -0,0 +1,1806 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// An expression compiled once and evaluated many times, e.g.
+//   CompiledExpression e = CompiledExpression.compile("power(x, 2) + 3 * y");
+//   double r = e.evaluate(new double[] { 2, 5 }); // slots follow e.getSlotNames()
+// Variables are resolved to slots and functions to their implementations at compile
+// time, so evaluate() does no lookups and allocates nothing beyond array literals
+// with computed elements. Instances are immutable and can be shared between threads.
+final class CompiledExpression {
+    private static final ASTParser parser = new ASTParser(new ASTParser.ContextPool(64));
+
+    private final String source;
+    // Definitions calls were resolved in; residuals are compiled against them too
+    private final UserFunctions functions;
+    // Variables this residual was specialized on; empty for a plain compile
+    private final Map<String, Double> bindings;
+    private final Map<String, RangeAnalysis.Interval> ranges;
+    private final boolean fusePolynomials;
+    private final String[] slotNames;
+    private final String[] arraySlotNames;
+    private final Node root;
+    private final FlatAST flat;
+    // What one evaluation costs against an EvaluationBudget up front: a step per node,
+    // and the bytes of the array literals it fills
+    private final long steps;
+    private final long bytes;
+    // Whether the tree calls user functions, which need the per-thread frame stack
+    private final boolean calls;
+    private final RangeAnalysis.Report rangeReport;
+    // Post-order form used for differentiation, built on first use
+    private volatile FlatAST dualForm;
+    private static final ThreadLocal<double[]> dualScratch = ThreadLocal.withInitial(() -> new double[0]);
+    private static final ThreadLocal<double[]> flatScratch = ThreadLocal.withInitial(() -> new double[0]);
+    private static final ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
+
+    // Residuals by binding set; cleared when it reaches MAX_RESIDUALS so memory stays bounded
+    private final ConcurrentHashMap<Map<String, Double>, CompiledExpression> residuals = new ConcurrentHashMap<>();
+
+    // Deeper trees are evaluated iteratively through FlatAST, in a per-thread scratch
+    // array, instead of by recursive Node calls
+    static final int MAX_TREE_DEPTH = 1000;
+    static final int MAX_RESIDUALS = 256;
+    // Nesting limit for calls to user functions that are not inlined, so runaway
+    // recursion fails cleanly instead of overflowing the stack
+    static final int MAX_CALL_DEPTH = 1000;
+
+    static final double[] NO_SLOTS = new double[0];
+    static final double[][] NO_ARRAYS = new double[0][];
+
+    private CompiledExpression(String source, UserFunctions functions, Map<String, Double> bindings,
+            Map<String, RangeAnalysis.Interval> ranges, boolean fusePolynomials, String[] slotNames,
+            String[] arraySlotNames, Node root, FlatAST flat, RangeAnalysis.Report rangeReport) {
+        this.source = source;
+        this.functions = functions;
+        this.bindings = bindings;
+        this.ranges = ranges;
+        this.fusePolynomials = fusePolynomials;
+        this.slotNames = slotNames;
+        this.arraySlotNames = arraySlotNames;
+        this.root = root;
+        this.flat = flat;
+        this.rangeReport = rangeReport;
+        if (root != null) {
+            long[] totals = new long[3];
+            measure(root, totals);
+            this.steps = totals[0];
+            this.bytes = totals[1];
+            this.calls = totals[2] > 0;
+        } else {
+            this.steps = flat.size;
+            this.bytes = 0;
+            this.calls = false;
+        }
+    }
+
+    public static CompiledExpression compile(String source) {
+        return compile(source, Collections.emptyMap());
+    }
+
+    // Calls to user functions are resolved in functions now; small, non-recursive bodies
+    // are inlined and the rest called through their Definition, see Builder.invoke
+    public static CompiledExpression compile(String source, UserFunctions functions) {
+        return compile(source, Collections.emptyMap(), false, functions);
+    }
+
+    // Division checks RangeAnalysis proves can never fire are compiled out, and ranges
+    // let it prove more of them; see getRangeReport(). Variables missing from ranges
+    // may take any value
+    public static CompiledExpression compile(String source, Map<String, RangeAnalysis.Interval> ranges) {
+        return compile(source, ranges, false);
+    }
+
+    // fusePolynomials evaluates add, multiply and power chains in one variable in
+    // Polynomial coefficient form, with Horner or Estrin: the same result up to the
+    // rounding of the unfused intermediates wherever none of them could overflow, and
+    // the unfused result, NaN and infinities included, everywhere else, so x*x - x*x + 1
+    // is still NaN at x = 1e200
+    public static CompiledExpression compile(String source, Map<String, RangeAnalysis.Interval> ranges,
+            boolean fusePolynomials) {
+        return compile(source, ranges, fusePolynomials, UserFunctions.NONE);
+    }
+
+    public static CompiledExpression compile(String source, Map<String, RangeAnalysis.Interval> ranges,
+            boolean fusePolynomials, UserFunctions functions) {
+        return compile(source, Map.copyOf(ranges), fusePolynomials, functions, Collections.emptyMap());
+    }
+
+    private static CompiledExpression compile(String source, Map<String, RangeAnalysis.Interval> ranges,
+            boolean fusePolynomials, UserFunctions functions, Map<String, Double> bindings) {
+        Builder builder = new Builder(new RangeAnalysis(ranges), fusePolynomials, bindings, functions);
+        int root = parser.parse(source, builder);
+        if (builder.depths[root] <= MAX_TREE_DEPTH) {
+            if (builder.nodes.get(root) == null) {
+                throw new IllegalArgumentException("Error: An expression must reduce arrays to a number, e.g. sum(x[]).");
+            }
+            return new CompiledExpression(source, functions, bindings, ranges, fusePolynomials,
+                    builder.slots.toArray(new String[0]), builder.arraySlots.toArray(new String[0]),
+                    builder.nodes.get(root), null, builder.analysis.report());
+        }
+        // Too deep to walk recursively: evaluate the post-order flat encoding in a loop.
+        // FlatAST has no array values, so parseFlat rejects expressions that use them.
+        FlatAST flat = parseFlat(source, bindings, functions);
+        return new CompiledExpression(source, functions, bindings, ranges, fusePolynomials, flat.getSlotNames(),
+                new String[0], null, flat, builder.analysis.reportAllKept());
+    }
+
+    // A user function's body over its parameters, which take slots 0..n-1 in order
+    static CompiledExpression compileFunction(UserFunctions.Definition function) {
+        Builder builder = new Builder(new RangeAnalysis(Collections.emptyMap()), false, Collections.emptyMap(),
+                function.owner);
+        builder.slots.addAll(Arrays.asList(function.params));
+        int root = parser.parse(function.body, builder);
+        if (builder.depths[root] > MAX_TREE_DEPTH) {
+            throw new IllegalArgumentException("Error: The body of " + function.name + " is nested too deeply.");
+        }
+        return new CompiledExpression(function.body, function.owner, Collections.emptyMap(), Collections.emptyMap(),
+                false, builder.slots.toArray(new String[0]), new String[0], builder.nodes.get(root), null,
+                builder.analysis.report());
+    }
+
+    // The flat form with bound variables read as constants; user functions are called,
+    // never inlined
+    private static FlatAST parseFlat(String source, Map<String, Double> bindings, UserFunctions functions) {
+        FlatAST.Builder flat = new FlatAST.Builder();
+        parser.parse(source, new ASTParser.ASTBuilder() {
+            public int operand(String token) {
+                Double value = bindings.get(token);
+                return value != null ? flat.constant(value) : flat.operand(token);
+            }
+
+            public int binary(char operator, int left, int right) {
+                return flat.binary(operator, left, right);
+            }
+
+            public int call(String name, int[] args, int from, int count) {
+                UserFunctions.Definition function = functions.lookup(name);
+                if (function == null) {
+                    return flat.call(name, args, from, count);
+                }
+                if (count != function.params.length) {
+                    throw new IllegalArgumentException("Error: Function '" + function.name + "' expects "
+                            + function.params.length + " argument(s) but got " + count + ".");
+                }
+                return flat.call(new FlatInvoke(function), args, from, count);
+            }
+
+            public int logical(char operator, int left, int right) {
+                return flat.logical(operator, left, right);
+            }
+
+            public int conditional(int condition, int then, int otherwise) {
+                return flat.conditional(condition, then, otherwise);
+            }
+        });
+        return flat.build();
+    }
+
+    // Returns this expression with the given variables fixed, over the remaining slots in
+    // their original order. Operations on constants only are evaluated now, and power or
+    // nthroot with a constant exponent of 1/2, 1, 2, 3 or 4 become sqrt and multiplies;
+    // the cube and fourth power can differ from Math.pow in the last bit. Residuals are
+    // cached per binding set, so repeated calls with the same bindings are a map lookup.
+    public CompiledExpression specialize(Map<String, Double> values) {
+        CompiledExpression residual = residuals.get(values);
+        if (residual != null) {
+            return residual;
+        }
+        if (residuals.size() >= MAX_RESIDUALS) {
+            residuals.clear();
+        }
+        return residuals.computeIfAbsent(Map.copyOf(values), key -> {
+            Map<String, Double> all = new HashMap<>(bindings);
+            all.putAll(key);
+            return compile(source, ranges, fusePolynomials, functions, Collections.unmodifiableMap(all));
+        });
+    }
+
+    // The variables fixed by specialize(), if this is a residual
+    public Map<String, Double> getBindings() {
+        return bindings;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    // Slot names in the order they first appear in the source
+    public String[] getSlotNames() {
+        return slotNames.clone();
+    }
+
+    // Returns -1 when the expression does not use the variable
+    public int slotOf(String name) {
+        for (int i = 0; i < slotNames.length; i++) {
+            if (slotNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Names of the array parameters, written x[] in the source, in order of first appearance
+    public String[] getArraySlotNames() {
+        return arraySlotNames.clone();
+    }
+
+    // Returns -1 when the expression does not use the array
+    public int arraySlotOf(String name) {
+        for (int i = 0; i < arraySlotNames.length; i++) {
+            if (arraySlotNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public double evaluate(double[] slots) {
+        return evaluate(slots, NO_ARRAYS);
+    }
+
+    // Array parameters, written x[] as in "dot(w[], x[]) / sum(w[])", follow
+    // getArraySlotNames(); literals such as "max([a, b, 2 * c])" need none. The arrays
+    // are read, never written, and may be reused between calls
+    public double evaluate(double[] slots, double[][] arrays) {
+        return run(slots, arrays, null);
+    }
+
+    // Same, charging the evaluation to meter. The nodes are charged up front, so an
+    // expression over budget is aborted before any of it runs; work that depends on the
+    // values, isprime's trial divisions and the elements of array parameters, is charged
+    // as it happens, which is also when the deadline is checked.
+    public double evaluate(double[] slots, double[][] arrays, EvaluationBudget.Meter meter) {
+        meter.allocate(bytes);
+        meter.step(steps);
+        Context context = contexts.get();
+        EvaluationBudget.Meter outer = context.meter;
+        context.meter = meter;
+        try {
+            return run(slots, arrays, context);
+        } finally {
+            context.meter = outer;
+        }
+    }
+
+    private double run(double[] slots, double[][] arrays, Context context) {
+        if (context == null && calls) {
+            context = contexts.get();
+        }
+        if (slots.length < slotNames.length) {
+            throw new IllegalArgumentException(
+                    "Error: Expected " + slotNames.length + " slot values but got " + slots.length + ".");
+        }
+        if (arrays.length < arraySlotNames.length) {
+            throw new IllegalArgumentException(
+                    "Error: Expected " + arraySlotNames.length + " arrays but got " + arrays.length + ".");
+        }
+        for (int i = 0; i < arraySlotNames.length; i++) {
+            if (arrays[i] == null) {
+                throw new IllegalArgumentException("Error: Missing values for array '" + arraySlotNames[i] + "'.");
+            }
+        }
+        if (flat == null) {
+            return root.evaluate(slots, arrays, context);
+        }
+        double[] scratch = flatScratch.get();
+        if (scratch.length < flat.size) {
+            scratch = new double[flat.size];
+            flatScratch.set(scratch);
+        }
+        return flat.evaluate(slots, scratch, context == null ? null : context.meter);
+    }
+
+    // Steps and bytes charged up front by evaluate(slots, arrays, meter)
+    public long getStepCost() {
+        return steps;
+    }
+
+    public long getAllocationCost() {
+        return bytes;
+    }
+
+    // Adds the node count, literal bytes and calls to user functions under node to totals
+    private static void measure(Node node, long[] totals) {
+        totals[0]++;
+        if (node instanceof PolynomialNode) {
+            totals[0] += ((PolynomialNode) node).polynomial.degree();
+        } else if (node instanceof Power) {
+            measure(((Power) node).base, totals);
+        } else if (node instanceof Binary) {
+            measure(((Binary) node).left, totals);
+            measure(((Binary) node).right, totals);
+        } else if (node instanceof Call) {
+            Call call = (Call) node;
+            measure(call.a, totals);
+            if (call.b != null) {
+                measure(call.b, totals);
+            }
+            if (call.c != null) {
+                measure(call.c, totals);
+            }
+        } else if (node instanceof Invoke) {
+            // The callee is charged each time it is called, see Invoke
+            totals[2]++;
+            for (Node arg : ((Invoke) node).args) {
+                measure(arg, totals);
+            }
+        } else if (node instanceof ProvidedCall) {
+            for (Node arg : ((ProvidedCall) node).args) {
+                measure(arg, totals);
+            }
+        } else if (node instanceof Logical) {
+            measure(((Logical) node).left, totals);
+            measure(((Logical) node).right, totals);
+        } else if (node instanceof Conditional) {
+            // Charged for the costlier branch, whichever is taken
+            Conditional conditional = (Conditional) node;
+            measure(conditional.condition, totals);
+            long[] then = new long[3];
+            long[] otherwise = new long[3];
+            measure(conditional.then, then);
+            measure(conditional.otherwise, otherwise);
+            totals[0] += Math.max(then[0], otherwise[0]);
+            totals[1] += Math.max(then[1], otherwise[1]);
+            totals[2] += then[2] + otherwise[2];
+        } else if (node instanceof Aggregate) {
+            Aggregate aggregate = (Aggregate) node;
+            for (ArrayValue value : new ArrayValue[] { aggregate.a, aggregate.b }) {
+                // Array parameters are charged per element when they are read
+                if (value instanceof ConstantArray) {
+                    totals[0] += ((ConstantArray) value).values.length;
+                } else if (value instanceof ArrayLiteral) {
+                    Node[] elements = ((ArrayLiteral) value).elements;
+                    // The header and the elements of the array filled on every evaluation
+                    totals[1] += 16 + 8L * elements.length;
+                    for (Node element : elements) {
+                        measure(element, totals);
+                    }
+                }
+            }
+            if (aggregate.length != null) {
+                measure(aggregate.length, totals);
+            }
+        }
+    }
+
+    // Returns the value and writes the partial derivative with respect to every slot
+    // into gradient, in one forward-mode pass (see FlatAST.evaluateGradient)
+    public double evaluateGradient(double[] slots, double[] gradient) {
+        if (slots.length < slotNames.length || gradient.length < slotNames.length) {
+            throw new IllegalArgumentException("Error: Expected " + slotNames.length + " slot values and gradient entries.");
+        }
+        FlatAST form = dualForm;
+        if (form == null) {
+            // Both builders number slots by first appearance, so the slots line up
+            form = flat != null ? flat : parseFlat(source, bindings, functions);
+            dualForm = form;
+        }
+        double[] scratch = dualScratch.get();
+        if (scratch.length < form.gradientScratchSize()) {
+            scratch = new double[form.gradientScratchSize()];
+            dualScratch.set(scratch);
+        }
+        return form.evaluateGradient(slots, gradient, scratch);
+    }
+
+    // Which runtime checks were compiled out and what was found at compile time
+    public RangeAnalysis.Report getRangeReport() {
+        return rangeReport;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    // Builds the evaluation tree straight from the parser, tracking each node's depth
+    // and value range, and when fusing, its polynomial form
+    private static final class Builder implements ASTParser.ASTBuilder {
+        // The entry is null for array handles, which are in arrayValues instead
+        final List<Node> nodes = new ArrayList<>();
+        final List<String> slots = new ArrayList<>();
+        final List<String> arraySlots = new ArrayList<>();
+        ArrayValue[] arrayValues = new ArrayValue[16];
+        final RangeAnalysis analysis;
+        // Bound variables become constants and constant operations are folded
+        final Map<String, Double> bindings;
+        final boolean folding;
+        final UserFunctions functions;
+        int[] depths = new int[16];
+        RangeAnalysis.Interval[] ranges = new RangeAnalysis.Interval[16];
+        // null unless fusing; an entry is null when that node is not a polynomial
+        Polynomial[] polynomials;
+        // The slot each polynomial is in, -1 for constants
+        int[] variables;
+
+        Builder(RangeAnalysis analysis, boolean fusePolynomials, Map<String, Double> bindings,
+                UserFunctions functions) {
+            this.analysis = analysis;
+            this.bindings = bindings;
+            this.functions = functions;
+            this.folding = !bindings.isEmpty();
+            if (fusePolynomials) {
+                polynomials = new Polynomial[16];
+                variables = new int[16];
+            }
+        }
+
+        public int operand(String token) {
+            if (ASTParser.isNumber(token)) {
+                double value;
+                try {
+                    value = NumberParser.parseDouble(token);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Error: Invalid number '" + token + "'.");
+                }
+                return constant(value);
+            }
+            Double bound = bindings.get(token);
+            if (bound != null) {
+                return constant(bound);
+            }
+            int slot = slots.indexOf(token);
+            if (slot < 0) {
+                slot = slots.size();
+                slots.add(token);
+            }
+            return polynomial(add(new Variable(slot), 0, analysis.variable(token)), Polynomial.identity(), slot);
+        }
+
+        public int binary(char operator, int left, int right) {
+            if (arrayValues[left] != null || arrayValues[right] != null) {
+                throw new IllegalArgumentException("Error: Operator '" + operator
+                        + "' needs numbers; reduce arrays with sum, mean, dot, min, max or norm first.");
+            }
+            if (polynomials != null) {
+                int fused = fuseBinary(operator, left, right);
+                if (fused >= 0) {
+                    return fused;
+                }
+            }
+            Node l = nodes.get(left);
+            Node r = nodes.get(right);
+            int depth = Math.max(depths[left], depths[right]) + 1;
+            RangeAnalysis.Interval range = RangeAnalysis.binary(operator, ranges[left], ranges[right]);
+            switch (operator) {
+                case '+':
+                    return fold(new Add(l, r), depth, range, l, r);
+                case '-':
+                    return fold(new Subtract(l, r), depth, range, l, r);
+                case '*':
+                    return fold(new Multiply(l, r), depth, range, l, r);
+                default:
+                    if (analysis.proveNonZero("division by zero check", ranges[right], false,
+                            () -> describe(l, 2) + " / " + describe(r, 2))) {
+                        return fold(new UncheckedDivide(l, r), depth, range, l, r);
+                    }
+                    return fold(new Divide(l, r), depth, range, l, r);
+            }
+        }
+
+        public int call(String name, int[] args, int from, int count) {
+            UserFunctions.Definition function = functions.lookup(name);
+            if (function != null) {
+                return invoke(function, Arrays.copyOfRange(args, from, from + count));
+            }
+            ProvidedFunction provided = FunctionProviders.lookup(name);
+            if (provided != null) {
+                return provided(provided, Arrays.copyOfRange(args, from, from + count));
+            }
+            for (int i = 0; i < count; i++) {
+                if (arrayValues[args[from + i]] != null) {
+                    return aggregate(name, args, from, count);
+                }
+            }
+            Builtin builtin = Builtin.resolve(name, count);
+            if (polynomials != null) {
+                int fused = fuseCall(builtin, args, from, count);
+                if (fused >= 0) {
+                    return fused;
+                }
+            }
+            int depth = 0;
+            for (int i = 0; i < count; i++) {
+                depth = Math.max(depth, depths[args[from + i]]);
+            }
+            Node a = nodes.get(args[from]);
+            Node b = count > 1 ? nodes.get(args[from + 1]) : null;
+            Node c = count > 2 ? nodes.get(args[from + 2]) : null;
+            RangeAnalysis.Interval ra = ranges[args[from]];
+            RangeAnalysis.Interval rb = count > 1 ? ranges[args[from + 1]] : RangeAnalysis.Interval.point(0);
+            RangeAnalysis.Interval rc = count > 2 ? ranges[args[from + 2]] : RangeAnalysis.Interval.point(0);
+            RangeAnalysis.Interval range = RangeAnalysis.call(builtin, ra, rb, rc);
+            Call call = builtin.isMetered() ? new MeteredCall(builtin, a, b, c) : new Call(builtin, a, b, c);
+            analysis.checkCall(builtin, ra, rb, () -> describe(call, 2));
+            boolean unchecked;
+            switch (builtin) {
+                case DIVIDE:
+                    unchecked = analysis.proveNonZero("division by zero check", rb, false, () -> describe(call, 2));
+                    break;
+                case MODULUS:
+                    unchecked = analysis.proveNonZero("modulo by zero check", rb, true, () -> describe(call, 2));
+                    break;
+                case RECIPROCAL:
+                    unchecked = analysis.proveNonZero("division by zero check", ra, false, () -> describe(call, 2));
+                    break;
+                default:
+                    unchecked = false;
+                    break;
+            }
+            if (folding && (builtin == Builtin.POWER || builtin == Builtin.NTHROOT) && b instanceof Constant
+                    && !(a instanceof Constant)) {
+                double exponent = ((Constant) b).value;
+                Node reduced = power(a, builtin == Builtin.POWER ? exponent : 1.0 / exponent);
+                if (reduced != null) {
+                    return add(reduced, depth + 1, range);
+                }
+            }
+            return fold(unchecked ? new UncheckedCall(builtin, a, b, c) : call, depth + 1, range, a, b, c);
+        }
+
+        public int logical(char operator, int left, int right) {
+            checkNumbers(operator == '&' ? "&&" : "||", left, right);
+            Node l = nodes.get(left);
+            Node r = nodes.get(right);
+            // A constant left operand that decides the result drops the right one
+            if (l instanceof Constant && (operator == '&') == (((Constant) l).value == 0)) {
+                return constant(operator == '&' ? 0 : 1);
+            }
+            int depth = Math.max(depths[left], depths[right]) + 1;
+            return fold(operator == '&' ? new And(l, r) : new Or(l, r), depth, RangeAnalysis.logical(), l, r);
+        }
+
+        public int conditional(int condition, int then, int otherwise) {
+            checkNumbers("a conditional", condition, then, otherwise);
+            Node c = nodes.get(condition);
+            // Only the taken branch could ever run, so a constant condition selects it now
+            if (c instanceof Constant) {
+                return ((Constant) c).value != 0 ? then : otherwise;
+            }
+            int depth = Math.max(depths[condition], Math.max(depths[then], depths[otherwise])) + 1;
+            return add(new Conditional(c, nodes.get(then), nodes.get(otherwise)), depth,
+                    RangeAnalysis.hull(ranges[then], ranges[otherwise]));
+        }
+
+        // Inlines the body when it is small and not recursive, unless that would compute
+        // an argument the body reads more than once several times; otherwise calls it
+        private int invoke(UserFunctions.Definition function, int[] args) {
+            if (args.length != function.params.length) {
+                throw new IllegalArgumentException("Error: Function '" + function.name + "' expects "
+                        + function.params.length + " argument(s) but got " + args.length + ".");
+            }
+            checkNumbers(function.name, args);
+            boolean inline = function.size <= UserFunctions.INLINE_LIMIT && !function.isRecursive();
+            for (int i = 0; inline && i < args.length; i++) {
+                Node arg = nodes.get(args[i]);
+                inline = function.uses[i] <= 1 || arg instanceof Constant || arg instanceof Variable;
+            }
+            if (inline) {
+                return parser.parse(function.body, new Inliner(this, function.params, args));
+            }
+            Node[] operands = new Node[args.length];
+            int depth = 0;
+            for (int i = 0; i < args.length; i++) {
+                operands[i] = nodes.get(args[i]);
+                depth = Math.max(depth, depths[args[i]]);
+            }
+            return fold(new Invoke(function, operands), depth + 1, RangeAnalysis.Interval.ALL, operands);
+        }
+
+        // Binds the call to the function's linked implementation, so evaluating it is one
+        // interface call with no lookup; pure functions fold like built-ins, impure ones
+        // run every time
+        private int provided(ProvidedFunction function, int[] args) {
+            if (args.length != function.params.length) {
+                throw new IllegalArgumentException("Error: Function '" + function.name + "' expects "
+                        + function.params.length + " argument(s) but got " + args.length + ".");
+            }
+            checkNumbers(function.name, args);
+            Node[] operands = new Node[args.length];
+            int depth = 0;
+            for (int i = 0; i < args.length; i++) {
+                operands[i] = nodes.get(args[i]);
+                depth = Math.max(depth, depths[args[i]]);
+            }
+            Node call = ProvidedCall.of(function, operands);
+            RangeAnalysis.Interval range = function.returnType.equals("boolean") ? RangeAnalysis.logical()
+                    : RangeAnalysis.Interval.ALL;
+            return function.pure ? fold(call, depth + 1, range, operands) : add(call, depth + 1, range);
+        }
+
+        private void checkNumbers(String operation, int... handles) {
+            for (int handle : handles) {
+                if (arrayValues[handle] != null) {
+                    throw new IllegalArgumentException("Error: Operands of " + operation
+                            + " must be numbers; reduce arrays with sum, mean, dot, min, max or norm first.");
+                }
+            }
+        }
+
+        public int arrayOperand(String name) {
+            int slot = arraySlots.indexOf(name);
+            if (slot < 0) {
+                slot = arraySlots.size();
+                arraySlots.add(name);
+            }
+            return array(new ArrayParameter(slot), 0);
+        }
+
+        public int array(int[] elements, int from, int count) {
+            Node[] values = new Node[count];
+            int depth = 0;
+            boolean constant = true;
+            for (int i = 0; i < count; i++) {
+                int element = elements[from + i];
+                if (arrayValues[element] != null) {
+                    throw new IllegalArgumentException("Error: Array elements must be numbers, not arrays.");
+                }
+                values[i] = nodes.get(element);
+                depth = Math.max(depth, depths[element]);
+                constant &= values[i] instanceof Constant;
+            }
+            if (constant) {
+                double[] numbers = new double[count];
+                for (int i = 0; i < count; i++) {
+                    numbers[i] = ((Constant) values[i]).value;
+                }
+                return array(new ConstantArray(numbers), 0);
+            }
+            return array(new ArrayLiteral(values), depth + 1);
+        }
+
+        private int array(ArrayValue value, int depth) {
+            int handle = add(null, depth, RangeAnalysis.Interval.ALL);
+            arrayValues[handle] = value;
+            return handle;
+        }
+
+        // sum, mean, dot, min, max or norm of array arguments; mean also takes a count,
+        // as in mean(x[], n), to average only the first n values
+        private int aggregate(String name, int[] args, int from, int count) {
+            Reduction reduction = Reduction.resolve(name);
+            int arrayCount = reduction == Reduction.DOT ? 2 : 1;
+            boolean counted = reduction == Reduction.MEAN && count == 2;
+            if (count != arrayCount && !counted) {
+                throw new IllegalArgumentException("Error: " + name + " takes " + (arrayCount == 2 ? "two arrays" : "one array")
+                        + (reduction == Reduction.MEAN ? " and an optional count" : "") + ".");
+            }
+            for (int i = 0; i < arrayCount; i++) {
+                if (arrayValues[args[from + i]] == null) {
+                    throw new IllegalArgumentException("Error: Argument " + (i + 1) + " of " + name + " must be an array.");
+                }
+            }
+            if (counted && arrayValues[args[from + 1]] != null) {
+                throw new IllegalArgumentException("Error: The count passed to mean must be a number.");
+            }
+            ArrayValue a = arrayValues[args[from]];
+            ArrayValue b = arrayCount == 2 ? arrayValues[args[from + 1]] : null;
+            Node length = counted ? nodes.get(args[from + 1]) : null;
+            int depth = 0;
+            for (int i = 0; i < count; i++) {
+                depth = Math.max(depth, depths[args[from + i]]);
+            }
+            Aggregate node = new Aggregate(reduction, a, b, length);
+            boolean constant = a instanceof ConstantArray && (b == null || b instanceof ConstantArray)
+                    && (length == null || length instanceof Constant);
+            if (constant) {
+                // Arrays written out in full are reduced now, unless that throws
+                try {
+                    return constant(node.evaluate(NO_SLOTS, NO_ARRAYS, null));
+                } catch (RuntimeException e) {
+                    // Keep the node so that evaluation still throws
+                }
+            }
+            return add(node, depth + 1, RangeAnalysis.Interval.ALL);
+        }
+
+        private int constant(double value) {
+            return polynomial(add(new Constant(value), 0, RangeAnalysis.Interval.point(value)),
+                    Double.isFinite(value) ? Polynomial.constant(value) : null, -1);
+        }
+
+        // When specializing, a node whose operands are all constants is evaluated now,
+        // unless it throws, in which case it is kept so that evaluation still throws
+        private int fold(Node node, int depth, RangeAnalysis.Interval range, Node... operands) {
+            if (folding) {
+                boolean constant = true;
+                for (Node operand : operands) {
+                    constant &= operand == null || operand instanceof Constant;
+                }
+                if (constant) {
+                    try {
+                        return constant(node.evaluate(NO_SLOTS, NO_ARRAYS, null));
+                    } catch (RuntimeException e) {
+                        // Keep the node
+                    }
+                }
+            }
+            return add(node, depth, range);
+        }
+
+        // Math.pow(x, 0.5) and Math.pow(x, 2) equal Math.sqrt(x) and x * x exactly
+        private static Node power(Node base, double exponent) {
+            if (exponent == 0.5) {
+                return new SquareRoot(base);
+            }
+            if (exponent == 1) {
+                return base;
+            }
+            if (exponent == 2) {
+                return new Square(base);
+            }
+            if (exponent == 3) {
+                return new Cube(base);
+            }
+            if (exponent == 4) {
+                return new FourthPower(base);
+            }
+            return null;
+        }
+
+        private int add(Node node, int depth, RangeAnalysis.Interval range) {
+            if (nodes.size() == depths.length) {
+                depths = Arrays.copyOf(depths, depths.length * 2);
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                arrayValues = Arrays.copyOf(arrayValues, arrayValues.length * 2);
+                if (polynomials != null) {
+                    polynomials = Arrays.copyOf(polynomials, polynomials.length * 2);
+                    variables = Arrays.copyOf(variables, variables.length * 2);
+                }
+            }
+            depths[nodes.size()] = depth;
+            ranges[nodes.size()] = range;
+            nodes.add(node);
+            return nodes.size() - 1;
+        }
+
+        private int polynomial(int handle, Polynomial polynomial, int variable) {
+            if (polynomials != null) {
+                polynomials[handle] = polynomial;
+                variables[handle] = variable;
+            }
+            return handle;
+        }
+
+        // Returns -1 unless both operands are polynomials in the same variable
+        private int fuseBinary(char operator, int left, int right) {
+            int variable = sharedVariable(-1, left);
+            variable = variable < -1 ? variable : sharedVariable(variable, right);
+            if (variable < -1) {
+                return -1;
+            }
+            Polynomial l = polynomials[left];
+            Polynomial r = polynomials[right];
+            Node a = nodes.get(left);
+            Node b = nodes.get(right);
+            Polynomial result;
+            Node tree;
+            switch (operator) {
+                case '+':
+                    result = l.add(r);
+                    tree = new Add(a, b);
+                    break;
+                case '-':
+                    result = l.subtract(r);
+                    tree = new Subtract(a, b);
+                    break;
+                case '*':
+                    result = l.multiply(r);
+                    tree = new Multiply(a, b);
+                    break;
+                default:
+                    result = dividedByConstant(l, r);
+                    tree = new Divide(a, b);
+                    break;
+            }
+            return fused(result, variable, tree, Math.max(depths[left], depths[right]) + 1,
+                    RangeAnalysis.binary(operator, ranges[left], ranges[right]));
+        }
+
+        // Returns -1 unless the builtin is polynomial in its arguments and they share one
+        // variable. sumofsquares is not: it squares the digits of its argument.
+        private int fuseCall(Builtin builtin, int[] args, int from, int count) {
+            int variable = -1;
+            for (int i = 0; i < count && variable >= -1; i++) {
+                variable = sharedVariable(variable, args[from + i]);
+            }
+            if (variable < -1) {
+                return -1;
+            }
+            Polynomial a = polynomials[args[from]];
+            Polynomial b = count > 1 ? polynomials[args[from + 1]] : null;
+            Polynomial c = count > 2 ? polynomials[args[from + 2]] : null;
+            Polynomial result;
+            switch (builtin) {
+                case ADD:
+                    result = a.add(b);
+                    break;
+                case SUBTRACT:
+                    result = a.subtract(b);
+                    break;
+                case MULTIPLY:
+                case AREAOFRECTANGLE:
+                    result = a.multiply(b);
+                    break;
+                case DIVIDE:
+                    result = dividedByConstant(a, b);
+                    break;
+                case POWER:
+                    double exponent = b.coefficient(0);
+                    if (!b.isConstant() || exponent != (int) exponent) {
+                        return -1;
+                    }
+                    result = a.power((int) exponent);
+                    break;
+                case AREAOFSQUARE:
+                    result = a.multiply(a);
+                    break;
+                case CUBEOFDIFF:
+                    Polynomial difference = a.subtract(b);
+                    result = difference.power(3);
+                    break;
+                case HALFVALUE:
+                    result = a.divide(2);
+                    break;
+                case DOUBLEVALUE:
+                    result = a.multiply(Polynomial.constant(2));
+                    break;
+                case INCREMENT:
+                    result = a.add(Polynomial.constant(1));
+                    break;
+                case DECREMENT:
+                    result = a.subtract(Polynomial.constant(1));
+                    break;
+                case MEAN:
+                    result = a.add(b).divide(2);
+                    break;
+                case AVERAGEOF3:
+                    result = a.add(b).add(c).divide(3);
+                    break;
+                default:
+                    return -1;
+            }
+            int depth = 0;
+            for (int i = 0; i < count; i++) {
+                depth = Math.max(depth, depths[args[from + i]]);
+            }
+            Node tree = new Call(builtin, nodes.get(args[from]), count > 1 ? nodes.get(args[from + 1]) : null,
+                    count > 2 ? nodes.get(args[from + 2]) : null);
+            RangeAnalysis.Interval range = RangeAnalysis.call(builtin, ranges[args[from]],
+                    count > 1 ? ranges[args[from + 1]] : RangeAnalysis.Interval.point(0),
+                    count > 2 ? ranges[args[from + 2]] : RangeAnalysis.Interval.point(0));
+            return fused(result, variable, tree, depth + 1, range);
+        }
+
+        // -2 when the handle is not a polynomial or is in a different variable
+        private int sharedVariable(int variable, int handle) {
+            if (polynomials[handle] == null) {
+                return -2;
+            }
+            int own = variables[handle];
+            if (own < 0 || own == variable) {
+                return variable;
+            }
+            return variable < 0 ? own : -2;
+        }
+
+        // Only nonzero constant divisors keep the quotient a polynomial and the check away
+        private static Polynomial dividedByConstant(Polynomial dividend, Polynomial divisor) {
+            if (!divisor.isConstant() || divisor.coefficient(0) == 0 || Double.isNaN(divisor.coefficient(0))) {
+                return null;
+            }
+            return dividend.divide(divisor.coefficient(0));
+        }
+
+        // Adds the node for a recognized polynomial; -1 when it exceeded MAX_DEGREE, a
+        // coefficient overflowed or no value of the variable is safe to fuse. tree is the
+        // operation unfused, with its depth and range, for the values that are not.
+        private int fused(Polynomial polynomial, int variable, Node tree, int depth, RangeAnalysis.Interval treeRange) {
+            if (polynomial == null || !polynomial.isFinite() || polynomial.limit() < 0) {
+                return -1;
+            }
+            if (variable < 0) {
+                double value = polynomial.coefficient(0);
+                return polynomial(add(new Constant(value), 0, RangeAnalysis.Interval.point(value)), polynomial, -1);
+            }
+            // Even when the terms cancel to a constant or to x itself, x is still needed
+            // to give the unfused result beyond the limit
+            RangeAnalysis.Interval x = analysis.variable(slots.get(variable));
+            RangeAnalysis.Interval range = polynomial.range(x);
+            if (x.maybeNaN || x.lo < -polynomial.limit() || x.hi > polynomial.limit()) {
+                range = RangeAnalysis.hull(range, treeRange);
+            }
+            return polynomial(add(new PolynomialNode(variable, polynomial, tree), depth, range), polynomial, variable);
+        }
+
+        // Source-like text for report lines; subtrees below the given depth become "..."
+        private String describe(Node node, int depth) {
+            if (node instanceof Constant) {
+                double value = ((Constant) node).value;
+                return value == (long) value ? Long.toString((long) value) : Double.toString(value);
+            }
+            if (node instanceof Variable) {
+                return slots.get(((Variable) node).slot);
+            }
+            if (depth < 0) {
+                return "...";
+            }
+            if (node instanceof Power) {
+                Power power = (Power) node;
+                return "power(" + describe(power.base, depth - 1) + ", " + power.exponent() + ")";
+            }
+            if (node instanceof PolynomialNode) {
+                PolynomialNode polynomial = (PolynomialNode) node;
+                return "(" + polynomial.polynomial.toString(slots.get(polynomial.slot)) + ")";
+            }
+            if (node instanceof Conditional) {
+                Conditional conditional = (Conditional) node;
+                return "(" + describe(conditional.condition, depth - 1) + " ? " + describe(conditional.then, depth - 1)
+                        + " : " + describe(conditional.otherwise, depth - 1) + ")";
+            }
+            if (node instanceof Logical) {
+                Logical logical = (Logical) node;
+                return "(" + describe(logical.left, depth - 1) + " " + logical.symbol() + " "
+                        + describe(logical.right, depth - 1) + ")";
+            }
+            if (node instanceof Invoke) {
+                Invoke invoke = (Invoke) node;
+                StringBuilder text = new StringBuilder(invoke.function.name).append('(');
+                for (int i = 0; i < invoke.args.length; i++) {
+                    text.append(i == 0 ? "" : ", ").append(describe(invoke.args[i], depth - 1));
+                }
+                return text.append(')').toString();
+            }
+            if (node instanceof ProvidedCall) {
+                ProvidedCall call = (ProvidedCall) node;
+                StringBuilder text = new StringBuilder(call.function.name).append('(');
+                for (int i = 0; i < call.args.length; i++) {
+                    text.append(i == 0 ? "" : ", ").append(describe(call.args[i], depth - 1));
+                }
+                return text.append(')').toString();
+            }
+            if (node instanceof Aggregate) {
+                Aggregate aggregate = (Aggregate) node;
+                StringBuilder text = new StringBuilder(aggregate.reduction.functionName).append('(');
+                text.append(describe(aggregate.a, depth - 1));
+                if (aggregate.b != null) {
+                    text.append(", ").append(describe(aggregate.b, depth - 1));
+                }
+                if (aggregate.length != null) {
+                    text.append(", ").append(describe(aggregate.length, depth - 1));
+                }
+                return text.append(')').toString();
+            }
+            if (node instanceof Call) {
+                Call call = (Call) node;
+                StringBuilder text = new StringBuilder(call.builtin.functionName).append('(');
+                text.append(describe(call.a, depth - 1));
+                if (call.b != null) {
+                    text.append(", ").append(describe(call.b, depth - 1));
+                }
+                if (call.c != null) {
+                    text.append(", ").append(describe(call.c, depth - 1));
+                }
+                return text.append(')').toString();
+            }
+            Binary binary = (Binary) node;
+            return "(" + describe(binary.left, depth - 1) + " " + binary.symbol() + " "
+                    + describe(binary.right, depth - 1) + ")";
+        }
+
+        private String describe(ArrayValue value, int depth) {
+            if (value instanceof ArrayParameter) {
+                return arraySlots.get(((ArrayParameter) value).slot) + "[]";
+            }
+            int length = value instanceof ConstantArray ? ((ConstantArray) value).values.length
+                    : ((ArrayLiteral) value).elements.length;
+            if (depth < 0 || length > 4) {
+                return "[" + length + " values]";
+            }
+            StringBuilder text = new StringBuilder("[");
+            for (int i = 0; i < length; i++) {
+                text.append(i == 0 ? "" : ", ").append(value instanceof ConstantArray
+                        ? describe(new Constant(((ConstantArray) value).values[i]), depth - 1)
+                        : describe(((ArrayLiteral) value).elements[i], depth - 1));
+            }
+            return text.append(']').toString();
+        }
+    }
+
+    // Formulas with all but one input fixed, evaluated as compiled and as residuals, plus
+    // the cost of fetching a cached residual
+    public static class SpecializationBenchmark {
+        public static void main(String[] args) {
+            int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            String[] sources = {
+                    "power(x, 3)",
+                    "nthroot(x, 2)",
+                    "percentage(x, total)",
+                    "power(x, 3) * rate + nthroot(scale * 4, 2) - percentage(x, total)",
+                    "sin(angle) * x + cos(angle) * power(offset, 2) / total",
+            };
+            Map<String, Double> bindings = Map.of("total", 250.0, "rate", 1.5, "scale", 9.0, "angle", 30.0,
+                    "offset", 4.0);
+            double[] xs = new double[rows];
+            java.util.Random random = new java.util.Random(41);
+            for (int i = 0; i < rows; i++) {
+                xs[i] = 1 + 99 * random.nextDouble();
+            }
+
+            System.out.println("| Expression | Compiled (ns) | Residual (ns) | Speedup | Max difference (ulp) |");
+            System.out.println("|------------|---------------|---------------|---------|----------------------|");
+            for (String source : sources) {
+                CompiledExpression expression = compile(source);
+                CompiledExpression residual = expression.specialize(bindings);
+                double[] full = new double[expression.getSlotCount()];
+                for (int k = 0; k < full.length; k++) {
+                    Double bound = bindings.get(expression.slotNames[k]);
+                    full[k] = bound != null ? bound : 0;
+                }
+                int x = expression.slotOf("x");
+                double[] single = new double[1];
+                double compiledNanos = Double.MAX_VALUE;
+                double residualNanos = Double.MAX_VALUE;
+                double sink = 0;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (double value : xs) {
+                        full[x] = value;
+                        sink += expression.evaluate(full);
+                    }
+                    compiledNanos = Math.min(compiledNanos, (double) (System.nanoTime() - start) / rows);
+                    start = System.nanoTime();
+                    for (double value : xs) {
+                        single[0] = value;
+                        sink -= residual.evaluate(single);
+                    }
+                    residualNanos = Math.min(residualNanos, (double) (System.nanoTime() - start) / rows);
+                }
+                double worst = 0;
+                for (double value : xs) {
+                    full[x] = value;
+                    single[0] = value;
+                    double expected = expression.evaluate(full);
+                    worst = Math.max(worst, Math.abs(residual.evaluate(single) - expected) / Math.ulp(expected));
+                }
+                System.out.println(String.format("| %s | %.1f | %.1f | %.2f | %.0f |", source, compiledNanos,
+                        residualNanos, compiledNanos / residualNanos, worst) + (sink == 42 ? " " : ""));
+            }
+
+            CompiledExpression expression = compile(sources[3]);
+            Map<String, Double> lookup = new HashMap<>(bindings);
+            expression.specialize(lookup);
+            double hitNanos = Double.MAX_VALUE;
+            long sink = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < rows; i++) {
+                    sink += expression.specialize(lookup).getSlotCount();
+                }
+                hitNanos = Math.min(hitNanos, (double) (System.nanoTime() - start) / rows);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                lookup.put("total", 250.0 + i);
+                expression.specialize(lookup);
+            }
+            double missMicros = (System.nanoTime() - start) / 1e3 / 1000;
+            System.out.println();
+            System.out.println(String.format("specialize(): %.0f ns on a cache hit, %.1f us to build a new residual",
+                    hitNanos, missMicros) + (sink == 42 ? " " : ""));
+        }
+    }
+
+    // Compiles nested shapes shallow, as trees, and past MAX_TREE_DEPTH, where they run
+    // on FlatAST, and checks both against their value worked out by hand. Operands that
+    // must be skipped divide by zero, so evaluating one is reported as a failure.
+    public static class Verify {
+        public static void main(String[] args) {
+            double x = 2;
+            UserFunctions functions = new UserFunctions();
+            functions.define("double twice(a) = a + a;");
+            functions.define("double fact(n) = n ? n * fact(n - 1) : 1;");
+            // Opening, innermost and closing text of each level, and the value at depth d
+            Object[][] shapes = {
+                    { "x ? 1 + (", "x", ") : 1 / 0", (DoubleUnaryOperator) d -> x + d },
+                    { "x - 2 ? 1 / 0 : 1 + (", "x", ")", (DoubleUnaryOperator) d -> x + d },
+                    { "if(x, 1 + ", "x", ", 1 / 0)", (DoubleUnaryOperator) d -> x + d },
+                    { "x && (", "x", ")", (DoubleUnaryOperator) d -> 1 },
+                    { "x - 2 || (", "x", ")", (DoubleUnaryOperator) d -> 1 },
+                    { "(x - 2 && 1 / 0) + (x || 1 / 0) + (", "x", ")", (DoubleUnaryOperator) d -> x + d },
+                    { "twice(", "x", ") / 2", (DoubleUnaryOperator) d -> x },
+                    { "fact(x + 1) - 5 + (", "x", ")", (DoubleUnaryOperator) d -> x + d },
+                    { "fact(", "x", ")", (DoubleUnaryOperator) d -> x },
+                    { "hypot(0, ", "x", ")", (DoubleUnaryOperator) d -> x },
+                    { "clamp(1 + (", "x", "), 0, 1e9)", (DoubleUnaryOperator) d -> x + d },
+                    { "lerp(0, 2, (", "x", ") / 2)", (DoubleUnaryOperator) d -> x },
+            };
+            int failures = 0;
+            int runs = 0;
+            for (Object[] shape : shapes) {
+                for (int depth : new int[] { 10, 5 * MAX_TREE_DEPTH }) {
+                    StringBuilder source = new StringBuilder();
+                    for (int i = 0; i < depth; i++) {
+                        source.append(shape[0]);
+                    }
+                    source.append(shape[1]);
+                    for (int i = 0; i < depth; i++) {
+                        source.append(shape[2]);
+                    }
+                    double expected = ((DoubleUnaryOperator) shape[3]).applyAsDouble(depth);
+                    String actual;
+                    try {
+                        actual = Double.toString(compile(source.toString(), functions).evaluate(new double[] { x }));
+                    } catch (RuntimeException e) {
+                        actual = e.getMessage();
+                    }
+                    runs++;
+                    if (!actual.equals(Double.toString(expected))) {
+                        failures++;
+                        System.out.println(shape[0] + "..." + shape[2] + " at depth " + depth + ": " + actual
+                                + ", expected " + expected);
+                    }
+                }
+            }
+            System.out.println(runs + " expressions, " + failures + " failures");
+        }
+    }
+
+    // Evaluation tree; every field is final so a tree can be shared between threads
+    abstract static class Node {
+        abstract double evaluate(double[] slots, double[][] arrays, Context context);
+    }
+
+    // Per-thread state of an evaluation, passed down the tree; null unless the
+    // evaluation is metered or the tree calls user functions
+    static final class Context {
+        // Charged for the work whose cost depends on the values
+        EvaluationBudget.Meter meter;
+        // Argument slots of the user function calls in progress, by nesting depth; kept
+        // for later calls, so calling allocates nothing once the stack is deep enough
+        private double[][] frames = new double[8][];
+        private int depth;
+
+        private double[] frame(int depth, int size) {
+            if (depth == frames.length) {
+                frames = Arrays.copyOf(frames, depth * 2);
+            }
+            double[] frame = frames[depth];
+            if (frame == null || frame.length < size) {
+                frame = new double[Math.max(size, 4)];
+                frames[depth] = frame;
+            }
+            return frame;
+        }
+    }
+
+    static final class Constant extends Node {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return value;
+        }
+    }
+
+    static final class Variable extends Node {
+        final int slot;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return slots[slot];
+        }
+    }
+
+    // A subtree CompiledExpression.Builder recognized as a polynomial in one slot
+    // Falls back to the unfused operation beyond the polynomial's limit, where an
+    // intermediate could overflow, and for x NaN or infinite; the limit test is false
+    // for both
+    static final class PolynomialNode extends Node {
+        final int slot;
+        final Polynomial polynomial;
+        final double limit;
+        final Node tree;
+
+        PolynomialNode(int slot, Polynomial polynomial, Node tree) {
+            this.slot = slot;
+            this.polynomial = polynomial;
+            this.limit = polynomial.limit();
+            this.tree = tree;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = slots[slot];
+            return Math.abs(x) <= limit ? polynomial.evaluate(x) : tree.evaluate(slots, arrays, context);
+        }
+    }
+
+    // Strength-reduced power calls that evaluate their base once; see Builder.power
+    abstract static class Power extends Node {
+        final Node base;
+
+        Power(Node base) {
+            this.base = base;
+        }
+
+        abstract double exponent();
+    }
+
+    static final class SquareRoot extends Power {
+        SquareRoot(Node base) {
+            super(base);
+        }
+
+        double exponent() {
+            return 0.5;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = base.evaluate(slots, arrays, context);
+            // Math.pow(-0.0, 0.5) is 0.0 and Math.pow(-Infinity, 0.5) is Infinity
+            return x > 0 ? Math.sqrt(x) : Math.pow(x, 0.5);
+        }
+    }
+
+    static final class Square extends Power {
+        Square(Node base) {
+            super(base);
+        }
+
+        double exponent() {
+            return 2;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = base.evaluate(slots, arrays, context);
+            return x * x;
+        }
+    }
+
+    static final class Cube extends Power {
+        Cube(Node base) {
+            super(base);
+        }
+
+        double exponent() {
+            return 3;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = base.evaluate(slots, arrays, context);
+            return x * x * x;
+        }
+    }
+
+    static final class FourthPower extends Power {
+        FourthPower(Node base) {
+            super(base);
+        }
+
+        double exponent() {
+            return 4;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = base.evaluate(slots, arrays, context);
+            double square = x * x;
+            return square * square;
+        }
+    }
+
+    abstract static class Binary extends Node {
+        final Node left, right;
+
+        Binary(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        abstract char symbol();
+    }
+
+    static final class Add extends Binary {
+        Add(Node left, Node right) {
+            super(left, right);
+        }
+
+        char symbol() {
+            return '+';
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return left.evaluate(slots, arrays, context) + right.evaluate(slots, arrays, context);
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(Node left, Node right) {
+            super(left, right);
+        }
+
+        char symbol() {
+            return '-';
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return left.evaluate(slots, arrays, context) - right.evaluate(slots, arrays, context);
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(Node left, Node right) {
+            super(left, right);
+        }
+
+        char symbol() {
+            return '*';
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return left.evaluate(slots, arrays, context) * right.evaluate(slots, arrays, context);
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(Node left, Node right) {
+            super(left, right);
+        }
+
+        char symbol() {
+            return '/';
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double dividend = left.evaluate(slots, arrays, context);
+            double divisor = right.evaluate(slots, arrays, context);
+            if (divisor == 0)
+                throw new ArithmeticException("Error: Division by zero.");
+            return dividend / divisor;
+        }
+    }
+
+    // A division whose divisor RangeAnalysis proved is never zero
+    static final class UncheckedDivide extends Binary {
+        UncheckedDivide(Node left, Node right) {
+            super(left, right);
+        }
+
+        char symbol() {
+            return '/';
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return left.evaluate(slots, arrays, context) / right.evaluate(slots, arrays, context);
+        }
+    }
+
+    static class Call extends Node {
+        final Builtin builtin;
+        final Node a, b, c;
+
+        Call(Builtin builtin, Node a, Node b, Node c) {
+            this.builtin = builtin;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = a.evaluate(slots, arrays, context);
+            double y = b == null ? 0 : b.evaluate(slots, arrays, context);
+            double z = c == null ? 0 : c.evaluate(slots, arrays, context);
+            return builtin.apply(x, y, z);
+        }
+    }
+
+    // A call whose zero-divisor check RangeAnalysis proved can never fire
+    static final class UncheckedCall extends Call {
+        UncheckedCall(Builtin builtin, Node a, Node b, Node c) {
+            super(builtin, a, b, c);
+        }
+
+        @Override
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = a.evaluate(slots, arrays, context);
+            double y = b == null ? 0 : b.evaluate(slots, arrays, context);
+            double z = c == null ? 0 : c.evaluate(slots, arrays, context);
+            return builtin.applyUnchecked(x, y, z);
+        }
+    }
+
+    // A call whose work depends on its arguments, such as isprime's trial divisions,
+    // charged to the meter as it runs
+    static final class MeteredCall extends Call {
+        MeteredCall(Builtin builtin, Node a, Node b, Node c) {
+            super(builtin, a, b, c);
+        }
+
+        @Override
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double x = a.evaluate(slots, arrays, context);
+            double y = b == null ? 0 : b.evaluate(slots, arrays, context);
+            double z = c == null ? 0 : c.evaluate(slots, arrays, context);
+            return context == null || context.meter == null ? builtin.apply(x, y, z)
+                    : builtin.apply(x, y, z, context.meter);
+        }
+    }
+
+    // Parses a user function's body into the calling expression, with each parameter
+    // standing for the handle of its argument
+    private static final class Inliner implements ASTParser.ASTBuilder {
+        private final Builder target;
+        private final String[] params;
+        private final int[] args;
+
+        Inliner(Builder target, String[] params, int[] args) {
+            this.target = target;
+            this.params = params;
+            this.args = args;
+        }
+
+        public int operand(String token) {
+            for (int i = 0; i < params.length; i++) {
+                if (params[i].equals(token)) {
+                    return args[i];
+                }
+            }
+            // Definitions are checked to read only their parameters, so this is a number
+            return target.operand(token);
+        }
+
+        public int binary(char operator, int left, int right) {
+            return target.binary(operator, left, right);
+        }
+
+        public int call(String name, int[] args, int from, int count) {
+            return target.call(name, args, from, count);
+        }
+
+        public int logical(char operator, int left, int right) {
+            return target.logical(operator, left, right);
+        }
+
+        public int conditional(int condition, int then, int otherwise) {
+            return target.conditional(condition, then, otherwise);
+        }
+    }
+
+    // A user function called through its Definition, with the arguments as its slots.
+    // The slots are a frame of the per-thread Context, taken before the arguments are
+    // evaluated so that calls among them use deeper frames. Under a meter every call is
+    // charged the callee's steps and bytes, so deep or exponential recursion is stopped
+    // by the budget like any other work.
+    static final class Invoke extends Node {
+        final UserFunctions.Definition function;
+        final Node[] args;
+
+        Invoke(UserFunctions.Definition function, Node[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            // Only null when folded while compiling
+            Context state = context != null ? context : contexts.get();
+            int depth = state.depth;
+            CompiledExpression body = enter(function, state);
+            double[] frame = state.frame(depth, args.length);
+            state.depth = depth + 1;
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    frame[i] = args[i].evaluate(slots, arrays, state);
+                }
+                return body.root.evaluate(frame, NO_ARRAYS, state);
+            } finally {
+                state.depth = depth;
+            }
+        }
+
+        // Checks the nesting limit and charges the call to the meter, if any; returns the
+        // body to evaluate in a frame at the current depth
+        static CompiledExpression enter(UserFunctions.Definition function, Context state) {
+            if (state.depth == MAX_CALL_DEPTH) {
+                throw new IllegalStateException("Error: Calls to " + function.name + " nested deeper than "
+                        + MAX_CALL_DEPTH + ".");
+            }
+            CompiledExpression body = function.compiled();
+            if (state.meter != null) {
+                state.meter.allocate(body.bytes);
+                state.meter.step(body.steps);
+            }
+            return body;
+        }
+    }
+
+    // The same call from the flat form, whose arguments are evaluated before it
+    static final class FlatInvoke implements FlatAST.Callee {
+        private final UserFunctions.Definition function;
+
+        FlatInvoke(UserFunctions.Definition function) {
+            this.function = function;
+        }
+
+        public String name() {
+            return function.name;
+        }
+
+        public double apply(double[] scratch, int[] args) {
+            Context state = contexts.get();
+            int depth = state.depth;
+            CompiledExpression body = Invoke.enter(function, state);
+            double[] frame = state.frame(depth, args.length);
+            for (int i = 0; i < args.length; i++) {
+                frame[i] = scratch[args[i]];
+            }
+            state.depth = depth + 1;
+            try {
+                return body.root.evaluate(frame, NO_ARRAYS, state);
+            } finally {
+                state.depth = depth;
+            }
+        }
+    }
+
+    // A call to a provided function, holding the implementation it was linked to
+    abstract static class ProvidedCall extends Node {
+        final ProvidedFunction function;
+        final Node[] args;
+
+        ProvidedCall(ProvidedFunction function, Node[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        static ProvidedCall of(ProvidedFunction function, Node[] args) {
+            switch (args.length) {
+                case 1:
+                    return new ProvidedCall1(function, args);
+                case 2:
+                    return new ProvidedCall2(function, args);
+                default:
+                    return new ProvidedCall3(function, args);
+            }
+        }
+    }
+
+    static final class ProvidedCall1 extends ProvidedCall {
+        private final DoubleUnaryOperator target;
+        private final Node a;
+
+        ProvidedCall1(ProvidedFunction function, Node[] args) {
+            super(function, args);
+            this.target = function.unary;
+            this.a = args[0];
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return target.applyAsDouble(a.evaluate(slots, arrays, context));
+        }
+    }
+
+    static final class ProvidedCall2 extends ProvidedCall {
+        private final DoubleBinaryOperator target;
+        private final Node a, b;
+
+        ProvidedCall2(ProvidedFunction function, Node[] args) {
+            super(function, args);
+            this.target = function.binary;
+            this.a = args[0];
+            this.b = args[1];
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return target.applyAsDouble(a.evaluate(slots, arrays, context), b.evaluate(slots, arrays, context));
+        }
+    }
+
+    static final class ProvidedCall3 extends ProvidedCall {
+        private final ProvidedFunction.DoubleTernaryOperator target;
+        private final Node a, b, c;
+
+        ProvidedCall3(ProvidedFunction function, Node[] args) {
+            super(function, args);
+            this.target = function.ternary;
+            this.a = args[0];
+            this.b = args[1];
+            this.c = args[2];
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return target.applyAsDouble(a.evaluate(slots, arrays, context), b.evaluate(slots, arrays, context),
+                    c.evaluate(slots, arrays, context));
+        }
+    }
+
+    // cond ? then : otherwise; any nonzero condition, NaN included, is true as in C.
+    // Only the branch taken is evaluated, so "isprime(n) ? heavy(n) : 0" never calls
+    // heavy for a composite n
+    static final class Conditional extends Node {
+        final Node condition, then, otherwise;
+
+        Conditional(Node condition, Node then, Node otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return condition.evaluate(slots, arrays, context) != 0 ? then.evaluate(slots, arrays, context)
+                    : otherwise.evaluate(slots, arrays, context);
+        }
+    }
+
+    // && and ||, which yield 1 or 0 and evaluate right only when left does not decide
+    abstract static class Logical extends Node {
+        final Node left, right;
+
+        Logical(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        abstract String symbol();
+    }
+
+    static final class And extends Logical {
+        And(Node left, Node right) {
+            super(left, right);
+        }
+
+        String symbol() {
+            return "&&";
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return left.evaluate(slots, arrays, context) != 0 && right.evaluate(slots, arrays, context) != 0 ? 1 : 0;
+        }
+    }
+
+    static final class Or extends Logical {
+        Or(Node left, Node right) {
+            super(left, right);
+        }
+
+        String symbol() {
+            return "||";
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            return left.evaluate(slots, arrays, context) != 0 || right.evaluate(slots, arrays, context) != 0 ? 1 : 0;
+        }
+    }
+
+    // The array reductions; each takes array operands instead of Builtin's numbers
+    enum Reduction {
+        SUM("sum"), MEAN("mean"), DOT("dot"), MIN("min"), MAX("max"), NORM("norm");
+
+        final String functionName;
+
+        Reduction(String functionName) {
+            this.functionName = functionName;
+        }
+
+        static Reduction resolve(String name) {
+            for (Reduction reduction : values()) {
+                if (reduction.functionName.equals(name)) {
+                    return reduction;
+                }
+            }
+            throw new IllegalArgumentException(
+                    "Error: Function '" + name + "' does not take arrays; use sum, mean, dot, min, max or norm.");
+        }
+    }
+
+    // Array operands of an Aggregate; they are never evaluated on their own
+    abstract static class ArrayValue {
+        abstract double[] values(double[] slots, double[][] arrays, Context context);
+    }
+
+    static final class ArrayParameter extends ArrayValue {
+        final int slot;
+
+        ArrayParameter(int slot) {
+            this.slot = slot;
+        }
+
+        double[] values(double[] slots, double[][] arrays, Context context) {
+            return arrays[slot];
+        }
+    }
+
+    // A literal whose elements are all constants; the kernels only read it, so it is shared
+    static final class ConstantArray extends ArrayValue {
+        final double[] values;
+
+        ConstantArray(double[] values) {
+            this.values = values;
+        }
+
+        double[] values(double[] slots, double[][] arrays, Context context) {
+            return values;
+        }
+    }
+
+    // A literal with computed elements, filled into a new array on every evaluation so
+    // that the tree stays shareable between threads
+    static final class ArrayLiteral extends ArrayValue {
+        final Node[] elements;
+
+        ArrayLiteral(Node[] elements) {
+            this.elements = elements;
+        }
+
+        double[] values(double[] slots, double[][] arrays, Context context) {
+            double[] values = new double[elements.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = elements[i].evaluate(slots, arrays, context);
+            }
+            return values;
+        }
+    }
+
+    static final class Aggregate extends Node {
+        final Reduction reduction;
+        final ArrayValue a, b;
+        // Only for mean(x[], n): how many leading values to average
+        final Node length;
+
+        Aggregate(Reduction reduction, ArrayValue a, ArrayValue b, Node length) {
+            this.reduction = reduction;
+            this.a = a;
+            this.b = b;
+            this.length = length;
+        }
+
+        double evaluate(double[] slots, double[][] arrays, Context context) {
+            double[] x = a.values(slots, arrays, context);
+            double[] y = b == null ? null : b.values(slots, arrays, context);
+            if (context != null && context.meter != null) {
+                // Only now is it known how much an array parameter holds
+                context.meter.step((a instanceof ArrayParameter ? x.length : 0)
+                        + (b instanceof ArrayParameter ? y.length : 0));
+            }
+            switch (reduction) {
+                case SUM:
+                    return ArrayKernels.sum(x);
+                case MEAN:
+                    return length == null ? ArrayKernels.mean(x) : ArrayKernels.mean(x, count(x, slots, arrays, context));
+                case DOT:
+                    return ArrayKernels.dot(x, y);
+                case MIN:
+                    return ArrayKernels.min(x);
+                case MAX:
+                    return ArrayKernels.max(x);
+                default:
+                    return ArrayKernels.norm(x);
+            }
+        }
+
+        private int count(double[] x, double[] slots, double[][] arrays, Context context) {
+            double n = length.evaluate(slots, arrays, context);
+            if (n != (int) n || n < 0 || n > x.length) {
+                throw new IllegalArgumentException(
+                        "Error: mean count must be a whole number from 0 to " + x.length + ", got " + n + ".");
+            }
+            return (int) n;
+        }
+    }
+}
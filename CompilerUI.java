@@ -9,113 +9,28 @@ import java.util.StringTokenizer;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.function.Predicate;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
-// Base class for AST nodes
-abstract class ASTNode {
-    public abstract void print(); // Method to print the AST for visualization
-}
-
-// Operand Node (for simple values like a, b, etc.)
-class OperandNode extends ASTNode {
-    String value;
-
-    public OperandNode(String value) {
-        this.value = value;
-    }
-
-    @Override
-    public void print() {
-        System.out.println(value);
-    }
-}
-
-// Arithmetic Operations (Binary)
-class AddNode extends ASTNode {
-    ASTNode left, right;
-
-    public AddNode(ASTNode left, ASTNode right) {
-        this.left = left;
-        this.right = right;
-    }
-
-    @Override
-    public void print() {
-        System.out.println("+");
-        left.print();
-        right.print();
-    }
-}
-
-// MultiplyNode class (for multiplication operation)
-class MultiplyNode extends ASTNode {
-    ASTNode left, right;
-
-    public MultiplyNode(ASTNode left, ASTNode right) {
-        this.left = left;
-        this.right = right;
-    }
-
-    @Override
-    public void print() {
-        System.out.println("*");
-        left.print();
-        right.print();
-    }
-}
-
-// Parser class to generate AST from input expression (supporting + and *)
-class ASTParser {
-    private StringTokenizer tokenizer;
-    private String currentToken;
-
-    public ASTNode parse(String expression) {
-        tokenizer = new StringTokenizer(expression, "+*", true);
-        nextToken();
-        return parseExpression();
-    }
-
-    private void nextToken() {
-        currentToken = tokenizer.hasMoreTokens() ? tokenizer.nextToken().trim() : null;
-    }
-
-    private ASTNode parseExpression() {
-        ASTNode node = parseTerm();
-        while (currentToken != null && currentToken.equals("+")) {
-            nextToken();
-            node = new AddNode(node, parseTerm());
-        }
-        return node;
-    }
-
-    private ASTNode parseTerm() {
-        ASTNode node = parseFactor();
-        while (currentToken != null && currentToken.equals("*")) {
-            nextToken();
-            node = new MultiplyNode(node, parseFactor());
-        }
-        return node;
-    }
-
-    private ASTNode parseFactor() {
-        ASTNode node = new OperandNode(currentToken);
-        nextToken();
-        return node;
-    }
-}
-
 public class CompilerUI {
     private JFrame frame;
     private JTextArea editorTextArea;
     private JTextArea outputTextArea;
     private JButton compileButton, tokenizeButton, implementButton, pdfButton, generateTACButton;
     private JLabel outputLabel;
+    private final FunctionEvaluator evaluator = new FunctionEvaluator();
+    // Functions defined with Compile, seen by every button of this window
+    private final UserFunctions userFunctions = new UserFunctions();
+    private final ASTParser parser = new ASTParser();
+    private LiveDiagnostics diagnostics;
+    private final List<Object> errorHighlights = new ArrayList<>();
+    private static final int MAX_ERROR_HIGHLIGHTS = 1000;
 
     // Predefined valid functions for the compiler with return types
-    private static final Map<String, String> predefinedFunctions = new HashMap<>();
+    static final Map<String, String> predefinedFunctions = new HashMap<>();
 
     static {
         predefinedFunctions.put("add", "int");
@@ -158,6 +73,11 @@ public class CompilerUI {
         predefinedFunctions.put("sumofsquares", "int");
         predefinedFunctions.put("reciprocal", "double");
         predefinedFunctions.put("mean", "double");
+        predefinedFunctions.put("sum", "double");
+        predefinedFunctions.put("dot", "double");
+        predefinedFunctions.put("min", "double");
+        predefinedFunctions.put("max", "double");
+        predefinedFunctions.put("norm", "double");
         predefinedFunctions.put("reversenumber", "int");
         predefinedFunctions.put("degreestoradians", "double");
         predefinedFunctions.put("radianstodegrees", "double");
@@ -213,6 +133,8 @@ public class CompilerUI {
         editorTextArea.setFont(new Font("Courier New", Font.PLAIN, 16));
         editorTextArea.setBackground(Color.WHITE);
         JScrollPane scrollEditor = new JScrollPane(editorTextArea);
+        // Errors are marked as the text changes, without pressing Compile
+        diagnostics = new LiveDiagnostics(editorTextArea.getDocument(), userFunctions, this::showDiagnostics);
         scrollEditor.setBorder(BorderFactory.createTitledBorder(
                 BorderFactory.createLineBorder(new Color(0, 123, 255), 2), "Editor"));
 
@@ -226,6 +148,7 @@ public class CompilerUI {
         outputTextArea.setEditable(false);
         outputTextArea.setFont(new Font("Courier New", Font.PLAIN, 16));
         outputTextArea.setBackground(Color.WHITE);
+        outputTextArea.setText(String.join("\n", FunctionProviders.skipped()));
         JScrollPane scrollOutput = new JScrollPane(outputTextArea);
         scrollOutput.setBorder(BorderFactory.createTitledBorder(
                 BorderFactory.createLineBorder(new Color(0, 123, 255), 2), "Output"));
@@ -249,6 +172,10 @@ public class CompilerUI {
         generateTACButton = createButton("TAC", unifiedColor, e -> generateTAC());
         JButton symbolTableButton = createButton("Symbol Table", unifiedColor, e -> showSymbolTable());
         JButton astButton = createButton("AST", unifiedColor, e -> displayAST());
+        JCheckBox fastMathCheckBox = new JCheckBox("Fast math");
+        fastMathCheckBox.setFont(new Font("Arial", Font.BOLD, 14));
+        fastMathCheckBox.setBackground(Color.WHITE);
+        fastMathCheckBox.addActionListener(e -> evaluator.setFastMath(fastMathCheckBox.isSelected()));
 
         buttonPanel.add(compileButton);
         buttonPanel.add(tokenizeButton);
@@ -256,6 +183,7 @@ public class CompilerUI {
         buttonPanel.add(generateTACButton);
         buttonPanel.add(symbolTableButton);
         buttonPanel.add(astButton);
+        buttonPanel.add(fastMathCheckBox);
 
         mainPanel.add(buttonPanel, BorderLayout.SOUTH);
 
@@ -265,6 +193,29 @@ public class CompilerUI {
         frame.getContentPane().add(splitPane, BorderLayout.CENTER);
     }
 
+    // Shades erroneous lines and names the first error; only the first
+    // MAX_ERROR_HIGHLIGHTS lines are shaded so painting stays cheap
+    private void showDiagnostics(List<LiveDiagnostics.Marker> markers) {
+        javax.swing.text.Highlighter highlighter = editorTextArea.getHighlighter();
+        for (Object highlight : errorHighlights) {
+            highlighter.removeHighlight(highlight);
+        }
+        errorHighlights.clear();
+        javax.swing.text.Highlighter.HighlightPainter painter =
+                new javax.swing.text.DefaultHighlighter.DefaultHighlightPainter(new Color(255, 220, 220));
+        for (int i = 0; i < markers.size() && i < MAX_ERROR_HIGHLIGHTS; i++) {
+            int line = markers.get(i).line;
+            try {
+                errorHighlights.add(highlighter.addHighlight(editorTextArea.getLineStartOffset(line),
+                        editorTextArea.getLineEndOffset(line), painter));
+            } catch (javax.swing.text.BadLocationException e) {
+                // Markers are published against the current text, so every line exists
+            }
+        }
+        outputLabel.setText(markers.isEmpty() ? ""
+                : markers.size() + " error(s). " + markers.get(0));
+    }
+
     private JButton createButton(String text, Color bgColor, ActionListener action) {
         JButton button = new JButton(text);
         button.setFont(new Font("Arial", Font.BOLD, 14));
@@ -324,6 +275,11 @@ public class CompilerUI {
                 { "Sum of squares", "a, b", "int, int", 2, "Global", 8, "int" },
                 { "Reciprocal", "a", "double", 1, "Global", 8, "double" },
                 { "Mean", "arr[], size", "int[], int", 2, "Global", 8 + 4, "double" },
+                { "Sum", "arr[]", "double[]", 1, "Global", 8, "double" },
+                { "Dot", "a[], b[]", "double[], double[]", 2, "Global", 16, "double" },
+                { "Min", "arr[]", "double[]", 1, "Global", 8, "double" },
+                { "Max", "arr[]", "double[]", 1, "Global", 8, "double" },
+                { "Norm", "arr[]", "double[]", 1, "Global", 8, "double" },
                 { "Reverse number", "a", "int", 1, "Global", 4, "int" },
                 { "Degrees to radians", "deg", "double", 1, "Global", 8, "double" },
                 { "Radians to degree", "rad", "double", 1, "Global", 8, "double" },
@@ -335,6 +291,24 @@ public class CompilerUI {
                 { "Min of three", "a, b, c", "int, int, int", 3, "Global", 12, "int" },
                 { "Is palindrome", "a", "int", 1, "Global", 4, "bool" }
         };
+        // User and provided functions follow the built-ins; their parameters are numbers
+        // of 8 bytes
+        List<Object[]> rows = new ArrayList<>(Arrays.asList(data));
+        for (UserFunctions.Definition function : userFunctions.all()) {
+            String[] types = new String[function.params.length];
+            Arrays.fill(types, "double");
+            rows.add(new Object[] { function.name, String.join(", ", function.params), String.join(", ", types),
+                    function.params.length, "Global", 8 * function.params.length,
+                    function.returnType.equals("boolean") ? "bool" : function.returnType });
+        }
+        for (ProvidedFunction function : FunctionProviders.all()) {
+            String[] types = new String[function.params.length];
+            Arrays.fill(types, "double");
+            rows.add(new Object[] { function.name, String.join(", ", function.params), String.join(", ", types),
+                    function.params.length, "Global", 8 * function.params.length,
+                    function.returnType.equals("boolean") ? "bool" : function.returnType });
+        }
+        data = rows.toArray(new Object[0][]);
 
         JTable table = new JTable(data, columnNames);
         JScrollPane scrollPane = new JScrollPane(table);
@@ -346,14 +320,40 @@ public class CompilerUI {
 
     // Compile and validate code
     private void compileCode() {
-        String functionDeclaration = editorTextArea.getText().trim();
+        outputTextArea.setText(compileCode(editorTextArea.getText(), userFunctions));
+    }
+
+    // Validate the source text without touching any UI state; definitions in it are
+    // seen only by the rest of the same source
+    static String compileCode(String source) {
+        return compileCode(source, new UserFunctions());
+    }
+
+    // Same, registering definitions in functions and resolving calls there
+    static String compileCode(String source, UserFunctions functions) {
+        String functionDeclaration = source.trim();
         if (functionDeclaration.isEmpty()) {
-            outputTextArea.setText("Error: Empty input.");
-            return;
+            return "Error: Empty input.";
+        }
+
+        // Several statements are compiled together, in parallel
+        List<SourceCompiler.Statement> statements = SourceCompiler.scan(functionDeclaration);
+        if (statements.size() > 1) {
+            return new SourceCompiler().compile(functionDeclaration, functions).summary();
         }
 
-        String validationResult = validateFunctionDeclaration(functionDeclaration);
-        outputTextArea.setText(validationResult);
+        // "double hyp(a, b) = body;" defines a function instead of declaring a call
+        if (functionDeclaration.contains("=")) {
+            try {
+                UserFunctions.Definition function = functions.define(functionDeclaration);
+                return "Function '" + function.name + "' defined successfully.";
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }
+
+        String validationResult = validateFunctionDeclaration(functionDeclaration, functions);
+        return validationResult;
     }
 
     private void displayAST() {
@@ -511,7 +511,14 @@ public class CompilerUI {
                 outputTextArea.setText(buildTree("Is palindrome", "a", ""));
                 break;
             default:
-                outputTextArea.setText("Invalid expression format.");
+                // Anything else is parsed as a general expression and shown as a tree
+                try {
+                    ASTNode ast = parser.parse(code);
+                    outputTextArea.setText("");
+                    printAST(ast, 0);
+                } catch (IllegalArgumentException e) {
+                    outputTextArea.setText("Invalid expression format.");
+                }
         }
     }
 
@@ -524,52 +531,40 @@ public class CompilerUI {
     }
 
     private void printAST(ASTNode node, int level) {
-        String indent = "  ".repeat(level);
-        if (node instanceof OperandNode) {
-            outputTextArea.append(indent + ((OperandNode) node).value + "\n");
-        } else if (node instanceof AddNode) {
-            outputTextArea.append(indent + "Add\n");
-            printAST(((AddNode) node).left, level + 1);
-            printAST(((AddNode) node).right, level + 1);
-        } else if (node instanceof MultiplyNode) {
-            outputTextArea.append(indent + "Multiply\n");
-            printAST(((MultiplyNode) node).left, level + 1);
-            printAST(((MultiplyNode) node).right, level + 1);
-        }
-    }
-
-    // AST Node Classes
-    abstract class ASTNode {
+        outputTextArea.append(formatAST(node, level));
     }
 
-    class AddNode extends ASTNode {
-        ASTNode left, right;
-
-        AddNode(ASTNode left, ASTNode right) {
-            this.left = left;
-            this.right = right;
-        }
+    // Indentation stops growing after MAX_INDENT levels so huge trees stay linear in size
+    static String formatAST(ASTNode root, int level) {
+        StringBuilder out = new StringBuilder();
+        ASTNode.walk(root, (node, depth) -> {
+            int indent = level + depth;
+            if (indent > MAX_INDENT) {
+                out.append("  ".repeat(MAX_INDENT)).append('[').append(indent).append("] ");
+            } else {
+                out.append("  ".repeat(indent));
+            }
+            out.append(node.label()).append('\n');
+        });
+        return out.toString();
     }
 
-    class MultiplyNode extends ASTNode {
-        ASTNode left, right;
+    private static final int MAX_INDENT = 32;
 
-        MultiplyNode(ASTNode left, ASTNode right) {
-            this.left = left;
-            this.right = right;
-        }
+    // Validate function declaration
+    static String validateFunctionDeclaration(String declaration) {
+        return validateFunctionDeclaration(declaration, UserFunctions.NONE);
     }
 
-    class OperandNode extends ASTNode {
-        String value;
-
-        OperandNode(String value) {
-            this.value = value;
-        }
+    // Same, also accepting the functions defined in functions
+    static String validateFunctionDeclaration(String declaration, UserFunctions functions) {
+        return validateFunctionDeclaration(declaration,
+                name -> predefinedFunctions.containsKey(name) || functions.lookup(name) != null
+                        || FunctionProviders.lookup(name) != null);
     }
 
-    // Validate function declaration
-    private String validateFunctionDeclaration(String declaration) {
+    // Same, with known deciding which lowercase function names are defined
+    static String validateFunctionDeclaration(String declaration, Predicate<String> known) {
         if (!declaration.endsWith(";")) {
             return "Error: Missing semicolon at the end.";
         }
@@ -586,7 +581,7 @@ public class CompilerUI {
         }
 
         String functionName = headerParts[1].toLowerCase();
-        if (!predefinedFunctions.containsKey(functionName)) {
+        if (!known.test(functionName)) {
             return "Error: Undefined Function '" + headerParts[1] + "'";
         }
 
@@ -595,10 +590,14 @@ public class CompilerUI {
 
     // Tokenize and extract function details with labeling
     private void tokenizeFunction() {
-        String functionDeclaration = editorTextArea.getText().trim();
+        outputTextArea.setText(tokenizeFunction(editorTextArea.getText()));
+    }
+
+    // Build the token listing without touching any UI state
+    static String tokenizeFunction(String source) {
+        String functionDeclaration = source.trim();
         if (functionDeclaration.isEmpty()) {
-            outputTextArea.setText("Error: No function to tokenize.");
-            return;
+            return "Error: No function to tokenize.";
         }
 
         StringBuilder tokenOutput = new StringBuilder("Function Declaration: ").append(functionDeclaration)
@@ -628,7 +627,7 @@ public class CompilerUI {
             }
         }
 
-        outputTextArea.setText(tokenOutput.toString());
+        return tokenOutput.toString();
     }
 
     // Open User Manual
@@ -648,10 +647,19 @@ public class CompilerUI {
     // Implement functionality (to be extended)
     // Implement functionality based on function and arguments
     private void implementFunction() {
-        String functionDeclaration = editorTextArea.getText().trim();
+        outputTextArea.setText(implementFunction(editorTextArea.getText(), evaluator, userFunctions));
+    }
+
+    // Run the declared call without touching any UI state
+    static String implementFunction(String source, FunctionEvaluator evaluator) {
+        return implementFunction(source, evaluator, UserFunctions.NONE);
+    }
+
+    // Same, also calling the functions defined in functions
+    static String implementFunction(String source, FunctionEvaluator evaluator, UserFunctions functions) {
+        String functionDeclaration = source.trim();
         if (functionDeclaration.isEmpty()) {
-            outputTextArea.setText("Error: No function to implement.");
-            return;
+            return "Error: No function to implement.";
         }
 
         // Remove semicolon at the end if present
@@ -664,8 +672,7 @@ public class CompilerUI {
         int closeParenIndex = functionDeclaration.indexOf(")");
 
         if (openParenIndex == -1 || closeParenIndex == -1 || closeParenIndex < openParenIndex) {
-            outputTextArea.setText("Error: Invalid function format. Correct format: functionName(param1, param2)");
-            return;
+            return "Error: Invalid function format. Correct format: functionName(param1, param2)";
         }
 
         // Extract function header and name
@@ -673,245 +680,98 @@ public class CompilerUI {
         String[] headerParts = header.split("\\s+");
 
         if (headerParts.length < 2) {
-            outputTextArea.setText("Error: Invalid function format. No function name found.");
-            return;
+            return "Error: Invalid function format. No function name found.";
         }
 
         String functionName = headerParts[1].trim();
 
         // Extract parameters
         String paramsString = functionDeclaration.substring(openParenIndex + 1, closeParenIndex).trim();
-        String[] params = paramsString.isEmpty() ? new String[0] : paramsString.split(",");
+        String[] params = paramsString.isEmpty() ? new String[0] : ArgumentVector.split(paramsString);
+
+        // User functions are evaluated through their compiled body
+        UserFunctions.Definition function = functions.lookup(functionName);
+        if (function != null) {
+            try {
+                ArgumentVector args = ArgumentVector.of(params);
+                double[] values = new double[args.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = args.doubleAt(i);
+                }
+                return "Result: " + function.format(function.call(values));
+            } catch (NumberFormatException e) {
+                return "Error: Invalid number format. Please enter valid numeric values.";
+            } catch (RuntimeException e) {
+                // Not every exception from a body carries a message
+                return ParallelExecutor.errorText(e);
+            }
+        }
+
+        // Provided functions run through the evaluator and report their own errors
+        if (FunctionProviders.lookup(functionName) != null) {
+            try {
+                return "Result: " + evaluator.executeFunction(functionName.toLowerCase(), ArgumentVector.of(params));
+            } catch (NumberFormatException e) {
+                return "Error: Invalid number format. Please enter valid numeric values.";
+            } catch (Exception e) {
+                // A provider's exception may carry no message, or one without the prefix
+                return ParallelExecutor.errorText(e);
+            }
+        }
 
         // Check if the function exists in predefined functions
         if (!predefinedFunctions.containsKey(functionName.toLowerCase())) {
-            outputTextArea.setText("Error: Function '" + functionName + "' not recognized.");
-            return;
+            return "Error: Function '" + functionName + "' not recognized.";
         }
 
         try {
-            String result = executeFunction(functionName.toLowerCase(), params);
-            outputTextArea.setText("Result: " + result);
+            // Parse every argument once, up front
+            ArgumentVector args = ArgumentVector.of(params);
+            String result = evaluator.executeFunction(functionName.toLowerCase(), args);
+            return "Result: " + result;
         } catch (NumberFormatException e) {
-            outputTextArea.setText("Error: Invalid number format. Please enter valid numeric values.");
+            return "Error: Invalid number format. Please enter valid numeric values.";
         } catch (ArithmeticException e) {
-            outputTextArea.setText("Error: " + e.getMessage());
+            return "Error: " + e.getMessage();
         } catch (Exception e) {
-            outputTextArea.setText("Error: " + e.getMessage());
+            return "Error: " + e.getMessage();
         }
     }
 
-    // Execute the function based on the function name and parameters
-    private String executeFunction(String functionName, String[] params) throws Exception {
-        if (params.length == 0) {
-            throw new IllegalArgumentException("Error: Missing parameters.");
-        }
 
-        switch (functionName) {
-            case "add":
-                return String.valueOf(Integer.parseInt(params[0]) + Integer.parseInt(params[1]));
-            case "subtract":
-                return String.valueOf(Integer.parseInt(params[0]) - Integer.parseInt(params[1]));
-            case "multiply":
-                return String.valueOf(Integer.parseInt(params[0]) * Integer.parseInt(params[1]));
-            case "divide":
-                if (Double.parseDouble(params[1]) == 0)
-                    throw new ArithmeticException("Error: Division by zero.");
-                return String.valueOf(Double.parseDouble(params[0]) / Double.parseDouble(params[1]));
-            case "modulus":
-                if (Integer.parseInt(params[1]) == 0)
-                    throw new ArithmeticException("Error: Modulo by zero.");
-                return String.valueOf(Integer.parseInt(params[0]) % Integer.parseInt(params[1]));
-            case "power":
-                return String.valueOf(Math.pow(Double.parseDouble(params[0]), Double.parseDouble(params[1])));
-            case "squareroot":
-                return String.valueOf(Math.sqrt(Double.parseDouble(params[0])));
-            case "cuberoot":
-                return String.valueOf(Math.cbrt(Double.parseDouble(params[0])));
-            case "nthroot":
-                return String.valueOf(Math.pow(Double.parseDouble(params[0]), 1.0 / Double.parseDouble(params[1])));
-            case "iseven":
-                return String.valueOf(Integer.parseInt(params[0]) % 2 == 0);
-            case "isodd":
-                return String.valueOf(Integer.parseInt(params[0]) % 2 != 0);
-            case "halfvalue":
-                return String.valueOf(Double.parseDouble(params[0]) / 2);
-            case "doublevalue":
-                return String.valueOf(Double.parseDouble(params[0]) * 2);
-            case "increment":
-                return String.valueOf(Integer.parseInt(params[0]) + 1);
-            case "decrement":
-                return String.valueOf(Integer.parseInt(params[0]) - 1);
-            case "findmax":
-                return String.valueOf(Math.max(Integer.parseInt(params[0]), Integer.parseInt(params[1])));
-            case "findmin":
-                return String.valueOf(Math.min(Integer.parseInt(params[0]), Integer.parseInt(params[1])));
-            case "isprime":
-                return String.valueOf(isPrime(Integer.parseInt(params[0])));
-            case "sin":
-                return String.valueOf(Math.sin(Math.toRadians(Double.parseDouble(params[0]))));
-            case "cos":
-                return String.valueOf(Math.cos(Math.toRadians(Double.parseDouble(params[0]))));
-            case "tan":
-                return String.valueOf(Math.tan(Math.toRadians(Double.parseDouble(params[0]))));
-            case "cot":
-                return String.valueOf(1 / Math.tan(Math.toRadians(Double.parseDouble(params[0]))));
-            case "sec":
-                return String.valueOf(1 / Math.cos(Math.toRadians(Double.parseDouble(params[0]))));
-            case "cosec":
-                return String.valueOf(1 / Math.sin(Math.toRadians(Double.parseDouble(params[0]))));
-            case "gcd":
-                return String.valueOf(gcd(Integer.parseInt(params[0]), Integer.parseInt(params[1])));
-            case "lcm":
-                return String.valueOf(lcm(Integer.parseInt(params[0]), Integer.parseInt(params[1])));
-            case "absolutevalue":
-                return String.valueOf(Math.abs(Integer.parseInt(params[0])));
-            case "ceil":
-                return String.valueOf(Math.ceil(Double.parseDouble(params[0])));
-            case "floor":
-                return String.valueOf(Math.floor(Double.parseDouble(params[0])));
-            case "round":
-                return String.valueOf(Math.round(Double.parseDouble(params[0])));
-            case "percentage":
-                return String.valueOf((Double.parseDouble(params[0]) / Double.parseDouble(params[1])) * 100);
-            case "areaofsquare":
-                return String.valueOf(Math.pow(Double.parseDouble(params[0]), 2));
-            case "areaofrectangle":
-                return String.valueOf(Double.parseDouble(params[0]) * Double.parseDouble(params[1]));
-            case "areaofcircle":
-                return String.valueOf(Math.PI * Math.pow(Double.parseDouble(params[0]), 2));
-            case "ispalindrome":
-                return String.valueOf(isPalindrome(params[0]));
-            case "absolutedifference":
-                return String.valueOf(Math.abs(Integer.parseInt(params[0]) - Integer.parseInt(params[1])));
-            case "ispositive":
-                return String.valueOf(Integer.parseInt(params[0]) > 0);
-            case "isperfectsquare":
-                return String.valueOf(isPerfectSquare(Integer.parseInt(params[0])));
-            case "cubeofdifference":
-                return String.valueOf(Math.pow(Integer.parseInt(params[0]) - Integer.parseInt(params[1]), 3));
-            case "averageofthree":
-                return String.valueOf(
-                        (Double.parseDouble(params[0]) + Double.parseDouble(params[1]) + Double.parseDouble(params[2]))
-                                / 3);
-            case "ismultiple":
-                return String.valueOf(Integer.parseInt(params[0]) % Integer.parseInt(params[1]) == 0);
-            case "sumofdigits":
-                return String.valueOf(sumOfDigits(Integer.parseInt(params[0])));
-            case "sumofsquares":
-                return String.valueOf(sumOfSquares(Integer.parseInt(params[0])));
-            case "reciprocal":
-                if (Double.parseDouble(params[0]) == 0)
-                    throw new ArithmeticException("Error: Division by zero.");
-                return String.valueOf(1 / Double.parseDouble(params[0]));
-            case "mean":
-                return String.valueOf((Double.parseDouble(params[0]) + Double.parseDouble(params[1])) / 2);
-            case "reversenumber":
-                return String.valueOf(reverseNumber(Integer.parseInt(params[0])));
-            case "degreestoradians":
-                return String.valueOf(Math.toRadians(Double.parseDouble(params[0])));
-            case "radianstodegrees":
-                return String.valueOf(Math.toDegrees(Double.parseDouble(params[0])));
-            case "maxofthree":
-                return String.valueOf(Math.max(Integer.parseInt(params[0]),
-                        Math.max(Integer.parseInt(params[1]), Integer.parseInt(params[2]))));
-            case "minofthree":
-                return String.valueOf(Math.min(Integer.parseInt(params[0]),
-                        Math.min(Integer.parseInt(params[1]), Integer.parseInt(params[2]))));
-            case "averageof3":
-                return String.valueOf(
-                        (Double.parseDouble(params[0]) + Double.parseDouble(params[1]) + Double.parseDouble(params[2]))
-                                / 3);
-            case "cubeofdiff":
-                if (params.length != 2) {
-                    throw new IllegalArgumentException("Error: cubeofdiff requires 2 arguments.");
-                } else {
-                    double a = Double.parseDouble(params[0].trim());
-                    double b = Double.parseDouble(params[1].trim());
-                    double diff = a - b;
-                    return String.valueOf(Math.pow(diff, 3));
-                }
-
-            default:
-                throw new Exception("Function implementation not available.");
-        }
-    }
-
-    // Function to check if a number is a perfect square
-    private boolean isPerfectSquare(int num) {
-        int sqrt = (int) Math.sqrt(num);
-        return sqrt * sqrt == num;
+    private void generateTAC() {
+        outputTextArea.setText(generateTAC(editorTextArea.getText(), userFunctions));
     }
 
-    // Function to calculate the sum of digits of a number
-    private int sumOfDigits(int num) {
-        int sum = 0;
-        while (num != 0) {
-            sum += num % 10;
-            num /= 10;
+    // Three-address code for any expression, such as the body of a user function
+    static String expressionTAC(String expression) {
+        try {
+            TACBuilder builder = new TACBuilder();
+            return builder.result(new ASTParser().parse(expression, builder));
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
         }
-        return sum;
     }
 
-    // Function to calculate the sum of squares of digits of a number
-    private int sumOfSquares(int num) {
-        int sum = 0;
-        while (num != 0) {
-            int digit = num % 10;
-            sum += digit * digit;
-            num /= 10;
-        }
-        return sum;
+    // Build the three-address code without touching any UI state
+    static String generateTAC(String source) {
+        return generateTAC(source, UserFunctions.NONE);
     }
 
-    // Function to reverse a number, handling negative numbers
-    private int reverseNumber(int num) {
-        boolean isNegative = num < 0;
-        num = Math.abs(num);
-
-        int reversed = 0;
-        while (num != 0) {
-            reversed = reversed * 10 + num % 10;
-            num /= 10;
+    // Same, also translating calls to the functions defined in functions
+    static String generateTAC(String source, UserFunctions functions) {
+        String functionDeclaration = source.trim();
+        if (functionDeclaration.isEmpty()) {
+            return "Error: No function to generate TAC from.";
         }
 
-        return isNegative ? -reversed : reversed;
-    }
-
-    // Function to check if a number is prime
-    private boolean isPrime(int num) {
-        if (num <= 1)
-            return false;
-        for (int i = 2; i <= Math.sqrt(num); i++) {
-            if (num % i == 0)
-                return false;
-        }
-        return true;
-    }
-
-    // Function to compute Greatest Common Divisor (GCD)
-    private int gcd(int a, int b) {
-        if (b == 0)
-            return a;
-        return gcd(b, a % b);
-    }
-
-    // Function to compute Least Common Multiple (LCM)
-    private int lcm(int a, int b) {
-        return (a * b) / gcd(a, b);
-    }
-
-    // Function to check if a string is a palindrome
-    private boolean isPalindrome(String str) {
-        String reversed = new StringBuilder(str).reverse().toString();
-        return str.equals(reversed);
-    }
-
-    private void generateTAC() {
-        String functionDeclaration = editorTextArea.getText().trim();
-        if (functionDeclaration.isEmpty()) {
-            outputTextArea.setText("Error: No function to generate TAC from.");
-            return;
+        // Conditional expressions are translated as a whole, with jumps around the branches
+        String expression = functionDeclaration.endsWith(";")
+                ? functionDeclaration.substring(0, functionDeclaration.length() - 1)
+                : functionDeclaration;
+        if (expression.contains("?") || expression.contains("&&") || expression.contains("||")
+                || expression.matches("(?is)if\\s*\\(.*")) {
+            return expressionTAC(expression);
         }
 
         // Extract function name and parameters
@@ -919,11 +779,14 @@ public class CompilerUI {
         int closeParenIndex = functionDeclaration.indexOf(")");
 
         if (openParenIndex == -1 || closeParenIndex == -1 || closeParenIndex < openParenIndex) {
-            outputTextArea.setText("Error: Invalid function format.");
-            return;
+            return "Error: Invalid function format.";
         }
 
         String functionName = functionDeclaration.substring(0, openParenIndex).trim().toLowerCase();
+        // User and provided functions are called like any other function
+        if (functions.lookup(functionName) != null || FunctionProviders.lookup(functionName) != null) {
+            return expressionTAC(expression);
+        }
         String paramsString = functionDeclaration.substring(openParenIndex + 1, closeParenIndex);
         String[] params = paramsString.split(",");
         StringBuilder tac = new StringBuilder();
@@ -1288,7 +1151,102 @@ public class CompilerUI {
             tac.append("Error: Invalid parameters.\n");
         }
 
-        outputTextArea.setText(tac.toString());
+        return tac.toString();
+    }
+}
+
+// Three-address code for a whole expression. && and || and conditionals become
+// conditional jumps, so the listing shows that untaken operands are skipped:
+//   t1 = n
+//   t2 = isprime(t1)
+//   ifFalse t2 goto L1
+//   ...
+// Each handle owns the code that computes it and the temporary holding its value.
+final class TACBuilder implements ASTParser.ASTBuilder {
+    private final List<StringBuilder> code = new ArrayList<>();
+    private final List<String> places = new ArrayList<>();
+    private int temps;
+    private int labels;
+
+    public int operand(String token) {
+        String temp = temp();
+        return add(new StringBuilder().append(temp).append(" = ").append(token).append('\n'), temp);
+    }
+
+    public int binary(char operator, int left, int right) {
+        StringBuilder text = code.get(left).append(code.get(right));
+        String temp = temp();
+        text.append(temp).append(" = ").append(places.get(left)).append(' ').append(operator).append(' ')
+                .append(places.get(right)).append('\n');
+        return add(text, temp);
+    }
+
+    public int call(String name, int[] args, int from, int count) {
+        StringBuilder text = new StringBuilder();
+        String[] operands = new String[count];
+        for (int i = 0; i < count; i++) {
+            text.append(code.get(args[from + i]));
+            operands[i] = places.get(args[from + i]);
+        }
+        String temp = temp();
+        // Provided functions lower themselves
+        ProvidedFunction provided = FunctionProviders.lookup(name);
+        if (provided != null && provided.params.length == count) {
+            text.append(temp).append(" = ").append(provided.lower(operands)).append('\n');
+            return add(text, temp);
+        }
+        text.append(temp).append(" = ").append(name).append('(').append(String.join(", ", operands)).append(")\n");
+        return add(text, temp);
+    }
+
+    // t = 0 (1 for ||), jump to the end as soon as an operand decides, else t = 1 (0)
+    public int logical(char operator, int left, int right) {
+        boolean and = operator == '&';
+        String temp = temp();
+        String end = label();
+        String jump = and ? "ifFalse " : "if ";
+        StringBuilder text = code.get(left);
+        text.append(temp).append(" = ").append(and ? 0 : 1).append('\n');
+        text.append(jump).append(places.get(left)).append(" goto ").append(end).append('\n');
+        text.append(code.get(right));
+        text.append(jump).append(places.get(right)).append(" goto ").append(end).append('\n');
+        text.append(temp).append(" = ").append(and ? 1 : 0).append('\n');
+        text.append(end).append(":\n");
+        return add(text, temp);
+    }
+
+    public int conditional(int condition, int then, int otherwise) {
+        String temp = temp();
+        String elseLabel = label();
+        String end = label();
+        StringBuilder text = code.get(condition);
+        text.append("ifFalse ").append(places.get(condition)).append(" goto ").append(elseLabel).append('\n');
+        text.append(code.get(then));
+        text.append(temp).append(" = ").append(places.get(then)).append('\n');
+        text.append("goto ").append(end).append('\n');
+        text.append(elseLabel).append(":\n");
+        text.append(code.get(otherwise));
+        text.append(temp).append(" = ").append(places.get(otherwise)).append('\n');
+        text.append(end).append(":\n");
+        return add(text, temp);
+    }
+
+    String result(int root) {
+        return code.get(root).append("result = ").append(places.get(root)).append('\n').toString();
+    }
+
+    private String temp() {
+        return "t" + ++temps;
+    }
+
+    private String label() {
+        return "L" + ++labels;
+    }
+
+    private int add(StringBuilder text, String place) {
+        code.add(text);
+        places.add(place);
+        return code.size() - 1;
     }
 }
 
@@ -1363,6 +1321,11 @@ class Function {
             functions.add(new Function("Sum of squares", "a, b", "int, int", 2, "Global", 8, "int"));
             functions.add(new Function("Reciprocal", "a", "double", 1, "Global", 8, "double"));
             functions.add(new Function("Mean", "arr[], size", "int[], int", 2, "Global", 8 + 4, "double"));
+            functions.add(new Function("Sum", "arr[]", "double[]", 1, "Global", 8, "double"));
+            functions.add(new Function("Dot", "a[], b[]", "double[], double[]", 2, "Global", 16, "double"));
+            functions.add(new Function("Min", "arr[]", "double[]", 1, "Global", 8, "double"));
+            functions.add(new Function("Max", "arr[]", "double[]", 1, "Global", 8, "double"));
+            functions.add(new Function("Norm", "arr[]", "double[]", 1, "Global", 8, "double"));
             functions.add(new Function("Reverse number", "a", "int", 1, "Global", 4, "int"));
             functions.add(new Function("Degrees to radians", "deg", "double", 1, "Global", 8, "double"));
             functions.add(new Function("Radians to degree", "rad", "double", 1, "Global", 8, "double"));
@@ -1373,6 +1336,13 @@ class Function {
             functions.add(new Function("Max of three", "a, b, c", "int, int, int", 3, "Global", 12, "int"));
             functions.add(new Function("Min of three", "a, b, c", "int, int, int", 3, "Global", 12, "int"));
             functions.add(new Function("Is palindrome", "a", "int", 1, "Global", 4, "bool"));
+            for (ProvidedFunction function : FunctionProviders.all()) {
+                String[] types = new String[function.params.length];
+                Arrays.fill(types, "double");
+                functions.add(new Function(function.name, String.join(", ", function.params),
+                        String.join(", ", types), function.params.length, "Global", 8 * function.params.length,
+                        function.returnType.equals("boolean") ? "bool" : function.returnType));
+            }
 
             // Print header
             System.out.println(
@@ -1384,6 +1354,9 @@ class Function {
             for (Function function : functions) {
                 System.out.println(function);
             }
+            for (String message : FunctionProviders.skipped()) {
+                System.out.println(message);
+            }
         }
     }
 }
@@ -0,0 +1,279 @@
+import java.util.Random;
+
+// Fast-math trigonometry taking its argument in degrees.
+// Argument reduction is done in degrees, where x % 360 and the quadrant split are
+// exact, so multiples of 30, 45 and 90 degrees return exact (correctly rounded) values.
+// The remaining angle in [-45, 45] is converted to radians as a hi + lo pair and fed
+// to the fdlibm minimax kernels for sin and cos on [-pi/4, pi/4].
+// Measured maximum error (see DegreeTrig.Accuracy): sin and cos 1 ulp, tan, cot, sec
+// and cosec 3 ulp, including up to half an ulp of error in the reference itself.
+final class DegreeTrig {
+    private static final double DEG_HI = Math.PI / 180;
+    private static final double DEG_LO = 2.9486522708701687e-19; // pi/180 - DEG_HI
+    private static final double HALF_SQRT2 = 0.7071067811865476;
+    private static final double HALF_SQRT3 = 0.8660254037844386;
+
+    private static final double S1 = -1.66666666666666324348e-01;
+    private static final double S2 = 8.33333333332248946124e-03;
+    private static final double S3 = -1.98412698298579493134e-04;
+    private static final double S4 = 2.75573137070700676789e-06;
+    private static final double S5 = -2.50507602534068634195e-08;
+    private static final double S6 = 1.58969099521155010221e-10;
+
+    private static final double C1 = 4.16666666666666019037e-02;
+    private static final double C2 = -1.38888888888741095749e-03;
+    private static final double C3 = 2.48015872894767294178e-05;
+    private static final double C4 = -2.75573143513906633035e-07;
+    private static final double C5 = 2.08757232129817482790e-09;
+    private static final double C6 = -1.13596475577881948265e-11;
+
+    private DegreeTrig() {
+    }
+
+    public static double sin(double degrees) {
+        double d = reduceTurns(degrees);
+        double quadrant = Math.floor((d + 45) / 90);
+        double r = d - 90 * quadrant;
+        switch ((int) (long) quadrant & 3) {
+            case 0:
+                return sinReduced(r);
+            case 1:
+                return cosReduced(r);
+            case 2:
+                return -sinReduced(r);
+            default:
+                return -cosReduced(r);
+        }
+    }
+
+    public static double cos(double degrees) {
+        double d = reduceTurns(degrees);
+        double quadrant = Math.floor((d + 45) / 90);
+        double r = d - 90 * quadrant;
+        switch ((int) (long) quadrant & 3) {
+            case 0:
+                return cosReduced(r);
+            case 1:
+                return -sinReduced(r);
+            case 2:
+                return -cosReduced(r);
+            default:
+                return sinReduced(r);
+        }
+    }
+
+    public static double tan(double degrees) {
+        return sin(degrees) / cos(degrees);
+    }
+
+    public static double cot(double degrees) {
+        return cos(degrees) / sin(degrees);
+    }
+
+    public static double sec(double degrees) {
+        return 1 / cos(degrees);
+    }
+
+    public static double cosec(double degrees) {
+        return 1 / sin(degrees);
+    }
+
+    // Below 2^40 the quadrant split itself is exact, so the slow floating-point
+    // remainder is only needed for huge arguments; the quadrant count then exceeds
+    // an int, which is why callers take its low bits through a long
+    private static double reduceTurns(double degrees) {
+        if (Math.abs(degrees) < 0x1p40) {
+            return degrees;
+        }
+        return Double.isFinite(degrees) ? degrees % 360 : Double.NaN;
+    }
+
+    // r is in [-45, 45] degrees; it is converted to radians as a hi + lo pair
+    private static double sinReduced(double r) {
+        if (r == 0) {
+            return r;
+        }
+        double a = Math.abs(r);
+        if (a == 30) {
+            return Math.copySign(0.5, r);
+        }
+        if (a == 45) {
+            return Math.copySign(HALF_SQRT2, r);
+        }
+        double x = r * DEG_HI;
+        double y = Math.fma(r, DEG_HI, -x) + r * DEG_LO;
+        double z = x * x;
+        double v = z * x;
+        double p = S2 + z * (S3 + z * (S4 + z * (S5 + z * S6)));
+        return x - ((z * (0.5 * y - v * p) - y) - v * S1);
+    }
+
+    private static double cosReduced(double r) {
+        double a = Math.abs(r);
+        if (a == 0) {
+            return 1.0;
+        }
+        if (a == 30) {
+            return HALF_SQRT3;
+        }
+        if (a == 45) {
+            return HALF_SQRT2;
+        }
+        double x = r * DEG_HI;
+        double y = Math.fma(r, DEG_HI, -x) + r * DEG_LO;
+        double z = x * x;
+        double p = z * (C1 + z * (C2 + z * (C3 + z * (C4 + z * (C5 + z * C6)))));
+        double hz = 0.5 * z;
+        double w = 1.0 - hz;
+        return w + (((1.0 - w) - hz) + (z * p - x * y));
+    }
+
+    // Compares against StrictMath on a double-double degree-to-radian conversion
+    public static class Accuracy {
+        public static void main(String[] args) {
+            int samples = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+            Random random = new Random(42);
+            double maxSin = 0, maxCos = 0, maxTan = 0;
+            for (int i = 0; i < samples; i++) {
+                double degrees;
+                if (i % 3 == 0) {
+                    degrees = (random.nextDouble() - 0.5) * 1440;
+                } else if (i % 3 == 1) {
+                    degrees = (random.nextDouble() - 0.5) * 1e7;
+                } else {
+                    // Up to 2^50, across the 2^31 * 90 point where quadrants outgrow an int
+                    // and the 2^40 point where reduceTurns starts taking the remainder
+                    degrees = Math.copySign(Math.scalb(1 + random.nextDouble(), 23 + random.nextInt(27)),
+                            random.nextDouble() - 0.5);
+                }
+                maxSin = Math.max(maxSin, ulps(sin(degrees), referenceSin(degrees)));
+                maxCos = Math.max(maxCos, ulps(cos(degrees), referenceCos(degrees)));
+                // Odd multiples of 90 are poles, which the radian reference cannot hit exactly
+                if (cos(degrees) != 0) {
+                    maxTan = Math.max(maxTan, ulps(tan(degrees), referenceSin(degrees) / referenceCos(degrees)));
+                }
+            }
+
+            int exactMisses = 0;
+            for (int degrees = -720; degrees <= 720; degrees += 15) {
+                if (degrees % 30 != 0 && degrees % 45 != 0) {
+                    continue;
+                }
+                if (sin(degrees) != exactSin(degrees) || cos(degrees) != exactSin(degrees + 90)) {
+                    System.out.println("Inexact at " + degrees + ": sin=" + sin(degrees) + " cos=" + cos(degrees));
+                    exactMisses++;
+                }
+            }
+
+            System.out.println("Samples: " + samples);
+            System.out.println(String.format("Max error sin: %.2f ulp", maxSin));
+            System.out.println(String.format("Max error cos: %.2f ulp", maxCos));
+            System.out.println(String.format("Max error tan: %.2f ulp", maxTan));
+            System.out.println("Inexact special angles: " + exactMisses);
+        }
+
+        // Correctly rounded sine of a multiple of 30 or 45 degrees
+        private static double exactSin(int degrees) {
+            int d = ((degrees % 360) + 360) % 360;
+            double sign = d > 180 ? -1 : 1;
+            d = d > 180 ? d - 180 : d;
+            d = d > 90 ? 180 - d : d;
+            switch (d) {
+                case 0:
+                    return 0;
+                case 30:
+                    return sign * 0.5;
+                case 45:
+                    return sign * HALF_SQRT2;
+                case 60:
+                    return sign * HALF_SQRT3;
+                default:
+                    return sign;
+            }
+        }
+
+        private static double ulps(double actual, double expected) {
+            if (actual == expected) {
+                return 0;
+            }
+            return Math.abs(actual - expected) / Math.ulp(expected);
+        }
+
+        private static double referenceSin(double degrees) {
+            double[] x = reduce(degrees);
+            double s = StrictMath.sin(x[0]);
+            return s + StrictMath.cos(x[0]) * x[1];
+        }
+
+        private static double referenceCos(double degrees) {
+            double[] x = reduce(degrees);
+            double c = StrictMath.cos(x[0]);
+            return c - StrictMath.sin(x[0]) * x[1];
+        }
+
+        // Reduce exactly in degrees, then convert to radians as a hi + lo pair
+        private static double[] reduce(double degrees) {
+            double d = degrees % 360;
+            double hi = d * DEG_HI;
+            double lo = Math.fma(d, DEG_HI, -hi) + d * DEG_LO;
+            double sum = hi + lo;
+            return new double[] { sum, lo - (sum - hi) };
+        }
+    }
+
+    // Throughput of the fast kernels against Math and StrictMath
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            double[] degrees = new double[count];
+            Random random = new Random(7);
+            for (int i = 0; i < count; i++) {
+                degrees[i] = (random.nextDouble() - 0.5) * 720;
+            }
+
+            System.out.println("| Function        | Mops/s  |");
+            System.out.println("|-----------------|---------|");
+            for (int round = 0; round < 3; round++) {
+                boolean report = round == 2;
+                measure("Math.sin", degrees, report, 0);
+                measure("StrictMath.sin", degrees, report, 1);
+                measure("DegreeTrig.sin", degrees, report, 2);
+                measure("Math.tan", degrees, report, 3);
+                measure("StrictMath.tan", degrees, report, 4);
+                measure("DegreeTrig.tan", degrees, report, 5);
+            }
+        }
+
+        private static void measure(String label, double[] degrees, boolean report, int kind) {
+            long start = System.nanoTime();
+            double sink = 0;
+            for (double d : degrees) {
+                switch (kind) {
+                    case 0:
+                        sink += Math.sin(Math.toRadians(d));
+                        break;
+                    case 1:
+                        sink += StrictMath.sin(Math.toRadians(d));
+                        break;
+                    case 2:
+                        sink += DegreeTrig.sin(d);
+                        break;
+                    case 3:
+                        sink += Math.tan(Math.toRadians(d));
+                        break;
+                    case 4:
+                        sink += StrictMath.tan(Math.toRadians(d));
+                        break;
+                    default:
+                        sink += DegreeTrig.tan(d);
+                        break;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (report) {
+                System.out.println(String.format("| %-15s | %-7.1f |", label, degrees.length / seconds / 1e6)
+                        + (sink == 42 ? " " : ""));
+            }
+        }
+    }
+}
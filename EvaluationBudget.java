@@ -0,0 +1,182 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Limits on the work one request may do, e.g.
+//   EvaluationBudget budget = new EvaluationBudget(100_000, 50, TimeUnit.MILLISECONDS, 1 << 20);
+//   EvaluationBudget.Meter meter = budget.start();
+//   evaluator.executeFunction("isprime", args, out, meter);
+// A budget is immutable and shared; each request gets its own Meter from start(), which
+// counts down steps and bytes and aborts with BudgetExceededException once either runs
+// out or the deadline passes. Checks are a decrement and a compare; the clock is read
+// only once every CLOCK_INTERVAL steps, so the deadline can be overrun by that much
+// work. Every abort is counted per kind, see getExceededCount.
+final class EvaluationBudget {
+    enum Kind {
+        STEPS("step budget"), DEADLINE("deadline"), ALLOCATION("allocation budget");
+
+        final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+    }
+
+    static final long CLOCK_INTERVAL = 4096;
+    static final EvaluationBudget UNLIMITED = new EvaluationBudget(Long.MAX_VALUE, Long.MAX_VALUE,
+            TimeUnit.NANOSECONDS, Long.MAX_VALUE);
+
+    private static final LongAdder[] exceeded = { new LongAdder(), new LongAdder(), new LongAdder() };
+
+    private final long maxSteps;
+    private final long timeoutNanos;
+    private final long maxBytes;
+
+    EvaluationBudget(long maxSteps, long timeout, TimeUnit unit, long maxBytes) {
+        if (maxSteps < 1 || timeout < 1 || maxBytes < 0) {
+            throw new IllegalArgumentException("Error: Budget limits must be positive.");
+        }
+        this.maxSteps = maxSteps;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // The deadline starts now
+    public Meter start() {
+        return new Meter(this);
+    }
+
+    // Aborts of the given kind since the program started, over all budgets
+    static long getExceededCount(Kind kind) {
+        return exceeded[kind.ordinal()].sum();
+    }
+
+    // What one request has left; not thread-safe, so use one meter per request and thread
+    static final class Meter {
+        private final EvaluationBudget budget;
+        private final long started;
+        private long steps;
+        private long bytes;
+        private long untilClock = CLOCK_INTERVAL;
+
+        private Meter(EvaluationBudget budget) {
+            this.budget = budget;
+            this.started = System.nanoTime();
+            this.steps = budget.maxSteps;
+            this.bytes = budget.maxBytes;
+        }
+
+        // Charges n units of work: a loop iteration, an expression node or an array element
+        void step(long n) {
+            steps -= n;
+            if (steps < 0) {
+                throw exceed(Kind.STEPS, budget.maxSteps + " steps");
+            }
+            untilClock -= n;
+            if (untilClock < 0) {
+                untilClock = CLOCK_INTERVAL;
+                if (System.nanoTime() - started > budget.timeoutNanos) {
+                    throw exceed(Kind.DEADLINE, TimeUnit.NANOSECONDS.toMillis(budget.timeoutNanos) + " ms");
+                }
+            }
+        }
+
+        // Charged before the allocation is made, so an oversized one never happens
+        void allocate(long n) {
+            bytes -= n;
+            if (bytes < 0) {
+                throw exceed(Kind.ALLOCATION, budget.maxBytes + " bytes");
+            }
+        }
+
+        public long getStepsUsed() {
+            return budget.maxSteps - steps;
+        }
+
+        public long getBytesUsed() {
+            return budget.maxBytes - bytes;
+        }
+
+        private static BudgetExceededException exceed(Kind kind, String limit) {
+            exceeded[kind.ordinal()].increment();
+            return new BudgetExceededException(kind, "Error: Evaluation exceeded its " + kind.description + " of "
+                    + limit + ".");
+        }
+    }
+
+    // Unchecked so it passes through evaluate() and executeFunction() unchanged. Aborts
+    // are expected under load, so no stack trace is captured.
+    static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Kind kind;
+
+        BudgetExceededException(Kind kind, String message) {
+            super(message, null, false, false);
+            this.kind = kind;
+        }
+    }
+
+    // Ordinary traffic with one pathological request in 500, with and without a budget:
+    // how long the worst request holds its thread, the mean cost and how many were aborted
+    public static class LoadTest {
+        public static void main(String[] args) throws Exception {
+            int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+            FunctionEvaluator evaluator = new FunctionEvaluator();
+            ResultWriter out = new ResultWriter(64);
+            // 2147483647 is prime, so isprime runs all 46341 trial divisions
+            String[][] ordinary = { { "isprime", "97" }, { "gcd", "84", "36" }, { "sum", "[1, 2, 3, 4]" },
+                    { "sumofdigits", "123456" } };
+            String[][] pathological = { { "isprime", "2147483647" }, { "mean", bigArray(200_000) } };
+            EvaluationBudget budget = new EvaluationBudget(10_000, 1, TimeUnit.MILLISECONDS, 64 * 1024);
+            ArgumentVector vector = new ArgumentVector();
+            System.out.println("| Budget | Worst request (us) | Mean per request (us) | Aborted |");
+            System.out.println("|--------|--------------------|-----------------------|---------|");
+            for (EvaluationBudget limits : new EvaluationBudget[] { UNLIMITED, budget, UNLIMITED, budget }) {
+                long worst = 0;
+                long total = 0;
+                int aborted = 0;
+                for (int i = 0; i < rows; i++) {
+                    // One request in 500 is pathological
+                    String[] row = i % 500 == 499 ? pathological[i / 500 % 2] : ordinary[i % ordinary.length];
+                    vector.reset(java.util.Arrays.copyOfRange(row, 1, row.length));
+                    long start = System.nanoTime();
+                    try {
+                        out.clear();
+                        evaluator.executeFunction(row[0], vector, out, limits.start());
+                    } catch (BudgetExceededException e) {
+                        aborted++;
+                    }
+                    long nanos = System.nanoTime() - start;
+                    total += nanos;
+                    worst = Math.max(worst, nanos);
+                }
+                System.out.println(String.format("| %-6s | %-18.1f | %-21.2f | %-7d |",
+                        limits == UNLIMITED ? "none" : "set", worst / 1e3, total / 1e3 / rows, aborted));
+            }
+            System.out.println();
+            for (Kind kind : Kind.values()) {
+                System.out.println(kind + " aborts: " + getExceededCount(kind));
+            }
+        }
+
+        private static String bigArray(int length) {
+            StringBuilder text = new StringBuilder("[");
+            for (int i = 0; i < length; i++) {
+                text.append(i == 0 ? "" : ", ").append(i % 97);
+            }
+            return text.append(']').toString();
+        }
+    }
+}
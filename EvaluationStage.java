@@ -0,0 +1,336 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// A Flow.Processor that evaluates every item it receives and publishes the results, e.g.
+//   EvaluationStage<String[], String> stage = EvaluationStage.forFunction("nthroot", 256, 32);
+//   publisher.subscribe(stage);
+//   stage.subscribe(consumer);
+// At most bufferSize items are ever requested from upstream but not yet evaluated, so
+// memory stays bounded however fast upstream produces. Items are evaluated only while
+// the downstream subscriber has outstanding demand, in batches of up to batchSize per
+// pass, and upstream demand is replenished a batch at a time rather than item by item.
+// One subscriber is supported. Evaluation runs on the executor, never on the caller.
+final class EvaluationStage<T, R> implements Flow.Processor<T, R> {
+    private final Function<? super T, ? extends R> evaluation;
+    private final Executor executor;
+    private final int bufferSize;
+    private final int batchSize;
+    private final ArrayBlockingQueue<T> buffer;
+
+    private final AtomicLong demand = new AtomicLong();
+    // Drain passes requested; only the thread that moves it off 0 runs drain(), so every
+    // signal to the subscriber comes from one thread at a time
+    private final AtomicInteger work = new AtomicInteger();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super R> downstream;
+    // Upstream terminated, with error set if it failed
+    private volatile boolean done;
+    private volatile Throwable error;
+    // A protocol violation that ends the stream without draining the buffer
+    private volatile Throwable failure;
+    // Set once the subscriber cancelled or received its terminal signal
+    private volatile boolean cancelled;
+    // Items taken from the buffer since upstream was last asked for more; drain thread only
+    private int consumed;
+
+    EvaluationStage(Function<? super T, ? extends R> evaluation, Executor executor, int bufferSize, int batchSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Error: Buffer size must be at least 1.");
+        }
+        if (batchSize < 1 || batchSize > bufferSize) {
+            throw new IllegalArgumentException("Error: Batch size must be between 1 and the buffer size.");
+        }
+        this.evaluation = evaluation;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    // Evaluates a predefined function on argument tuples. Failed tuples produce their
+    // error text, as ParallelExecutor does, instead of ending the stream.
+    static EvaluationStage<String[], String> forFunction(String functionName, int bufferSize, int batchSize) {
+        return forFunction(functionName, bufferSize, batchSize, null);
+    }
+
+    // Same, with every tuple held to the budget; one over it yields the budget's error text
+    static EvaluationStage<String[], String> forFunction(String functionName, int bufferSize, int batchSize,
+            EvaluationBudget budget) {
+        String name = functionName.toLowerCase();
+        FunctionEvaluator evaluator = new FunctionEvaluator();
+        ArgumentVector args = new ArgumentVector();
+        // drain() runs on one thread at a time, so the argument vector can be reused
+        return new EvaluationStage<>(params -> {
+            try {
+                args.reset(params);
+                return evaluator.executeFunction(name, args, budget == null ? null : budget.start());
+            } catch (Exception e) {
+                return ParallelExecutor.errorText(e);
+            }
+        }, ForkJoinPool.commonPool(), bufferSize, batchSize);
+    }
+
+    // Evaluates a compiled expression on slot values. A failed evaluation, such as a
+    // division by zero, ends the stream with onError.
+    static EvaluationStage<double[], Double> forExpression(CompiledExpression expression, int bufferSize,
+            int batchSize) {
+        return new EvaluationStage<>(expression::evaluate, ForkJoinPool.commonPool(), bufferSize, batchSize);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // Items received but not yet evaluated
+    public int getBuffered() {
+        return buffer.size();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Error: EvaluationStage supports one subscriber."));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("Error: Requested " + n + " items; must be positive."));
+                    return;
+                }
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+                schedule();
+            }
+
+            public void cancel() {
+                cancelled = true;
+                cancelUpstream();
+                schedule();
+            }
+        });
+        // Published only after onSubscribe returns, so no signal can overtake it
+        downstream = subscriber;
+        schedule();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        subscription.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (!buffer.offer(item)) {
+            // Upstream sent more than was requested
+            fail(new IllegalStateException("Error: Upstream ignored backpressure; buffer of " + bufferSize
+                    + " items is full."));
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        done = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        schedule();
+    }
+
+    private void fail(Throwable throwable) {
+        failure = throwable;
+        cancelUpstream();
+        schedule();
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private void schedule() {
+        if (work.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Evaluates and emits while there are items and demand, then finishes the stream once
+    // upstream has terminated and the buffer is empty
+    private void drain() {
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super R> subscriber = downstream;
+            if (cancelled) {
+                buffer.clear();
+            } else if (subscriber != null && failure != null) {
+                terminate(subscriber, failure);
+            } else if (subscriber != null) {
+                emit(subscriber);
+                if (done && buffer.isEmpty() && !cancelled) {
+                    terminate(subscriber, error);
+                }
+            }
+            missed = work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    // Evaluates up to the outstanding demand, batchSize items per inner pass
+    private void emit(Flow.Subscriber<? super R> subscriber) {
+        long requested = demand.get();
+        long emitted = 0;
+        while (emitted < requested && !cancelled) {
+            int batch = (int) Math.min(batchSize, requested - emitted);
+            int evaluated = 0;
+            T item;
+            while (evaluated < batch && (item = buffer.poll()) != null) {
+                R result;
+                try {
+                    result = evaluation.apply(item);
+                } catch (RuntimeException e) {
+                    cancelUpstream();
+                    terminate(subscriber, e);
+                    return;
+                }
+                subscriber.onNext(result);
+                evaluated++;
+            }
+            emitted += evaluated;
+            replenish(evaluated);
+            if (evaluated < batch) {
+                break;
+            }
+        }
+        if (emitted > 0 && requested != Long.MAX_VALUE) {
+            demand.addAndGet(-emitted);
+        }
+    }
+
+    private void terminate(Flow.Subscriber<? super R> subscriber, Throwable throwable) {
+        cancelled = true;
+        buffer.clear();
+        if (throwable != null) {
+            subscriber.onError(throwable);
+        } else {
+            subscriber.onComplete();
+        }
+    }
+
+    // Asks upstream for as many items as were taken off the buffer, once a batch has accumulated
+    private void replenish(int evaluated) {
+        consumed += evaluated;
+        if (consumed >= batchSize && !done && !cancelled) {
+            upstream.request(consumed);
+            consumed = 0;
+        }
+    }
+
+    // Overloads the stage with a producer that never waits and a consumer slower than
+    // the producer, and samples heap use, buffer fill and drop counts once a second
+    public static class LoadTest {
+        public static void main(String[] args) throws InterruptedException {
+            int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+            int bufferSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+            int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+            EvaluationStage<String[], String> stage = forFunction("isprime", bufferSize, batchSize);
+            SubmissionPublisher<String[]> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), 256);
+            AtomicLong received = new AtomicLong();
+            publisher.subscribe(stage);
+            stage.subscribe(new Flow.Subscriber<String>() {
+                private Flow.Subscription subscription;
+                private int outstanding;
+
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    outstanding = 128;
+                    subscription.request(128);
+                }
+
+                public void onNext(String result) {
+                    received.incrementAndGet();
+                    // A slow sink: roughly 2 microseconds of work per result
+                    long until = System.nanoTime() + 2_000;
+                    while (System.nanoTime() < until) {
+                        Thread.onSpinWait();
+                    }
+                    if (--outstanding == 64) {
+                        outstanding += 64;
+                        subscription.request(64);
+                    }
+                }
+
+                public void onError(Throwable throwable) {
+                    System.out.println("Stream failed: " + throwable.getMessage());
+                }
+
+                public void onComplete() {
+                }
+            });
+
+            AtomicLong offered = new AtomicLong();
+            AtomicLong dropped = new AtomicLong();
+            Thread producer = new Thread(() -> {
+                long i = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    String[] tuple = { String.valueOf(1_000_000_007 - 2 * (i++ % 1_000_000)) };
+                    offered.incrementAndGet();
+                    // Never block: tuples that find no room are dropped and counted
+                    publisher.offer(tuple, (subscriber, item) -> {
+                        dropped.incrementAndGet();
+                        return false;
+                    });
+                }
+            });
+            producer.setDaemon(true);
+            producer.start();
+
+            Runtime runtime = Runtime.getRuntime();
+            System.out.println("| Second | Offered | Dropped | Evaluated | Buffered | Heap (MB) |");
+            System.out.println("|--------|---------|---------|-----------|----------|-----------|");
+            for (int second = 1; second <= seconds; second++) {
+                Thread.sleep(1000);
+                System.out.println(String.format("| %-6d | %-7d | %-7d | %-9d | %-8d | %-9.1f |", second,
+                        offered.get(), dropped.get(), received.get(), stage.getBuffered(),
+                        (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0));
+            }
+            producer.interrupt();
+            producer.join();
+            publisher.close();
+        }
+    }
+}
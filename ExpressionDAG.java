@@ -0,0 +1,230 @@
+import java.lang.ref.Reference;
+import java.util.Random;
+
+// A batch of expressions compiled into one hash-consed DAG, e.g.
+//   ExpressionDAG dag = ExpressionDAG.compile("power(x, 2) + sin(y)", "sin(y) * 2");
+//   dag.evaluate(slots, results); // results[i] is the value of expression i
+// Structurally equal subterms, within and across expressions, are stored once and
+// evaluated once per row. Slots are shared by name across the whole batch and
+// numbered by first appearance. Instances are immutable and thread-safe.
+final class ExpressionDAG {
+    private static final ASTParser parser = new ASTParser(new ASTParser.ContextPool(16));
+    private static final ThreadLocal<double[]> scratches = ThreadLocal.withInitial(() -> new double[0]);
+
+    private final String[] sources;
+    private final FlatAST flat;
+    private final int[] roots;
+    private final int treeNodes;
+
+    private ExpressionDAG(String[] sources, FlatAST flat, int[] roots, int treeNodes) {
+        this.sources = sources;
+        this.flat = flat;
+        this.roots = roots;
+        this.treeNodes = treeNodes;
+    }
+
+    public static ExpressionDAG compile(String... sources) {
+        FlatAST.Builder builder = new FlatAST.Builder(true);
+        int[] roots = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            roots[i] = parser.parse(sources[i], builder);
+        }
+        return new ExpressionDAG(sources.clone(), builder.build(), roots, builder.requestedCount());
+    }
+
+    public int getExpressionCount() {
+        return sources.length;
+    }
+
+    public String getSource(int expression) {
+        return sources[expression];
+    }
+
+    public int getSlotCount() {
+        return flat.getSlotCount();
+    }
+
+    public String[] getSlotNames() {
+        return flat.getSlotNames();
+    }
+
+    // Distinct subexpressions, each evaluated once per row
+    public int getNodeCount() {
+        return flat.size;
+    }
+
+    // Nodes the same expressions take as separate trees
+    public int getTreeNodeCount() {
+        return treeNodes;
+    }
+
+    // Evaluates every expression for one row of slot values
+    public void evaluate(double[] slots, double[] results) {
+        double[] scratch = scratches.get();
+        if (scratch.length < flat.size) {
+            scratch = new double[flat.size];
+            scratches.set(scratch);
+        }
+        evaluate(slots, results, scratch);
+    }
+
+    // scratch must hold at least getNodeCount() values
+    public void evaluate(double[] slots, double[] results, double[] scratch) {
+        if (slots.length < flat.getSlotCount()) {
+            throw new IllegalArgumentException(
+                    "Error: Expected " + flat.getSlotCount() + " slot values but got " + slots.length + ".");
+        }
+        flat.evaluate(slots, scratch);
+        for (int i = 0; i < roots.length; i++) {
+            results[i] = scratch[roots[i]];
+        }
+    }
+
+    // Node counts, evaluations avoided and memory of the shared arrays against
+    // the same expressions flattened separately
+    public String report() {
+        long sharedBytes = 20L * flat.size + 8L * flat.constants.length;
+        long separateBytes = 20L * treeNodes + 8L * constantUses();
+        return String.format("Expressions: %d%n", sources.length)
+                + String.format("Tree nodes: %d, DAG nodes: %d%n", treeNodes, flat.size)
+                + String.format("Evaluations avoided per row: %d (%.1f%%)%n", treeNodes - flat.size,
+                        100.0 * (treeNodes - flat.size) / Math.max(1, treeNodes))
+                + String.format("Node memory: %d bytes shared vs %d bytes separate (%d saved)%n", sharedBytes,
+                        separateBytes, separateBytes - sharedBytes);
+    }
+
+    // Every constant leaf of the separate trees holds its own pool entry
+    private long constantUses() {
+        long uses = 0;
+        int[] references = new int[flat.size];
+        for (int root : roots) {
+            references[root]++;
+        }
+        // Nodes are in topological order, so parents come after their children
+        long[] paths = new long[flat.size];
+        for (int i = flat.size - 1; i >= 0; i--) {
+            paths[i] += references[i];
+            if (flat.opcodes[i] == FlatAST.CONST) {
+                uses += paths[i];
+            }
+            if (flat.child0[i] >= 0) {
+                paths[flat.child0[i]] += paths[i];
+            }
+            if (flat.child1[i] >= 0) {
+                paths[flat.child1[i]] += paths[i];
+            }
+            if (flat.child2[i] >= 0) {
+                paths[flat.child2[i]] += paths[i];
+            }
+        }
+        return uses;
+    }
+
+    // A batch of related formulas that share terms, as separate CompiledExpressions and as one DAG
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+            int rows = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+            Random random = new Random(36);
+            String[] shared = {
+                    "nthroot(areaofcircle(x), 3)",
+                    "sin(y * 10) * power(x, 2)",
+                    "(x + y) / (1 + power(z, 2))",
+                    "cos(z) - squareroot(x * y + 1)",
+            };
+            String[] sources = new String[count];
+            for (int i = 0; i < count; i++) {
+                String a = shared[random.nextInt(shared.length)];
+                String b = shared[random.nextInt(shared.length)];
+                sources[i] = "(" + a + ") * " + (1 + i % 7) + " + (" + b + ") / (" + (i % 5 + 2) + " + power(w, "
+                        + (i % 3 + 1) + "))";
+            }
+
+            long before = usedMemory();
+            CompiledExpression[] separate = new CompiledExpression[count];
+            for (int i = 0; i < count; i++) {
+                separate[i] = CompiledExpression.compile(sources[i]);
+            }
+            long separateBytes = usedMemory() - before;
+            before = usedMemory();
+            ExpressionDAG dag = compile(sources);
+            long dagBytes = usedMemory() - before;
+
+            String[] names = dag.getSlotNames();
+            double[][] inputs = new double[rows][names.length];
+            for (double[] row : inputs) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = 1 + 9 * random.nextDouble();
+                }
+            }
+            double[][] separateInputs = new double[count][];
+            int[][] slotMaps = new int[count][];
+            for (int i = 0; i < count; i++) {
+                separateInputs[i] = new double[separate[i].getSlotCount()];
+                slotMaps[i] = slotMap(names, separate[i]);
+            }
+            double[] results = new double[count];
+            double[] scratch = new double[dag.getNodeCount()];
+
+            boolean match = true;
+            double separateMillis = Double.MAX_VALUE;
+            double dagMillis = Double.MAX_VALUE;
+            double sink = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (double[] row : inputs) {
+                    for (int i = 0; i < count; i++) {
+                        double[] values = separateInputs[i];
+                        for (int j = 0; j < values.length; j++) {
+                            values[j] = row[slotMaps[i][j]];
+                        }
+                        results[i] = separate[i].evaluate(values);
+                        sink += results[i];
+                    }
+                }
+                separateMillis = Math.min(separateMillis, (System.nanoTime() - start) / 1e6);
+                double[] expected = results.clone();
+                start = System.nanoTime();
+                for (double[] row : inputs) {
+                    dag.evaluate(row, results, scratch);
+                    for (double result : results) {
+                        sink -= result;
+                    }
+                }
+                dagMillis = Math.min(dagMillis, (System.nanoTime() - start) / 1e6);
+                for (int i = 0; i < count; i++) {
+                    match &= Double.compare(expected[i], results[i]) == 0;
+                }
+            }
+            System.out.print(dag.report());
+            System.out.println(String.format("Measured heap: %d KB separate, %d KB DAG", separateBytes / 1024,
+                    dagBytes / 1024));
+            System.out.println(String.format("Evaluation of %d rows: %.1f ms separate, %.1f ms DAG", rows,
+                    separateMillis, dagMillis) + (sink == 42 ? " " : ""));
+            System.out.println("Results match: " + match);
+            Reference.reachabilityFence(separate);
+        }
+
+        // For each slot of one expression, its index among the DAG's shared slots
+        private static int[] slotMap(String[] names, CompiledExpression expression) {
+            String[] own = expression.getSlotNames();
+            int[] map = new int[own.length];
+            for (int j = 0; j < own.length; j++) {
+                for (int k = 0; k < names.length; k++) {
+                    if (names[k].equals(own[j])) {
+                        map[j] = k;
+                    }
+                }
+            }
+            return map;
+        }
+
+        private static long usedMemory() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,720 @@
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Struct-of-arrays encoding of an expression for very large formulas.
+// Node i is described by opcodes[i], operands[i] and up to three child indexes;
+// constants live in a separate double[] pool. Nodes are stored in post-order
+// (children before parents, root last), so evaluation is one forward loop with
+// no recursion and no per-node objects. Conditionals, && and || skip the nodes of
+// the operand they do not need with forward jumps, since every subtree occupies a
+// contiguous run of indexes ending at its root.
+final class FlatAST {
+    static final int CONST = 0;
+    static final int VAR = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    static final int CALL = 6;
+    static final int CONDITIONAL = 7;
+    static final int AND = 8;
+    static final int OR = 9;
+    static final int FUNCTION = 10;
+
+    // Kinds of jump taken after a node, in the low two bits of jumps[i]; the rest is
+    // the index evaluation continues at
+    private static final int WHEN_ZERO = 1;
+    private static final int WHEN_NONZERO = 2;
+    private static final int ALWAYS = 3;
+
+    private static final Builtin[] builtins = Builtin.values();
+
+    final int size;
+    final int[] opcodes;
+    // CONST: index into constants, VAR: slot, CALL: Builtin ordinal, FUNCTION: index into
+    // callees and arguments, otherwise unused
+    final int[] operands;
+    // A FUNCTION node's first three arguments; all of them are in arguments
+    final int[] child0, child1, child2;
+    final double[] constants;
+    final String[] slotNames;
+    // Where to continue after each node, 0 for the next one; null without branches
+    final int[] jumps;
+    final Callee[] callees;
+    final int[][] arguments;
+
+    // A function the opcodes cannot express, a user or provided function; it reads its
+    // arguments from scratch at the indexes in args
+    interface Callee {
+        String name();
+
+        double apply(double[] scratch, int[] args);
+    }
+
+    // A provided function, called through the interface its implementation was linked to
+    private static final class Provided implements Callee {
+        private final ProvidedFunction function;
+
+        Provided(ProvidedFunction function) {
+            this.function = function;
+        }
+
+        public String name() {
+            return function.name;
+        }
+
+        public double apply(double[] scratch, int[] args) {
+            switch (args.length) {
+                case 1:
+                    return function.unary.applyAsDouble(scratch[args[0]]);
+                case 2:
+                    return function.binary.applyAsDouble(scratch[args[0]], scratch[args[1]]);
+                default:
+                    return function.ternary.applyAsDouble(scratch[args[0]], scratch[args[1]], scratch[args[2]]);
+            }
+        }
+    }
+
+    private FlatAST(int size, int[] opcodes, int[] operands, int[] child0, int[] child1, int[] child2,
+            double[] constants, String[] slotNames, int[] jumps, Callee[] callees, int[][] arguments) {
+        this.size = size;
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.child0 = child0;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.constants = constants;
+        this.slotNames = slotNames;
+        this.jumps = jumps;
+        this.callees = callees;
+        this.arguments = arguments;
+    }
+
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    public String[] getSlotNames() {
+        return slotNames.clone();
+    }
+
+    public double evaluate(double[] slots) {
+        return evaluate(slots, new double[size]);
+    }
+
+    // scratch must hold at least size values; reuse it to evaluate without allocating
+    public double evaluate(double[] slots, double[] scratch) {
+        return evaluate(slots, scratch, null);
+    }
+
+    // Same, charging isprime's trial divisions to meter unless it is null
+    double evaluate(double[] slots, double[] scratch, EvaluationBudget.Meter meter) {
+        int[] jumps = this.jumps;
+        for (int i = 0; i < size; i++) {
+            switch (opcodes[i]) {
+                case CONST:
+                    scratch[i] = constants[operands[i]];
+                    break;
+                case VAR:
+                    scratch[i] = slots[operands[i]];
+                    break;
+                case ADD:
+                    scratch[i] = scratch[child0[i]] + scratch[child1[i]];
+                    break;
+                case SUBTRACT:
+                    scratch[i] = scratch[child0[i]] - scratch[child1[i]];
+                    break;
+                case MULTIPLY:
+                    scratch[i] = scratch[child0[i]] * scratch[child1[i]];
+                    break;
+                case DIVIDE:
+                    if (scratch[child1[i]] == 0)
+                        throw new ArithmeticException("Error: Division by zero.");
+                    scratch[i] = scratch[child0[i]] / scratch[child1[i]];
+                    break;
+                case CONDITIONAL:
+                    scratch[i] = scratch[child0[i]] != 0 ? scratch[child1[i]] : scratch[child2[i]];
+                    break;
+                case AND:
+                    scratch[i] = scratch[child0[i]] != 0 && scratch[child1[i]] != 0 ? 1 : 0;
+                    break;
+                case OR:
+                    scratch[i] = scratch[child0[i]] != 0 || scratch[child1[i]] != 0 ? 1 : 0;
+                    break;
+                case FUNCTION:
+                    scratch[i] = callees[operands[i]].apply(scratch, arguments[operands[i]]);
+                    break;
+                default: {
+                    Builtin builtin = builtins[operands[i]];
+                    double a = scratch[child0[i]];
+                    double b = child1[i] < 0 ? 0 : scratch[child1[i]];
+                    double c = child2[i] < 0 ? 0 : scratch[child2[i]];
+                    scratch[i] = meter == null ? builtin.apply(a, b, c) : builtin.apply(a, b, c, meter);
+                    break;
+                }
+            }
+            if (jumps != null && jumps[i] != 0) {
+                i = next(jumps[i], scratch[i], i);
+            }
+        }
+        return scratch[size - 1];
+    }
+
+    // The index before the one evaluation continues at after node i, whose value is value
+    private static int next(int jump, double value, int i) {
+        int kind = jump & 3;
+        if (kind == ALWAYS || (kind == WHEN_ZERO) == (value == 0)) {
+            return (jump >>> 2) - 1;
+        }
+        return i;
+    }
+
+    // Scratch size evaluateGradient needs: one value and one tangent per slot for every node
+    public int gradientScratchSize() {
+        return size * (1 + slotNames.length);
+    }
+
+    // Forward-mode differentiation with dual numbers: every node carries its value and
+    // its partial derivatives with respect to all slots, so one pass yields the value
+    // (returned) and the full gradient (written to gradient[0 .. slot count)).
+    public double evaluateGradient(double[] slots, double[] gradient, double[] scratch) {
+        int n = slotNames.length;
+        int[] jumps = this.jumps;
+        int tangents = size;
+        for (int i = 0; i < size; i++) {
+            int t = tangents + i * n;
+            switch (opcodes[i]) {
+                case CONST:
+                    scratch[i] = constants[operands[i]];
+                    Arrays.fill(scratch, t, t + n, 0);
+                    break;
+                case VAR:
+                    scratch[i] = slots[operands[i]];
+                    Arrays.fill(scratch, t, t + n, 0);
+                    scratch[t + operands[i]] = 1;
+                    break;
+                case ADD: {
+                    int ta = tangents + child0[i] * n, tb = tangents + child1[i] * n;
+                    scratch[i] = scratch[child0[i]] + scratch[child1[i]];
+                    for (int j = 0; j < n; j++) {
+                        scratch[t + j] = scratch[ta + j] + scratch[tb + j];
+                    }
+                    break;
+                }
+                case SUBTRACT: {
+                    int ta = tangents + child0[i] * n, tb = tangents + child1[i] * n;
+                    scratch[i] = scratch[child0[i]] - scratch[child1[i]];
+                    for (int j = 0; j < n; j++) {
+                        scratch[t + j] = scratch[ta + j] - scratch[tb + j];
+                    }
+                    break;
+                }
+                case MULTIPLY: {
+                    int ta = tangents + child0[i] * n, tb = tangents + child1[i] * n;
+                    double a = scratch[child0[i]], b = scratch[child1[i]];
+                    scratch[i] = a * b;
+                    for (int j = 0; j < n; j++) {
+                        scratch[t + j] = b * scratch[ta + j] + a * scratch[tb + j];
+                    }
+                    break;
+                }
+                case DIVIDE: {
+                    int ta = tangents + child0[i] * n, tb = tangents + child1[i] * n;
+                    double b = scratch[child1[i]];
+                    if (b == 0)
+                        throw new ArithmeticException("Error: Division by zero.");
+                    double value = scratch[child0[i]] / b;
+                    scratch[i] = value;
+                    for (int j = 0; j < n; j++) {
+                        scratch[t + j] = (scratch[ta + j] - value * scratch[tb + j]) / b;
+                    }
+                    break;
+                }
+                case CONDITIONAL: {
+                    // The derivative of the branch taken; the other one was skipped
+                    int taken = scratch[child0[i]] != 0 ? child1[i] : child2[i];
+                    scratch[i] = scratch[taken];
+                    System.arraycopy(scratch, tangents + taken * n, scratch, t, n);
+                    break;
+                }
+                case AND:
+                case OR:
+                    if (opcodes[i] == AND) {
+                        scratch[i] = scratch[child0[i]] != 0 && scratch[child1[i]] != 0 ? 1 : 0;
+                    } else {
+                        scratch[i] = scratch[child0[i]] != 0 || scratch[child1[i]] != 0 ? 1 : 0;
+                    }
+                    Arrays.fill(scratch, t, t + n, 0);
+                    break;
+                case FUNCTION:
+                    throw new IllegalArgumentException(
+                            "Error: Cannot differentiate through function '" + callees[operands[i]].name() + "'.");
+                default: {
+                    Builtin builtin = builtins[operands[i]];
+                    double a = scratch[child0[i]];
+                    double b = child1[i] < 0 ? 0 : scratch[child1[i]];
+                    double c = child2[i] < 0 ? 0 : scratch[child2[i]];
+                    double value = builtin.apply(a, b, c);
+                    scratch[i] = value;
+                    chain(scratch, t, n, builtin.partial(0, a, b, c, value), tangents + child0[i] * n, true);
+                    if (child1[i] >= 0) {
+                        chain(scratch, t, n, builtin.partial(1, a, b, c, value), tangents + child1[i] * n, false);
+                    }
+                    if (child2[i] >= 0) {
+                        chain(scratch, t, n, builtin.partial(2, a, b, c, value), tangents + child2[i] * n, false);
+                    }
+                    break;
+                }
+            }
+            if (jumps != null && jumps[i] != 0) {
+                i = next(jumps[i], scratch[i], i);
+            }
+        }
+        System.arraycopy(scratch, tangents + (size - 1) * n, gradient, 0, n);
+        return scratch[size - 1];
+    }
+
+    // target += partial * source (or = when first), skipping slots the argument does not
+    // depend on so an undefined partial such as log(-1) does not poison them
+    private static void chain(double[] scratch, int target, int n, double partial, int source, boolean first) {
+        for (int j = 0; j < n; j++) {
+            double tangent = scratch[source + j];
+            double term = tangent == 0 ? 0 : partial * tangent;
+            scratch[target + j] = first ? term : scratch[target + j] + term;
+        }
+    }
+
+    // Approximate bytes used per node by the arrays, constant pool included
+    public double bytesPerNode() {
+        return (5.0 * 4 * opcodes.length + 8.0 * constants.length) / size;
+    }
+
+    // Appends nodes in the order ASTParser produces them, which is already post-order.
+    // With hash-consing on, a node equal to one already built (same opcode, operand and
+    // children) is returned instead of appended, so several expressions parsed into one
+    // builder share their common subterms and the arrays form a DAG in topological order.
+    static final class Builder implements ASTParser.ASTBuilder {
+        private int size;
+        private int[] opcodes = new int[64];
+        private int[] operands = new int[64];
+        private int[] child0 = new int[64];
+        private int[] child1 = new int[64];
+        private int[] child2 = new int[64];
+        // The first index of each node's subtree, which ends at the node itself
+        private int[] first = new int[64];
+        private int[] jumps;
+        private Callee[] callees = new Callee[4];
+        private int[][] arguments = new int[4][];
+        private int calleeCount;
+        private double[] constants = new double[16];
+        private int constantCount;
+        private final Map<String, Integer> slots = new HashMap<>();
+        // Open-addressing intern table of node indexes (-1 = empty); null when not interning.
+        // It lives only as long as the builder, so interning never outlives a batch.
+        private int[] table;
+        private Map<Long, Integer> constantIndexes;
+        private int requested;
+
+        Builder() {
+        }
+
+        Builder(boolean hashCons) {
+            if (hashCons) {
+                table = new int[128];
+                Arrays.fill(table, -1);
+                constantIndexes = new HashMap<>();
+            }
+        }
+
+        // Nodes asked for by the parser, i.e. the size all the separate trees would have
+        int requestedCount() {
+            return requested;
+        }
+
+        int size() {
+            return size;
+        }
+
+        public int operand(String token) {
+            if (ASTParser.isNumber(token)) {
+                double value;
+                try {
+                    value = NumberParser.parseDouble(token);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Error: Invalid number '" + token + "'.");
+                }
+                return constant(value);
+            }
+            Integer slot = slots.get(token);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(token, slot);
+            }
+            return add(VAR, slot, -1, -1, -1);
+        }
+
+        // A constant node, as for a literal in the source
+        int constant(double value) {
+            Integer known = constantIndexes != null ? constantIndexes.get(Double.doubleToLongBits(value)) : null;
+            int index;
+            if (known != null) {
+                index = known;
+            } else {
+                if (constantCount == constants.length) {
+                    constants = Arrays.copyOf(constants, constantCount * 2);
+                }
+                constants[constantCount] = value;
+                index = constantCount++;
+                if (constantIndexes != null) {
+                    constantIndexes.put(Double.doubleToLongBits(value), index);
+                }
+            }
+            return add(CONST, index, -1, -1, -1);
+        }
+
+        public int binary(char operator, int left, int right) {
+            switch (operator) {
+                case '+':
+                    // + and * are commutative in IEEE arithmetic, so x + y and y + x can share a node
+                    return table != null && left > right ? add(ADD, 0, right, left, -1) : add(ADD, 0, left, right, -1);
+                case '-':
+                    return add(SUBTRACT, 0, left, right, -1);
+                case '*':
+                    return table != null && left > right
+                            ? add(MULTIPLY, 0, right, left, -1) : add(MULTIPLY, 0, left, right, -1);
+                default:
+                    return add(DIVIDE, 0, left, right, -1);
+            }
+        }
+
+        public int call(String name, int[] args, int from, int count) {
+            ProvidedFunction provided = FunctionProviders.lookup(name);
+            if (provided != null) {
+                if (count != provided.getArity()) {
+                    throw new IllegalArgumentException("Error: Function '" + provided.name + "' expects "
+                            + provided.getArity() + " argument(s) but got " + count + ".");
+                }
+                return call(new Provided(provided), args, from, count);
+            }
+            Builtin builtin = Builtin.resolve(name, count);
+            return add(CALL, builtin.ordinal(), args[from],
+                    count > 1 ? args[from + 1] : -1,
+                    count > 2 ? args[from + 2] : -1);
+        }
+
+        // A call to callee, whose arity the caller has checked
+        int call(Callee callee, int[] args, int from, int count) {
+            int index = calleeCount++;
+            if (index == callees.length) {
+                callees = Arrays.copyOf(callees, index * 2);
+                arguments = Arrays.copyOf(arguments, index * 2);
+            }
+            callees[index] = callee;
+            arguments[index] = Arrays.copyOfRange(args, from, from + count);
+            return add(FUNCTION, index, count > 0 ? args[from] : -1,
+                    count > 1 ? args[from + 1] : -1,
+                    count > 2 ? args[from + 2] : -1);
+        }
+
+        // The skipped operand's nodes must be its own, so hash-consed builders cannot branch
+        public int logical(char operator, int left, int right) {
+            if (table != null) {
+                return ASTParser.ASTBuilder.super.logical(operator, left, right);
+            }
+            checkOrder(left, right);
+            jump(left, operator == '&' ? WHEN_ZERO : WHEN_NONZERO, size);
+            return add(operator == '&' ? AND : OR, 0, left, right, -1);
+        }
+
+        public int conditional(int condition, int then, int otherwise) {
+            if (table != null) {
+                return ASTParser.ASTBuilder.super.conditional(condition, then, otherwise);
+            }
+            checkOrder(condition, then, otherwise);
+            jump(condition, WHEN_ZERO, first[otherwise]);
+            jump(then, ALWAYS, size);
+            return add(CONDITIONAL, 0, condition, then, otherwise);
+        }
+
+        // The parser completes operands left to right, so each subtree directly follows
+        // the one before it and the last one ends with the last node added
+        private void checkOrder(int... operands) {
+            for (int i = 1; i < operands.length; i++) {
+                if (first[operands[i]] != operands[i - 1] + 1) {
+                    throw new IllegalStateException("Error: Operands must be built in order.");
+                }
+            }
+            if (operands[operands.length - 1] != size - 1) {
+                throw new IllegalStateException("Error: Operands must be built in order.");
+            }
+        }
+
+        private void jump(int node, int kind, int target) {
+            if (jumps == null) {
+                jumps = new int[opcodes.length];
+            }
+            jumps[node] = target << 2 | kind;
+        }
+
+        private int add(int opcode, int operand, int a, int b, int c) {
+            requested++;
+            int bucket = 0;
+            if (table != null) {
+                int mask = table.length - 1;
+                bucket = hash(opcode, operand, a, b, c) & mask;
+                for (int node = table[bucket]; node >= 0; node = table[bucket]) {
+                    if (opcodes[node] == opcode && operands[node] == operand && child0[node] == a
+                            && child1[node] == b && child2[node] == c) {
+                        return node;
+                    }
+                    bucket = (bucket + 1) & mask;
+                }
+            }
+            if (size == opcodes.length) {
+                int capacity = size * 2;
+                opcodes = Arrays.copyOf(opcodes, capacity);
+                operands = Arrays.copyOf(operands, capacity);
+                child0 = Arrays.copyOf(child0, capacity);
+                child1 = Arrays.copyOf(child1, capacity);
+                child2 = Arrays.copyOf(child2, capacity);
+                first = Arrays.copyOf(first, capacity);
+                if (jumps != null) {
+                    jumps = Arrays.copyOf(jumps, capacity);
+                }
+            }
+            opcodes[size] = opcode;
+            operands[size] = operand;
+            child0[size] = a;
+            child1[size] = b;
+            child2[size] = c;
+            first[size] = a >= 0 ? first[a] : size;
+            if (table != null) {
+                table[bucket] = size;
+                if (size * 2 >= table.length) {
+                    rehash(table.length * 2);
+                }
+            }
+            return size++;
+        }
+
+        private static int hash(int opcode, int operand, int a, int b, int c) {
+            int h = opcode;
+            h = h * 31 + operand;
+            h = h * 31 + a;
+            h = h * 31 + b;
+            h = h * 31 + c;
+            return h ^ (h >>> 16) * 0x45d9f3b;
+        }
+
+        // Called before size is incremented, so node size is already in the arrays
+        private void rehash(int capacity) {
+            table = new int[capacity];
+            Arrays.fill(table, -1);
+            int mask = capacity - 1;
+            for (int node = 0; node <= size; node++) {
+                int bucket = hash(opcodes[node], operands[node], child0[node], child1[node], child2[node]) & mask;
+                while (table[bucket] >= 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                table[bucket] = node;
+            }
+        }
+
+        // The parser returns the root last, so it is always node size - 1
+        FlatAST build() {
+            String[] slotNames = new String[slots.size()];
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                slotNames[entry.getValue()] = entry.getKey();
+            }
+            return new FlatAST(size, Arrays.copyOf(opcodes, size), Arrays.copyOf(operands, size),
+                    Arrays.copyOf(child0, size), Arrays.copyOf(child1, size), Arrays.copyOf(child2, size),
+                    Arrays.copyOf(constants, constantCount), slotNames,
+                    jumps == null ? null : Arrays.copyOf(jumps, size),
+                    Arrays.copyOf(callees, calleeCount), Arrays.copyOf(arguments, calleeCount));
+        }
+    }
+
+    // One forward-mode pass against N + 1 evaluations for forward finite differences,
+    // on formulas with 1 to 100 variables built from power, sin, nthroot and areaofcircle
+    public static class GradientBenchmark {
+        public static void main(String[] args) {
+            int[] counts = { 1, 2, 5, 10, 20, 50, 100 };
+            Random random = new Random(35);
+            System.out.println("| Variables | Finite diff (us) | Dual (us) | Speedup | Max rel. diff |");
+            System.out.println("|-----------|------------------|-----------|---------|---------------|");
+            for (int n : counts) {
+                CompiledExpression expression = CompiledExpression.compile(formula(n));
+                double[] x = new double[expression.getSlotCount()];
+                for (int i = 0; i < x.length; i++) {
+                    x[i] = 1 + 4 * random.nextDouble();
+                }
+                double[] dual = new double[x.length];
+                double[] finite = new double[x.length];
+                int repeats = Math.max(20, 20_000 / n);
+                // Best of several rounds, which is the least disturbed by JIT and GC
+                double finiteMicros = Double.MAX_VALUE;
+                double dualMicros = Double.MAX_VALUE;
+                double sink = 0;
+                for (int round = 0; round < 6; round++) {
+                    long start = System.nanoTime();
+                    for (int r = 0; r < repeats; r++) {
+                        sink += finiteDifferences(expression, x, finite);
+                    }
+                    finiteMicros = Math.min(finiteMicros, (System.nanoTime() - start) / 1e3 / repeats);
+                    start = System.nanoTime();
+                    for (int r = 0; r < repeats; r++) {
+                        sink += expression.evaluateGradient(x, dual);
+                    }
+                    dualMicros = Math.min(dualMicros, (System.nanoTime() - start) / 1e3 / repeats);
+                }
+                System.out.println(String.format("| %-9d | %-16.2f | %-9.2f | %-7.1f | %-13.1e |", n, finiteMicros,
+                        dualMicros, finiteMicros / dualMicros, maxRelativeDifference(expression, x, dual))
+                        + (sink == 42 ? " " : ""));
+            }
+        }
+
+        private static String formula(int n) {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                String x = "x" + i;
+                String next = "x" + (i + 1) % n;
+                if (i > 0) {
+                    out.append(" + ");
+                }
+                switch (i % 4) {
+                    case 0:
+                        out.append("power(").append(x).append(", 2) * ").append(next);
+                        break;
+                    case 1:
+                        out.append("sin(").append(x).append(" * 10) * ").append(next);
+                        break;
+                    case 2:
+                        out.append("nthroot(").append(x).append(", 3) / ").append(next);
+                        break;
+                    default:
+                        out.append("areaofcircle(").append(x).append(" - ").append(next).append(')');
+                        break;
+                }
+            }
+            return out.toString();
+        }
+
+        // What callers do today: one base evaluation plus one per perturbed variable
+        private static double finiteDifferences(CompiledExpression expression, double[] x, double[] gradient) {
+            double base = expression.evaluate(x);
+            for (int i = 0; i < x.length; i++) {
+                double saved = x[i];
+                double h = 1e-7 * Math.max(1, Math.abs(saved));
+                x[i] = saved + h;
+                gradient[i] = (expression.evaluate(x) - base) / h;
+                x[i] = saved;
+            }
+            return base;
+        }
+
+        // Against central differences, which are accurate to about 1e-9 here
+        private static double maxRelativeDifference(CompiledExpression expression, double[] x, double[] dual) {
+            double worst = 0;
+            for (int i = 0; i < x.length; i++) {
+                double saved = x[i];
+                double h = 1e-5 * Math.max(1, Math.abs(saved));
+                x[i] = saved + h;
+                double up = expression.evaluate(x);
+                x[i] = saved - h;
+                double down = expression.evaluate(x);
+                x[i] = saved;
+                double central = (up - down) / (2 * h);
+                worst = Math.max(worst, Math.abs(dual[i] - central) / Math.max(1, Math.abs(central)));
+            }
+            return worst;
+        }
+    }
+
+    // Memory per node and evaluation speed against the ASTNode / CompiledExpression trees
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int leaves = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+            String source = generate(new Random(1), leaves, new StringBuilder()).toString();
+            double[] slots = { 1.25, -0.5, 3.0 };
+            ASTParser parser = new ASTParser();
+
+            long before = usedMemory();
+            ASTNode tree = parser.parse(source);
+            long treeBytes = usedMemory() - before;
+
+            before = usedMemory();
+            FlatAST flat = parser.parseFlat(source);
+            long flatBytes = usedMemory() - before;
+
+            CompiledExpression compiled = CompiledExpression.compile(source);
+            double[] scratch = new double[flat.size];
+            double expected = compiled.evaluate(compiledSlots(compiled, flat, slots));
+
+            System.out.println("Nodes: " + flat.size);
+            System.out.println(String.format("ASTNode tree: %.1f bytes/node", (double) treeBytes / flat.size));
+            System.out.println(String.format("FlatAST:      %.1f bytes/node (arrays: %.1f)",
+                    (double) flatBytes / flat.size, flat.bytesPerNode()));
+            System.out.println("Results match: " + (Double.compare(expected, flat.evaluate(slots, scratch)) == 0));
+
+            double[] reordered = compiledSlots(compiled, flat, slots);
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                double sink = 0;
+                for (int n = 0; n < 20; n++) {
+                    sink += compiled.evaluate(reordered);
+                }
+                double treeMillis = (System.nanoTime() - start) / 1e6 / 20;
+                start = System.nanoTime();
+                for (int n = 0; n < 20; n++) {
+                    sink += flat.evaluate(slots, scratch);
+                }
+                double flatMillis = (System.nanoTime() - start) / 1e6 / 20;
+                if (round == 2) {
+                    System.out.println(String.format("Evaluation: tree %.2f ms, flat %.2f ms", treeMillis, flatMillis)
+                            + (sink == 42 ? " " : ""));
+                }
+            }
+            Reference.reachabilityFence(tree);
+        }
+
+        // Balanced random formula so the recursive tree evaluator can handle it
+        private static StringBuilder generate(Random random, int leaves, StringBuilder out) {
+            if (leaves == 1) {
+                int kind = random.nextInt(3);
+                if (kind == 0) {
+                    return out.append(random.nextInt(9) + 1).append('.').append(random.nextInt(10));
+                }
+                return out.append(kind == 1 ? "x" : random.nextBoolean() ? "y" : "z");
+            }
+            int left = leaves / 2;
+            out.append('(');
+            generate(random, left, out);
+            out.append(random.nextBoolean() ? " + " : " * ");
+            generate(random, leaves - left, out);
+            return out.append(')');
+        }
+
+        // CompiledExpression numbers slots by first use too, but map by name to be safe
+        private static double[] compiledSlots(CompiledExpression compiled, FlatAST flat, double[] slots) {
+            double[] values = new double[compiled.getSlotCount()];
+            for (int i = 0; i < flat.slotNames.length; i++) {
+                int slot = compiled.slotOf(flat.slotNames[i]);
+                if (slot >= 0) {
+                    values[slot] = slots[i];
+                }
+            }
+            return values;
+        }
+
+        private static long usedMemory() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
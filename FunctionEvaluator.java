@@ -0,0 +1,330 @@
+// Evaluates predefined and provided functions on their string arguments, independent of the UI
+class FunctionEvaluator {
+    // Degree-based trigonometry goes through DegreeTrig instead of Math.toRadians + Math
+    private boolean fastMath;
+    // Per-thread buffer for the String overloads, so one evaluator can still be shared
+    private static final ThreadLocal<ResultWriter> buffers = ThreadLocal.withInitial(() -> new ResultWriter(64));
+
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
+    public void setFastMath(boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
+    // Execute the function based on the function name and parameters
+    String executeFunction(String functionName, String[] params) throws Exception {
+        return executeFunction(functionName, ArgumentVector.of(params));
+    }
+
+    // Same as above with the arguments already parsed by the front end
+    String executeFunction(String functionName, ArgumentVector args) throws Exception {
+        return executeFunction(functionName, args, (EvaluationBudget.Meter) null);
+    }
+
+    // Same, charging the call to meter; see below
+    String executeFunction(String functionName, ArgumentVector args, EvaluationBudget.Meter meter) throws Exception {
+        ResultWriter buffer = buffers.get();
+        buffer.clear();
+        return executeFunction(functionName, args, buffer, meter).toString();
+    }
+
+    // Evaluates the function over whole columns of a mapped file, writing each row's
+    // result into resultColumn of output; arguments are read as numbers in place, so no
+    // text is parsed or built. Uses Builtin's arithmetic, as compiled expressions do.
+    void executeColumns(String functionName, ColumnarFile input, int[] columns, ColumnarFile output,
+            int resultColumn) {
+        ColumnarFile.evaluate(Builtin.resolve(functionName, columns.length), input, columns, output, resultColumn);
+    }
+
+    // Appends the result to out without building a String, for batch output
+    ResultWriter executeFunction(String functionName, ArgumentVector args, ResultWriter out) throws Exception {
+        return executeFunction(functionName, args, out, null);
+    }
+
+    // Appends the result to out and charges the call to meter, which may be null for no
+    // limit. Every call costs a step, trial division a step per divisor, and array
+    // arguments a step and 8 bytes per element.
+    ResultWriter executeFunction(String functionName, ArgumentVector args, ResultWriter out,
+            EvaluationBudget.Meter meter) throws Exception {
+        if (args.size() == 0) {
+            throw new IllegalArgumentException("Error: Missing parameters.");
+        }
+        if (meter != null) {
+            meter.step(1);
+        }
+
+        switch (functionName) {
+            case "add":
+                return out.append(args.intAt(0) + args.intAt(1));
+            case "subtract":
+                return out.append(args.intAt(0) - args.intAt(1));
+            case "multiply":
+                return out.append(args.intAt(0) * args.intAt(1));
+            case "divide":
+                if (args.doubleAt(1) == 0)
+                    throw new ArithmeticException("Error: Division by zero.");
+                return out.append(args.doubleAt(0) / args.doubleAt(1));
+            case "modulus":
+                if (args.intAt(1) == 0)
+                    throw new ArithmeticException("Error: Modulo by zero.");
+                return out.append(args.intAt(0) % args.intAt(1));
+            case "power":
+                return out.append(Math.pow(args.doubleAt(0), args.doubleAt(1)));
+            case "squareroot":
+                return out.append(Math.sqrt(args.doubleAt(0)));
+            case "cuberoot":
+                return out.append(Math.cbrt(args.doubleAt(0)));
+            case "nthroot":
+                return out.append(Math.pow(args.doubleAt(0), 1.0 / args.doubleAt(1)));
+            case "iseven":
+                return out.append(args.intAt(0) % 2 == 0);
+            case "isodd":
+                return out.append(args.intAt(0) % 2 != 0);
+            case "halfvalue":
+                return out.append(args.doubleAt(0) / 2);
+            case "doublevalue":
+                return out.append(args.doubleAt(0) * 2);
+            case "increment":
+                return out.append(args.intAt(0) + 1);
+            case "decrement":
+                return out.append(args.intAt(0) - 1);
+            case "findmax":
+                return out.append(Math.max(args.intAt(0), args.intAt(1)));
+            case "findmin":
+                return out.append(Math.min(args.intAt(0), args.intAt(1)));
+            case "isprime":
+                return out.append(meter == null ? isPrime(args.intAt(0)) : isPrime(args.intAt(0), meter));
+            case "sin":
+                if (fastMath)
+                    return out.append(DegreeTrig.sin(args.doubleAt(0)));
+                return out.append(Math.sin(Math.toRadians(args.doubleAt(0))));
+            case "cos":
+                if (fastMath)
+                    return out.append(DegreeTrig.cos(args.doubleAt(0)));
+                return out.append(Math.cos(Math.toRadians(args.doubleAt(0))));
+            case "tan":
+                if (fastMath)
+                    return out.append(DegreeTrig.tan(args.doubleAt(0)));
+                return out.append(Math.tan(Math.toRadians(args.doubleAt(0))));
+            case "cot":
+                if (fastMath)
+                    return out.append(DegreeTrig.cot(args.doubleAt(0)));
+                return out.append(1 / Math.tan(Math.toRadians(args.doubleAt(0))));
+            case "sec":
+                if (fastMath)
+                    return out.append(DegreeTrig.sec(args.doubleAt(0)));
+                return out.append(1 / Math.cos(Math.toRadians(args.doubleAt(0))));
+            case "cosec":
+                if (fastMath)
+                    return out.append(DegreeTrig.cosec(args.doubleAt(0)));
+                return out.append(1 / Math.sin(Math.toRadians(args.doubleAt(0))));
+            case "gcd":
+                return out.append(gcd(args.longAt(0), args.longAt(1)));
+            case "lcm":
+                return out.append(lcm(args.longAt(0), args.longAt(1)));
+            case "absolutevalue":
+                return out.append(Math.abs(args.intAt(0)));
+            case "ceil":
+                return out.append(Math.ceil(args.doubleAt(0)));
+            case "floor":
+                return out.append(Math.floor(args.doubleAt(0)));
+            case "round":
+                return out.append(Math.round(args.doubleAt(0)));
+            case "percentage":
+                return out.append((args.doubleAt(0) / args.doubleAt(1)) * 100);
+            case "areaofsquare":
+                return out.append(Math.pow(args.doubleAt(0), 2));
+            case "areaofrectangle":
+                return out.append(args.doubleAt(0) * args.doubleAt(1));
+            case "areaofcircle":
+                return out.append(Math.PI * Math.pow(args.doubleAt(0), 2));
+            case "ispalindrome":
+                return out.append(isPalindrome(args.textAt(0)));
+            case "absolutedifference":
+                return out.append(Math.abs(args.intAt(0) - args.intAt(1)));
+            case "ispositive":
+                return out.append(args.intAt(0) > 0);
+            case "isperfectsquare":
+                return out.append(isPerfectSquare(args.intAt(0)));
+            case "cubeofdifference":
+                return out.append(Math.pow(args.intAt(0) - args.intAt(1), 3));
+            case "averageofthree":
+                return out.append(
+                        (args.doubleAt(0) + args.doubleAt(1) + args.doubleAt(2))
+                                / 3);
+            case "ismultiple":
+                return out.append(args.intAt(0) % args.intAt(1) == 0);
+            case "sumofdigits":
+                return out.append(sumOfDigits(args.intAt(0)));
+            case "sumofsquares":
+                return out.append(sumOfSquares(args.intAt(0)));
+            case "reciprocal":
+                if (args.doubleAt(0) == 0)
+                    throw new ArithmeticException("Error: Division by zero.");
+                return out.append(1 / args.doubleAt(0));
+            case "mean":
+                if (args.isArray(0)) {
+                    charge(args, 0, meter);
+                    return out.append(mean(args));
+                }
+                return out.append((args.doubleAt(0) + args.doubleAt(1)) / 2);
+            case "sum": {
+                charge(args, 0, meter);
+                long[] integers = args.longArrayAt(0);
+                if (integers != null)
+                    return out.append(ArrayKernels.sum(integers));
+                return out.append(ArrayKernels.sum(args.arrayAt(0)));
+            }
+            case "dot":
+                charge(args, 0, meter);
+                charge(args, 1, meter);
+                return out.append(ArrayKernels.dot(args.arrayAt(0), args.arrayAt(1)));
+            case "min": {
+                charge(args, 0, meter);
+                long[] integers = args.longArrayAt(0);
+                if (integers != null && integers.length > 0)
+                    return out.append(ArrayKernels.min(integers));
+                return out.append(ArrayKernels.min(args.arrayAt(0)));
+            }
+            case "max": {
+                charge(args, 0, meter);
+                long[] integers = args.longArrayAt(0);
+                if (integers != null && integers.length > 0)
+                    return out.append(ArrayKernels.max(integers));
+                return out.append(ArrayKernels.max(args.arrayAt(0)));
+            }
+            case "norm":
+                charge(args, 0, meter);
+                return out.append(ArrayKernels.norm(args.arrayAt(0)));
+            case "reversenumber":
+                return out.append(reverseNumber(args.intAt(0)));
+            case "degreestoradians":
+                return out.append(Math.toRadians(args.doubleAt(0)));
+            case "radianstodegrees":
+                return out.append(Math.toDegrees(args.doubleAt(0)));
+            case "maxofthree":
+                return out.append(Math.max(args.intAt(0),
+                        Math.max(args.intAt(1), args.intAt(2))));
+            case "minofthree":
+                return out.append(Math.min(args.intAt(0),
+                        Math.min(args.intAt(1), args.intAt(2))));
+            case "averageof3":
+                return out.append(
+                        (args.doubleAt(0) + args.doubleAt(1) + args.doubleAt(2))
+                                / 3);
+            case "cubeofdiff":
+                if (args.size() != 2) {
+                    throw new IllegalArgumentException("Error: cubeofdiff requires 2 arguments.");
+                } else {
+                    double a = args.doubleAt(0);
+                    double b = args.doubleAt(1);
+                    double diff = a - b;
+                    return out.append(Math.pow(diff, 3));
+                }
+
+            default:
+                ProvidedFunction provided = FunctionProviders.lookup(functionName);
+                if (provided == null) {
+                    throw new Exception("Function implementation not available.");
+                }
+                double[] values = new double[args.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = args.doubleAt(i);
+                }
+                double value = provided.call(values);
+                switch (provided.returnType) {
+                    case "int":
+                        return out.append((long) value);
+                    case "boolean":
+                        return out.append(value != 0);
+                    default:
+                        return out.append(value);
+                }
+        }
+    }
+
+    // Charges an array argument before it is parsed
+    private static void charge(ArgumentVector args, int index, EvaluationBudget.Meter meter) {
+        if (meter != null) {
+            int length = args.arrayLength(index);
+            meter.allocate(8L * length);
+            meter.step(length);
+        }
+    }
+
+    // mean(arr) or mean(arr, size), which averages the first size values
+    static double mean(ArgumentVector args) {
+        if (args.size() == 1) {
+            long[] integers = args.longArrayAt(0);
+            return integers != null ? ArrayKernels.mean(integers) : ArrayKernels.mean(args.arrayAt(0));
+        }
+        double[] values = args.arrayAt(0);
+        int size = args.intAt(1);
+        if (size < 0 || size > values.length) {
+            throw new IllegalArgumentException("Error: size must be from 0 to " + values.length + ", got " + size + ".");
+        }
+        return ArrayKernels.mean(values, size);
+    }
+
+    // Function to check if a number is a perfect square
+    static boolean isPerfectSquare(int num) {
+        int sqrt = (int) Math.sqrt(num);
+        return sqrt * sqrt == num;
+    }
+
+    // Function to calculate the sum of digits of a number
+    static int sumOfDigits(int num) {
+        return IntegerKernels.sumOfDigits(num);
+    }
+
+    // Function to calculate the sum of squares of digits of a number
+    static int sumOfSquares(int num) {
+        return IntegerKernels.sumOfSquares(num);
+    }
+
+    // Function to reverse a number, handling negative numbers
+    static int reverseNumber(int num) {
+        return IntegerKernels.reverseNumber(num);
+    }
+
+    // Function to check if a number is prime
+    static boolean isPrime(int num) {
+        if (num <= 1)
+            return false;
+        for (int i = 2; i <= Math.sqrt(num); i++) {
+            if (num % i == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // isPrime charging one step per trial divisor
+    static boolean isPrime(int num, EvaluationBudget.Meter meter) {
+        if (num <= 1)
+            return false;
+        for (int i = 2; i <= Math.sqrt(num); i++) {
+            meter.step(1);
+            if (num % i == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // Function to compute Greatest Common Divisor (GCD)
+    static long gcd(long a, long b) {
+        return IntegerKernels.gcd(a, b);
+    }
+
+    // Function to compute Least Common Multiple (LCM)
+    static long lcm(long a, long b) {
+        return IntegerKernels.lcm(a, b);
+    }
+
+    // Function to check if a string is a palindrome
+    static boolean isPalindrome(String str) {
+        String reversed = new StringBuilder(str).reverse().toString();
+        return str.equals(reversed);
+    }
+}
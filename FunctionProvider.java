@@ -0,0 +1,10 @@
+import java.util.List;
+
+// A source of functions that the language calls like the predefined ones, found with
+// ServiceLoader: put the implementing class's name on a line of
+// META-INF/services/FunctionProvider on the classpath, e.g. "MathFunctions". The
+// class needs to be public with a public no-argument constructor. Providers are loaded
+// once, the first time a name is looked up; see FunctionProviders.
+public interface FunctionProvider {
+    List<ProvidedFunction> functions();
+}
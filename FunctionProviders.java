@@ -0,0 +1,148 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The functions of every FunctionProvider, e.g.
+//   ProvidedFunction hypot = FunctionProviders.lookup("hypot");
+//   CompiledExpression.compile("hypot(x, 4) + 1"); // bound to hypot's implementation
+// Providers listed in META-INF/services/FunctionProvider are loaded once, when this
+// class is first used; one that cannot be loaded, or whose names are taken, is
+// skipped, with its error kept in skipped() for the UI to show, and the rest still
+// load. register() adds one at run time. A provided function is
+// called like a predefined one from every front end: Compile, Implement, TAC, the
+// symbol tables and CompiledExpression, which links each call when the expression is
+// compiled so evaluation does no lookup. Names are case-insensitive and may not shadow
+// a predefined function or another provider's function; user functions cannot take a
+// provided name, but one defined before its provider is registered hides it.
+final class FunctionProviders {
+    private static final Map<String, ProvidedFunction> functions = new ConcurrentHashMap<>();
+    // Why each provider that failed to load was skipped, in load order
+    private static final List<String> skipped = new ArrayList<>();
+    // ServiceLoader only tries its best to move past a provider that failed; give up on
+    // the rest after this many failures in a row
+    private static final int MAX_FAILURES = 16;
+
+    static {
+        Iterator<FunctionProvider> providers = ServiceLoader.load(FunctionProvider.class).iterator();
+        int failures = 0;
+        while (failures < MAX_FAILURES) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+                register(providers.next());
+                failures = 0;
+            } catch (ServiceConfigurationError e) {
+                // Thrown on, it would leave the class unusable and fail every later lookup
+                skip("Error: " + e.getMessage() + ".");
+                failures++;
+            } catch (RuntimeException e) {
+                skip(ParallelExecutor.errorText(e));
+                failures++;
+            }
+        }
+    }
+
+    private static void skip(String message) {
+        skipped.add(message + " The function provider was skipped.");
+    }
+
+    private FunctionProviders() {
+    }
+
+    // Adds every function of the provider, or none of them if any name is taken
+    static synchronized void register(FunctionProvider provider) {
+        Map<String, ProvidedFunction> added = new HashMap<>();
+        for (ProvidedFunction function : provider.functions()) {
+            String name = function.name.toLowerCase();
+            if (CompilerUI.predefinedFunctions.containsKey(name) || name.equals("if")) {
+                throw new IllegalArgumentException("Error: '" + function.name + "' is a predefined function.");
+            }
+            if (functions.containsKey(name) || added.containsKey(name)) {
+                throw new IllegalArgumentException("Error: Function '" + function.name + "' is already defined.");
+            }
+            added.put(name, function);
+        }
+        functions.putAll(added);
+    }
+
+    // Only written while the class initializes, so it can be read without locking
+    static List<String> skipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    // Returns null when no provider has the name
+    static ProvidedFunction lookup(String name) {
+        return functions.get(name.toLowerCase());
+    }
+
+    static Collection<ProvidedFunction> all() {
+        List<ProvidedFunction> all = new ArrayList<>(functions.values());
+        all.sort((a, b) -> a.name.compareToIgnoreCase(b.name));
+        return all;
+    }
+
+    // x + y as a built-in, as a provided function linked directly, as one called through
+    // invokeExact, and looked up by name on every call as an interpreter without
+    // compile-time linking would
+    public static class Benchmark {
+        static double plus(double a, double b) {
+            return a + b;
+        }
+
+        static double offset(double a, double b, double c) {
+            return a + b + c;
+        }
+
+        public static void main(String[] args) throws ReflectiveOperationException {
+            int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType binary = MethodType.methodType(double.class, double.class, double.class);
+            MethodHandle plus = lookup.findStatic(Benchmark.class, "plus", binary);
+            MethodHandle offset = MethodHandles.insertArguments(lookup.findStatic(Benchmark.class, "offset",
+                    MethodType.methodType(double.class, double.class, double.class, double.class)), 2, 0.0);
+            register(() -> List.of(new ProvidedFunction("double", "benchplus", new String[] { "a", "b" }, plus),
+                    new ProvidedFunction("double", "benchoffset", new String[] { "a", "b" }, offset)));
+
+            CompiledExpression[] forms = { CompiledExpression.compile("add(x, y) + 1"),
+                    CompiledExpression.compile("benchplus(x, y) + 1"),
+                    CompiledExpression.compile("benchoffset(x, y) + 1") };
+            double[] slots = new double[2];
+            double[] values = new double[2];
+            double[] best = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+            double sink = 0;
+            for (int round = 0; round < 5; round++) {
+                for (int variant = 0; variant < best.length; variant++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < rows; i++) {
+                        slots[0] = values[0] = i;
+                        slots[1] = values[1] = 7;
+                        sink += variant < forms.length ? forms[variant].evaluate(slots)
+                                : lookup("benchplus").call(values) + 1;
+                    }
+                    best[variant] = Math.min(best[variant], (double) (System.nanoTime() - start) / rows);
+                }
+            }
+            System.out.println("| Form                          | ns/call |");
+            System.out.println("|-------------------------------|---------|");
+            String[] names = { "built-in add(x, y)", "provided, linked directly", "provided, through invokeExact",
+                    "provided, looked up per call" };
+            for (int variant = 0; variant < best.length; variant++) {
+                System.out.println(String.format("| %-29s | %-7.1f |", names[variant], best[variant]));
+            }
+            System.out.println(sink == 42 ? " " : "");
+            System.out.println("benchplus direct: " + lookup("benchplus").isDirect() + ", benchoffset direct: "
+                    + lookup("benchoffset").isDirect());
+        }
+    }
+}
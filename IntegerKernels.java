@@ -0,0 +1,332 @@
+import java.util.Random;
+
+// Number-theory and digit functions on long and int, one value or a whole array at a time.
+// gcd is Stein's binary algorithm, which only shifts and subtracts, when neither argument
+// is negative; otherwise it is the original Euclid loop, whose result takes its sign
+// from the remainders: gcd(4, -6) is -2 but gcd(-4, 6) is 2. lcm is a * b / gcd(a, b)
+// with the same signs, divides before it multiplies and throws instead of wrapping on
+// overflow. The digit functions look up
+// four decimal digits at a time, so an int takes three table reads instead of ten
+// divisions. Results match the original FunctionEvaluator loops for every int.
+final class IntegerKernels {
+    private static final byte[] DIGIT_SUMS = new byte[10000];
+    private static final short[] SQUARE_SUMS = new short[10000];
+    // Every entry as four digits with leading zeros, reversed: 12 -> 2100
+    private static final short[] REVERSED = new short[10000];
+
+    static {
+        for (int i = 0; i < 10000; i++) {
+            int sum = 0;
+            int squares = 0;
+            int reversed = 0;
+            for (int n = i, digits = 0; digits < 4; n /= 10, digits++) {
+                int digit = n % 10;
+                sum += digit;
+                squares += digit * digit;
+                reversed = reversed * 10 + digit;
+            }
+            DIGIT_SUMS[i] = (byte) sum;
+            SQUARE_SUMS[i] = (short) squares;
+            REVERSED[i] = (short) reversed;
+        }
+    }
+
+    private IntegerKernels() {
+    }
+
+    // Same value and sign as the original recursion gcd(b, a % b); gcd(a, 0) is a
+    static long gcd(long a, long b) {
+        if ((a | b) < 0) {
+            while (b != 0) {
+                long remainder = a % b;
+                a = b;
+                b = remainder;
+            }
+            return a;
+        }
+        if (a == 0 || b == 0) {
+            return a | b;
+        }
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        b >>>= Long.numberOfTrailingZeros(b);
+        // Both odd from here on, so their difference is even and loses at least one bit
+        while (a != b) {
+            if (a > b) {
+                a -= b;
+                a >>>= Long.numberOfTrailingZeros(a);
+            } else {
+                b -= a;
+                b >>>= Long.numberOfTrailingZeros(b);
+            }
+        }
+        return a << shift;
+    }
+
+    // a * b / gcd(a, b), so negative when the signs of a, b and their gcd make it so; 0
+    // when either argument is 0
+    static long lcm(long a, long b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        long quotient = a / gcd(a, b);
+        long high = Math.multiplyHigh(quotient, b);
+        long product = quotient * b;
+        if (high != product >> 63) {
+            throw new ArithmeticException("Error: LCM of " + a + " and " + b + " overflows long.");
+        }
+        return product;
+    }
+
+    // Negative numbers give the negated sum, as the % 10 loop does
+    static int sumOfDigits(int num) {
+        // Work on the non-positive value so Integer.MIN_VALUE needs no special case
+        int n = num > 0 ? -num : num;
+        int sum = DIGIT_SUMS[-(n % 10000)] + DIGIT_SUMS[-(n / 10000 % 10000)] + DIGIT_SUMS[-(n / 100000000)];
+        return num < 0 ? -sum : sum;
+    }
+
+    static int sumOfSquares(int num) {
+        int n = num > 0 ? -num : num;
+        return SQUARE_SUMS[-(n % 10000)] + SQUARE_SUMS[-(n / 10000 % 10000)] + SQUARE_SUMS[-(n / 100000000)];
+    }
+
+    // Wraps on overflow like the digit loop: reversed * 10^4 + block is the same value
+    // mod 2^32 as four steps of reversed * 10 + digit
+    static int reverseNumber(int num) {
+        int n = num > 0 ? -num : num;
+        int reversed = 0;
+        while (n <= -10000) {
+            reversed = reversed * 10000 + REVERSED[-(n % 10000)];
+            n /= 10000;
+        }
+        // The leading block has no leading zeros, so drop the zeros its reversal gained
+        int top = -n;
+        if (top >= 1000) {
+            reversed = reversed * 10000 + REVERSED[top];
+        } else if (top >= 100) {
+            reversed = reversed * 1000 + REVERSED[top] / 10;
+        } else if (top >= 10) {
+            reversed = reversed * 100 + REVERSED[top] / 100;
+        } else {
+            reversed = reversed * 10 + top;
+        }
+        // The loop negates its result for negative input, except that Math.abs leaves
+        // Integer.MIN_VALUE negative and the negative digits cancel the negation
+        return num < 0 && num != Integer.MIN_VALUE ? -reversed : reversed;
+    }
+
+    // Array kernels: results[i] = f(values[i]) for every i < values.length
+
+    static void gcd(long[] a, long[] b, long[] results) {
+        for (int i = 0; i < a.length; i++) {
+            results[i] = gcd(a[i], b[i]);
+        }
+    }
+
+    static void lcm(long[] a, long[] b, long[] results) {
+        for (int i = 0; i < a.length; i++) {
+            results[i] = lcm(a[i], b[i]);
+        }
+    }
+
+    static void sumOfDigits(int[] values, int[] results) {
+        for (int i = 0; i < values.length; i++) {
+            results[i] = sumOfDigits(values[i]);
+        }
+    }
+
+    static void sumOfSquares(int[] values, int[] results) {
+        for (int i = 0; i < values.length; i++) {
+            results[i] = sumOfSquares(values[i]);
+        }
+    }
+
+    static void reverseNumber(int[] values, int[] results) {
+        for (int i = 0; i < values.length; i++) {
+            results[i] = reverseNumber(values[i]);
+        }
+    }
+
+    // The table kernels against the original % 10 loops and recursive Euclid, after
+    // checking that both give the same results
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            Random random = new Random(38);
+            int[] values = new int[count];
+            int[] small = new int[count];
+            long[] a = new long[count];
+            long[] b = new long[count];
+            long[] wideA = new long[count];
+            long[] wideB = new long[count];
+            int[] signedA = new int[count];
+            int[] signedB = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = random.nextInt();
+                small[i] = random.nextInt(100_000);
+                a[i] = random.nextInt(Integer.MAX_VALUE);
+                b[i] = random.nextInt(Integer.MAX_VALUE);
+                wideA[i] = random.nextLong() >>> 2;
+                wideB[i] = random.nextLong() >>> 2;
+                signedA[i] = random.nextInt();
+                signedB[i] = random.nextInt(2_000_001) - 1_000_000;
+            }
+            int[] results = new int[count];
+            long[] longResults = new long[count];
+
+            int mismatches = 0;
+            int[] edges = { 0, 1, -1, 9, 10, -10, 9999, 10000, -10000, 1000000009, 1463847412, Integer.MAX_VALUE,
+                    Integer.MIN_VALUE, Integer.MIN_VALUE + 1 };
+            for (int i = 0; i < count + edges.length; i++) {
+                int v = i < count ? values[i] : edges[i - count];
+                mismatches += sumOfDigits(v) != loopSumOfDigits(v) ? 1 : 0;
+                mismatches += sumOfSquares(v) != loopSumOfSquares(v) ? 1 : 0;
+                mismatches += reverseNumber(v) != loopReverseNumber(v) ? 1 : 0;
+                if (i < count) {
+                    mismatches += gcd(a[i], b[i]) != euclid((int) a[i], (int) b[i]) ? 1 : 0;
+                    mismatches += gcd(wideA[i], wideB[i]) != euclid(wideA[i], wideB[i]) ? 1 : 0;
+                    mismatches += signedMismatches(signedA[i], signedB[i]);
+                } else {
+                    for (int w : edges) {
+                        mismatches += signedMismatches(v, w);
+                    }
+                }
+            }
+            System.out.println("Mismatches against the original loops: " + mismatches);
+            System.out.println("gcd(2^62, 3 * 2^40) = " + gcd(1L << 62, 3L << 40) + ", lcm(6000000000, 4000000000) = "
+                    + lcm(6_000_000_000L, 4_000_000_000L));
+
+            System.out.println("| Kernel        | Inputs   | Loop (ns/value) | Kernel (ns/value) | Speedup |");
+            System.out.println("|---------------|----------|-----------------|-------------------|---------|");
+            for (int[] input : new int[][] { values, small }) {
+                String label = input == values ? "any int" : "< 100000";
+                double loop = Double.MAX_VALUE;
+                double kernel = Double.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        results[i] = loopSumOfDigits(input[i]);
+                    }
+                    loop = Math.min(loop, (double) (System.nanoTime() - start) / count);
+                    start = System.nanoTime();
+                    sumOfDigits(input, results);
+                    kernel = Math.min(kernel, (double) (System.nanoTime() - start) / count);
+                }
+                print("sumofdigits", label, loop, kernel);
+                loop = Double.MAX_VALUE;
+                kernel = Double.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        results[i] = loopSumOfSquares(input[i]);
+                    }
+                    loop = Math.min(loop, (double) (System.nanoTime() - start) / count);
+                    start = System.nanoTime();
+                    sumOfSquares(input, results);
+                    kernel = Math.min(kernel, (double) (System.nanoTime() - start) / count);
+                }
+                print("sumofsquares", label, loop, kernel);
+                loop = Double.MAX_VALUE;
+                kernel = Double.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        results[i] = loopReverseNumber(input[i]);
+                    }
+                    loop = Math.min(loop, (double) (System.nanoTime() - start) / count);
+                    start = System.nanoTime();
+                    reverseNumber(input, results);
+                    kernel = Math.min(kernel, (double) (System.nanoTime() - start) / count);
+                }
+                print("reversenumber", label, loop, kernel);
+            }
+            double loop = Double.MAX_VALUE;
+            double kernel = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    longResults[i] = euclid((int) a[i], (int) b[i]);
+                }
+                loop = Math.min(loop, (double) (System.nanoTime() - start) / count);
+                start = System.nanoTime();
+                gcd(a, b, longResults);
+                kernel = Math.min(kernel, (double) (System.nanoTime() - start) / count);
+            }
+            print("gcd", "< 2^31", loop, kernel);
+            loop = Double.MAX_VALUE;
+            kernel = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    longResults[i] = euclid(wideA[i], wideB[i]);
+                }
+                loop = Math.min(loop, (double) (System.nanoTime() - start) / count);
+                start = System.nanoTime();
+                gcd(wideA, wideB, longResults);
+                kernel = Math.min(kernel, (double) (System.nanoTime() - start) / count);
+            }
+            print("gcd", "< 2^62", loop, kernel);
+        }
+
+        private static void print(String kernel, String inputs, double loop, double table) {
+            System.out.println(String.format("| %-13s | %-8s | %-15.2f | %-17.2f | %-7.2f |", kernel, inputs, loop, table,
+                    loop / table));
+        }
+
+        // The implementations FunctionEvaluator used before these kernels
+
+        private static int loopSumOfDigits(int num) {
+            int sum = 0;
+            while (num != 0) {
+                sum += num % 10;
+                num /= 10;
+            }
+            return sum;
+        }
+
+        private static int loopSumOfSquares(int num) {
+            int sum = 0;
+            while (num != 0) {
+                int digit = num % 10;
+                sum += digit * digit;
+                num /= 10;
+            }
+            return sum;
+        }
+
+        private static int loopReverseNumber(int num) {
+            boolean isNegative = num < 0;
+            num = Math.abs(num);
+            int reversed = 0;
+            while (num != 0) {
+                reversed = reversed * 10 + num % 10;
+                num /= 10;
+            }
+            return isNegative ? -reversed : reversed;
+        }
+
+        private static int euclid(int a, int b) {
+            if (b == 0)
+                return a;
+            return euclid(b, a % b);
+        }
+
+        // gcd against the original recursion and lcm against a * b / gcd, which the
+        // original computed in int; products of two ints fit in a long
+        private static int signedMismatches(int a, int b) {
+            int mismatches = gcd(a, b) != euclid(a, b) ? 1 : 0;
+            if (a != 0 || b != 0) {
+                mismatches += lcm(a, b) != (long) a * b / euclid((long) a, b) ? 1 : 0;
+            }
+            return mismatches;
+        }
+
+        // The same recursion on long, as a plain widening of the original would be
+        private static long euclid(long a, long b) {
+            if (b == 0)
+                return a;
+            return euclid(b, a % b);
+        }
+    }
+}
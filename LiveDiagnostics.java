@@ -0,0 +1,370 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+
+// Error markers for every line of an editor document, kept current as it is edited, e.g.
+//   new LiveDiagnostics(editorTextArea.getDocument(), markers -> highlight(markers));
+// Each line holds one declaration, such as "int add(3,4);", or one definition, such as
+// "double sq(x) = x * x;". An edit re-lexes only the lines it touched; every other line
+// keeps its Line object and its last verdict. Changed lines are validated on a
+// background thread once typing pauses for DEBOUNCE_MS, together with the lines that
+// call a function whose definition in the document appeared or went away, and the
+// markers are then published on the event dispatch thread. Calls resolve against the
+// definitions in the document and those registered in the UserFunctions passed in;
+// validation never registers any, that is still up to Compile. The document must be
+// edited on the event dispatch thread, as Swing requires.
+final class LiveDiagnostics implements DocumentListener {
+    static final long DEBOUNCE_MS = 200;
+
+    static final class Marker {
+        // 0-based, like JTextArea line numbers
+        final int line;
+        final String message;
+
+        Marker(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + (line + 1) + ": " + message;
+        }
+    }
+
+    // One line of the document. The text is lexed once, here; the verdict is set by the
+    // validator and stays null while the line is valid or not yet validated.
+    private static final class Line {
+        final String text;
+        // Lowercase name of the function the line calls or defines, null if there is none
+        final String name;
+        final boolean definition;
+        // Lowercase names of the functions a definition's body calls; validator thread only
+        Set<String> callees = Collections.emptySet();
+        volatile String error;
+        volatile boolean removed;
+
+        Line(String text) {
+            this.text = text.trim();
+            this.definition = this.text.indexOf('=') >= 0;
+            int open = this.text.indexOf('(');
+            String[] header = open < 0 ? new String[0] : this.text.substring(0, open).trim().split("\\s+");
+            this.name = header.length == 2 ? header[1].toLowerCase() : null;
+        }
+    }
+
+    private final Document document;
+    private final UserFunctions functions;
+    private final Consumer<List<Marker>> publisher;
+    // Mirrors the document line for line; event dispatch thread only
+    private final ArrayList<Line> lines = new ArrayList<>();
+    // Lines added or removed since the last validation, in edit order
+    private final ConcurrentLinkedQueue<Line> changes = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService validator;
+    private ScheduledFuture<?> pending;
+    // Validator thread only: the lines in the document, and how many lines define each name
+    private final Set<Line> live = new HashSet<>();
+    private final Map<String, Integer> defined = new HashMap<>();
+    private final AtomicLong validated = new AtomicLong();
+
+    LiveDiagnostics(Document document, Consumer<List<Marker>> publisher) {
+        this(document, UserFunctions.NONE, publisher);
+    }
+
+    LiveDiagnostics(Document document, UserFunctions functions, Consumer<List<Marker>> publisher) {
+        this.document = document;
+        this.functions = functions;
+        this.publisher = publisher;
+        this.validator = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "live-diagnostics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Element root = document.getDefaultRootElement();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Line line = new Line(text(root.getElement(i)));
+            lines.add(line);
+            changes.add(line);
+        }
+        document.addDocumentListener(this);
+        schedule();
+    }
+
+    // Stops listening; markers already published stay where they are
+    public void close() {
+        document.removeDocumentListener(this);
+        validator.shutdownNow();
+    }
+
+    // Lines validated so far, counting revalidations
+    public long getValidatedCount() {
+        return validated.get();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes leave the text alone
+    }
+
+    // Replaces the lines the edit touched. Without a change to the line structure the
+    // edit stayed within one line; otherwise the root element reports which lines went.
+    private void update(DocumentEvent e) {
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int first;
+        int removed;
+        int added;
+        if (change == null) {
+            first = root.getElementIndex(e.getOffset());
+            removed = added = 1;
+        } else {
+            first = change.getIndex();
+            removed = change.getChildrenRemoved().length;
+            added = change.getChildrenAdded().length;
+        }
+        if (removed == 1 && added == 1) {
+            Line line = new Line(text(root.getElement(first)));
+            // Whitespace at either end does not change the verdict
+            if (!line.text.equals(lines.get(first).text)) {
+                retire(lines.set(first, line));
+                changes.add(line);
+                schedule();
+            }
+            return;
+        }
+        List<Line> damaged = lines.subList(first, first + removed);
+        for (Line line : damaged) {
+            retire(line);
+        }
+        damaged.clear();
+        List<Line> fresh = new ArrayList<>(added);
+        for (int i = 0; i < added; i++) {
+            Line line = new Line(text(root.getElement(first + i)));
+            fresh.add(line);
+            changes.add(line);
+        }
+        lines.addAll(first, fresh);
+        schedule();
+    }
+
+    private void retire(Line line) {
+        line.removed = true;
+        changes.add(line);
+    }
+
+    private String text(Element element) {
+        try {
+            return document.getText(element.getStartOffset(), element.getEndOffset() - element.getStartOffset());
+        } catch (BadLocationException e) {
+            // Elements always lie within the document
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Restarts the quiet period; event dispatch thread only
+    private void schedule() {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = validator.schedule(this::validate, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Takes in every change since the last pass, validates the new lines and the lines
+    // that call a function whose definitions came or went, then publishes
+    private void validate() {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Set<Line> check = new LinkedHashSet<>();
+        Set<String> redefined = new HashSet<>();
+        Line line;
+        while ((line = changes.poll()) != null) {
+            // A line removed before it was ever validated is skipped both times it appears
+            if (line.removed) {
+                if (live.remove(line) && line.definition && line.name != null
+                        && defined.merge(line.name, -1, Integer::sum) == 0) {
+                    defined.remove(line.name);
+                    redefined.add(line.name);
+                }
+            } else if (live.add(line)) {
+                check.add(line);
+                if (line.definition && line.name != null && defined.merge(line.name, 1, Integer::sum) == 1) {
+                    redefined.add(line.name);
+                }
+            }
+        }
+        if (!redefined.isEmpty()) {
+            for (Line other : live) {
+                if (other.definition ? !Collections.disjoint(other.callees, redefined)
+                        : redefined.contains(other.name)) {
+                    check.add(other);
+                }
+            }
+        }
+        for (Line changed : check) {
+            changed.error = check(changed);
+        }
+        validated.addAndGet(check.size());
+        SwingUtilities.invokeLater(this::publish);
+    }
+
+    private String check(Line line) {
+        if (line.text.isEmpty()) {
+            return null;
+        }
+        if (line.definition) {
+            try {
+                UserFunctions.Definition definition = functions.parse(line.text);
+                line.callees = definition.callees;
+                // Functions defined in the document may be called; Compile checks their arity
+                functions.resolve(definition, defined::containsKey);
+                return null;
+            } catch (RuntimeException e) {
+                return e.getMessage();
+            }
+        }
+        String result = CompilerUI.validateFunctionDeclaration(line.text,
+                name -> CompilerUI.predefinedFunctions.containsKey(name) || defined.containsKey(name)
+                        || functions.lookup(name) != null || FunctionProviders.lookup(name) != null);
+        return result.startsWith("Error") ? result : null;
+    }
+
+    // Collects the verdicts in line order; runs on the event dispatch thread, where
+    // lines matches the document
+    private void publish() {
+        List<Marker> markers = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String error = lines.get(i).error;
+            if (error != null) {
+                markers.add(new Marker(i, error));
+            }
+        }
+        publisher.accept(markers);
+    }
+
+    // Per-keystroke cost on a large document: the edit alone, the edit with this
+    // listener attached, and re-validating the whole text as the buttons do; then how
+    // long after a burst of typing the markers arrive and how many lines were validated
+    public static class Benchmark {
+        public static void main(String[] args) throws Exception {
+            int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            int keystrokes = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < lineCount; i++) {
+                if (i % 100 == 0) {
+                    text.append("double f").append(i).append("(a, b) = a * b + ").append(i).append(";\n");
+                } else if (i % 100 == 50) {
+                    text.append("double f").append(i - 50).append("(").append(i).append(", 2);\n");
+                } else {
+                    text.append(i % 2 == 0 ? "int add(" : "double power(").append(i).append(", 3);\n");
+                }
+            }
+
+            AtomicLong published = new AtomicLong();
+            AtomicLong markerCount = new AtomicLong();
+            Document plain = new PlainDocument();
+            Document watched = new PlainDocument();
+            LiveDiagnostics[] diagnostics = new LiveDiagnostics[1];
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    plain.insertString(0, text.toString(), null);
+                    watched.insertString(0, text.toString(), null);
+                } catch (BadLocationException e) {
+                    throw new IllegalStateException(e);
+                }
+                diagnostics[0] = new LiveDiagnostics(watched, markers -> {
+                    markerCount.set(markers.size());
+                    published.set(System.nanoTime());
+                });
+            });
+            Thread.sleep(DEBOUNCE_MS * 10);
+            System.out.println(String.format("%d lines, %d validated on open, %d markers", lineCount,
+                    diagnostics[0].getValidatedCount(), markerCount.get()));
+
+            double bare = type(plain, keystrokes);
+            long before = diagnostics[0].getValidatedCount();
+            double live = type(watched, keystrokes);
+            long lastKeystroke = System.nanoTime();
+            published.set(0);
+            while (published.get() == 0) {
+                Thread.sleep(1);
+            }
+            double latency = (published.get() - lastKeystroke) / 1e6;
+            long revalidated = diagnostics[0].getValidatedCount() - before;
+
+            int rebuilds = 3;
+            long start = System.nanoTime();
+            for (int r = 0; r < rebuilds; r++) {
+                for (String declaration : watched.getText(0, watched.getLength()).split("\n")) {
+                    CompilerUI.compileCode(declaration);
+                }
+            }
+            double full = (System.nanoTime() - start) / 1e3 / rebuilds;
+
+            System.out.println();
+            System.out.println("| Per keystroke                 | us       |");
+            System.out.println("|-------------------------------|----------|");
+            System.out.println(String.format("| %-29s | %-8.2f |", "Edit only", bare));
+            System.out.println(String.format("| %-29s | %-8.2f |", "Edit with LiveDiagnostics", live));
+            System.out.println(String.format("| %-29s | %-8.0f |", "Re-validate whole document", full));
+            System.out.println();
+            System.out.println(String.format("After %d keystrokes: %d lines revalidated, %d markers, published %.1f ms "
+                    + "after the last one (debounce %d ms)", keystrokes, revalidated, markerCount.get(), latency,
+                    DEBOUNCE_MS));
+            diagnostics[0].close();
+        }
+
+        // Types at random lines on the event dispatch thread: every fourth keystroke is
+        // Enter, the others a character that breaks the declaration until the next
+        // backspace on the same spot. Returns microseconds per keystroke.
+        private static double type(Document document, int keystrokes) throws Exception {
+            Random random = new Random(46);
+            long[] nanos = new long[1];
+            SwingUtilities.invokeAndWait(() -> {
+                Element root = document.getDefaultRootElement();
+                try {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < keystrokes; i += 2) {
+                        int offset = root.getElement(random.nextInt(root.getElementCount())).getStartOffset();
+                        document.insertString(offset, i % 4 == 0 ? "\n" : "x", null);
+                        document.remove(offset, 1);
+                    }
+                    nanos[0] = System.nanoTime() - start;
+                } catch (BadLocationException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            return nanos[0] / 1e3 / keystrokes;
+        }
+    }
+}
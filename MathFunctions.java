@@ -0,0 +1,43 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// Functions shipped as a FunctionProvider rather than as predefined functions, and an
+// example of writing one; listed in META-INF/services/FunctionProvider
+public final class MathFunctions implements FunctionProvider {
+    public List<ProvidedFunction> functions() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType unary = MethodType.methodType(double.class, double.class);
+        MethodType binary = MethodType.methodType(double.class, double.class, double.class);
+        MethodType ternary = MethodType.methodType(double.class, double.class, double.class, double.class);
+        try {
+            return List.of(
+                    new ProvidedFunction("double", "hypot", new String[] { "a", "b" },
+                            lookup.findStatic(Math.class, "hypot", binary)),
+                    new ProvidedFunction("double", "clamp", new String[] { "x", "low", "high" },
+                            lookup.findStatic(MathFunctions.class, "clamp", ternary)),
+                    new ProvidedFunction("double", "lerp", new String[] { "a", "b", "t" }, true, "$1 + ($2 - $1) * $3",
+                            lookup.findStatic(MathFunctions.class, "lerp", ternary)),
+                    // A new value on every call, so it is never evaluated ahead of time
+                    new ProvidedFunction("double", "random", new String[] { "scale" }, false, null,
+                            lookup.findStatic(MathFunctions.class, "random", unary)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static double clamp(double x, double low, double high) {
+        if (low > high) {
+            throw new IllegalArgumentException("Error: clamp needs low <= high.");
+        }
+        return Math.max(low, Math.min(high, x));
+    }
+
+    public static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    public static double random(double scale) {
+        return Math.random() * scale;
+    }
+}
@@ -0,0 +1,378 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+// Parses numeric literals straight from a CharSequence slice, without substring allocation.
+// Decimal doubles use Clinger's exact fast path when possible and the Eisel-Lemire
+// algorithm otherwise; the rare inputs neither can decide (and special forms such as
+// "NaN", "Infinity" or hex literals) fall back to Double.parseDouble, so results are
+// always identical to it.
+final class NumberParser {
+    private static final int MIN_EXP10 = -342;
+    private static final int MAX_EXP10 = 308;
+    // 128-bit truncated mantissas of 5^q (equivalently 10^q), high and low halves
+    private static final long[] POW5_HI = new long[MAX_EXP10 - MIN_EXP10 + 1];
+    private static final long[] POW5_LO = new long[MAX_EXP10 - MIN_EXP10 + 1];
+    private static final double[] EXACT_POW10 = new double[23];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int q = MIN_EXP10; q <= MAX_EXP10; q++) {
+            BigInteger power5 = BigInteger.valueOf(5).pow(Math.abs(q));
+            BigInteger mantissa;
+            if (q < 0) {
+                mantissa = BigInteger.ONE.shiftLeft(power5.bitLength() + 127).divide(power5);
+            } else if (power5.bitLength() <= 128) {
+                mantissa = power5.shiftLeft(128 - power5.bitLength());
+            } else {
+                mantissa = power5.shiftRight(power5.bitLength() - 128);
+            }
+            POW5_HI[q - MIN_EXP10] = mantissa.shiftRight(64).longValue();
+            POW5_LO[q - MIN_EXP10] = mantissa.and(mask).longValue();
+        }
+        EXACT_POW10[0] = 1;
+        for (int i = 1; i < EXACT_POW10.length; i++) {
+            EXACT_POW10[i] = EXACT_POW10[i - 1] * 10;
+        }
+    }
+
+    private NumberParser() {
+    }
+
+    public static double parseDouble(CharSequence text) {
+        return parseDouble(text, 0, text.length());
+    }
+
+    // Same result and same NumberFormatException cases as Double.parseDouble on the slice
+    public static double parseDouble(CharSequence text, int from, int to) {
+        int i = from;
+        while (i < to && text.charAt(i) <= ' ') {
+            i++;
+        }
+        int end = to;
+        while (end > i && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int droppedDigits = 0;
+        int fractionDigits = 0;
+        boolean anyDigits = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigits = true;
+                if (significantDigits < 19) {
+                    if (mantissa != 0 || c != '0') {
+                        significantDigits++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (seenPoint) {
+                        fractionDigits++;
+                    }
+                } else {
+                    if (c != '0') {
+                        droppedDigits++;
+                    }
+                    if (!seenPoint) {
+                        fractionDigits--;
+                    }
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigits) {
+            return fallback(text, from, to);
+        }
+
+        int exponent = 0;
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                negativeExponent = text.charAt(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                return fallback(text, from, to);
+            }
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return fallback(text, from, to);
+                }
+                if (exponent < 100_000) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (i != end) {
+            return fallback(text, from, to);
+        }
+
+        int exp10 = exponent - fractionDigits;
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (droppedDigits == 0 && mantissa >= 0 && mantissa < (1L << 53) && exp10 >= -22 && exp10 <= 22) {
+            double value = exp10 >= 0 ? mantissa * EXACT_POW10[exp10] : mantissa / EXACT_POW10[-exp10];
+            return negative ? -value : value;
+        }
+        double value = eiselLemire(mantissa, exp10, negative);
+        if (droppedDigits != 0 && !Double.isNaN(value)) {
+            // The true mantissa lies between mantissa and mantissa + 1; both must round the same way
+            double upper = eiselLemire(mantissa + 1, exp10, negative);
+            if (Double.doubleToRawLongBits(upper) != Double.doubleToRawLongBits(value)) {
+                value = Double.NaN;
+            }
+        }
+        return Double.isNaN(value) ? fallback(text, from, to) : value;
+    }
+
+    // Returns NaN when the 128-bit approximation cannot decide the rounding
+    private static double eiselLemire(long mantissa, int exp10, boolean negative) {
+        if (exp10 < MIN_EXP10) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (exp10 > MAX_EXP10) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        long man = mantissa << leadingZeros;
+        long exp2 = ((217706L * exp10) >> 16) + 64 + 1023 - leadingZeros;
+
+        long hi5 = POW5_HI[exp10 - MIN_EXP10];
+        long lo5 = POW5_LO[exp10 - MIN_EXP10];
+        long xHi = unsignedMultiplyHigh(man, hi5);
+        long xLo = man * hi5;
+        if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+            long yHi = unsignedMultiplyHigh(man, lo5);
+            long yLo = man * lo5;
+            long mergedHi = xHi;
+            long mergedLo = xLo + yHi;
+            if (Long.compareUnsigned(mergedLo, xLo) < 0) {
+                mergedHi++;
+            }
+            if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + man, man) < 0) {
+                return Double.NaN;
+            }
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+
+        long msb = xHi >>> 63;
+        long result = xHi >>> (msb + 9);
+        exp2 -= 1 ^ msb;
+        if (xLo == 0 && (xHi & 0x1FF) == 0 && (result & 3) == 1) {
+            return Double.NaN;
+        }
+        result += result & 1;
+        result >>>= 1;
+        if ((result >>> 53) > 0) {
+            result >>>= 1;
+            exp2++;
+        }
+        if (exp2 <= 0 || exp2 >= 0x7FF) {
+            return Double.NaN;
+        }
+        long bits = exp2 << 52 | (result & 0x000FFFFFFFFFFFFFL);
+        if (negative) {
+            bits |= 0x8000000000000000L;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static double fallback(CharSequence text, int from, int to) {
+        return Double.parseDouble(text.subSequence(from, to).toString());
+    }
+
+    // Parses the slice like Integer.parseInt after trimming whitespace;
+    // returns INVALID_INT instead of throwing so callers can try other types
+    static final long INVALID_INT = Long.MIN_VALUE;
+
+    public static long tryParseInt(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return INVALID_INT;
+        }
+        boolean negative = text.charAt(from) == '-';
+        if (negative || text.charAt(from) == '+') {
+            from++;
+            if (from == to) {
+                return INVALID_INT;
+            }
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID_INT;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                return INVALID_INT;
+            }
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? INVALID_INT : value;
+    }
+
+    public static int parseInt(CharSequence text, int from, int to) {
+        long value = tryParseInt(text, from, to);
+        if (value == INVALID_INT) {
+            throw new NumberFormatException("For input string: \"" + text.subSequence(from, to) + "\"");
+        }
+        return (int) value;
+    }
+
+    // Compares every result bit-for-bit with Double.parseDouble
+    public static class Verify {
+        public static void main(String[] args) {
+            int samples = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+            Random random = new Random(2024);
+            int mismatches = 0;
+            String[] edgeCases = { "0", "-0", "0.0", "1", "-1", ".5", "5.", "1e10", "1E-10", "1e+5", "007",
+                    "9007199254740993", "9007199254740992.5", "2.2250738585072011e-308", "2.2250738585072014e-308",
+                    "4.9e-324", "2.4703282292062327e-324", "1.7976931348623157e308", "1.7976931348623159e308",
+                    "123456789012345678901234567890", "0.1000000000000000055511151231257827",
+                    "3.14159265358979323846264338327950288", "1e-400", "1e400", "  42.5 ", "+3", "NaN",
+                    "-Infinity", "0x1p3", "1d", "2.5f" };
+            for (String edgeCase : edgeCases) {
+                mismatches += check(edgeCase);
+            }
+            for (String bad : new String[] { "", "-", ".", "e5", "1e", "1e+", "1.2.3", "abc", "1 2" }) {
+                boolean threw = false;
+                try {
+                    parseDouble(bad);
+                } catch (NumberFormatException e) {
+                    threw = true;
+                }
+                if (!threw) {
+                    System.out.println("Accepted invalid input: '" + bad + "'");
+                    mismatches++;
+                }
+            }
+            for (int n = 0; n < samples; n++) {
+                String text;
+                switch (n % 3) {
+                    case 0:
+                        text = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                        break;
+                    case 1:
+                        text = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+                        break;
+                    default:
+                        StringBuilder digits = new StringBuilder();
+                        int length = 1 + random.nextInt(25);
+                        for (int d = 0; d < length; d++) {
+                            digits.append((char) ('0' + random.nextInt(10)));
+                        }
+                        if (random.nextBoolean()) {
+                            digits.insert(random.nextInt(length + 1), '.');
+                        }
+                        text = digits.append('e').append(random.nextInt(700) - 350).toString();
+                        break;
+                }
+                mismatches += check(text);
+            }
+            int intMismatches = 0;
+            for (String text : new String[] { "0", "-5", "+7", "2147483647", "-2147483648", "2147483648", "1.5",
+                    " 12 ", "", "-", "99999999999" }) {
+                Integer expected;
+                try {
+                    expected = Integer.parseInt(text.trim());
+                } catch (NumberFormatException e) {
+                    expected = null;
+                }
+                long actual = tryParseInt(text, 0, text.length());
+                if (expected == null ? actual != INVALID_INT : actual != expected) {
+                    System.out.println("Int mismatch for '" + text + "': " + actual);
+                    intMismatches++;
+                }
+            }
+            System.out.println("Double samples: " + (samples + edgeCases.length) + ", mismatches: " + mismatches);
+            System.out.println("Int mismatches: " + intMismatches);
+        }
+
+        private static int check(String text) {
+            double expected;
+            try {
+                expected = Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+            double actual = parseDouble(text);
+            if (Double.doubleToRawLongBits(actual) != Double.doubleToRawLongBits(expected)) {
+                System.out.println("Mismatch for '" + text + "': " + actual + " vs " + expected);
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    // Throughput against Double.parseDouble, on whole strings and on slices of one buffer
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            Random random = new Random(9);
+            String[] values = new String[count];
+            StringBuilder buffer = new StringBuilder();
+            int[] starts = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                values[i] = i % 2 == 0 ? Double.toString(random.nextDouble() * 1000)
+                        : Integer.toString(random.nextInt(100_000));
+                starts[i] = buffer.length();
+                buffer.append(values[i]);
+            }
+            starts[count] = buffer.length();
+
+            System.out.println("| Parser                    | Mvalues/s |");
+            System.out.println("|---------------------------|-----------|");
+            for (int round = 0; round < 3; round++) {
+                double sink = 0;
+                long start = System.nanoTime();
+                for (String value : values) {
+                    sink += Double.parseDouble(value);
+                }
+                double jdk = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                for (String value : values) {
+                    sink += parseDouble(value);
+                }
+                double fast = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    sink += parseDouble(buffer, starts[i], starts[i + 1]);
+                }
+                double slices = (System.nanoTime() - start) / 1e9;
+                if (round == 2) {
+                    System.out.println(String.format("| Double.parseDouble        | %-9.1f |", count / jdk / 1e6));
+                    System.out.println(String.format("| NumberParser (String)     | %-9.1f |", count / fast / 1e6));
+                    System.out.println(String.format("| NumberParser (slice)      | %-9.1f |", count / slices / 1e6)
+                            + (sink == 42 ? " " : ""));
+                }
+            }
+        }
+    }
+}
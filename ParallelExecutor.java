@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+// Runs one predefined function over many argument rows on a ForkJoinPool.
+// Every worker thread keeps its own FunctionEvaluator and results are written
+// back by row index, so the output order always matches the input order.
+class ParallelExecutor {
+    static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final ThreadLocal<FunctionEvaluator> evaluators = ThreadLocal.withInitial(FunctionEvaluator::new);
+    private volatile boolean fastMath;
+    private volatile int precision = ResultWriter.SHORTEST;
+    // Applied to every row on its own; null for no limit
+    private volatile EvaluationBudget budget;
+
+    public ParallelExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelExecutor(int parallelism, int chunkSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Error: Parallelism must be at least 1.");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Error: Chunk size must be at least 1.");
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunkSize = chunkSize;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setFastMath(boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
+    // ResultWriter.SHORTEST (the default) or a fixed number of digits for double results
+    public void setPrecision(int precision) {
+        if (precision < ResultWriter.SHORTEST) {
+            throw new IllegalArgumentException("Error: Precision must be SHORTEST or at least 0.");
+        }
+        this.precision = precision;
+    }
+
+    // Rows that exceed the budget fail with its error text instead of holding up their chunk
+    public void setBudget(EvaluationBudget budget) {
+        this.budget = budget;
+    }
+
+    // Evaluate functionName for every row; failed rows hold their error text
+    public String[] execute(String functionName, String[][] rows) {
+        String[] results = new String[rows.length];
+        if (rows.length > 0) {
+            pool.invoke(new RowTask(functionName.toLowerCase(), rows, results, 0, rows.length));
+        }
+        return results;
+    }
+
+    // Writes one line per row to out, in input order, formatting results straight into
+    // per-chunk byte buffers. Rows are processed a window at a time and the buffers are
+    // reused between windows, so output size does not grow memory use.
+    public void execute(String functionName, String[][] rows, OutputStream out) throws IOException {
+        String name = functionName.toLowerCase();
+        int window = chunkSize * pool.getParallelism() * 4;
+        ResultWriter[] writers = new ResultWriter[(Math.min(window, rows.length) + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new ResultWriter(chunkSize * 16);
+        }
+        for (int start = 0; start < rows.length; start += window) {
+            int end = Math.min(rows.length, start + window);
+            pool.invoke(new WriteTask(name, rows, writers, start, start, end));
+            for (int chunk = 0; chunk * chunkSize < end - start; chunk++) {
+                writers[chunk].writeTo(out);
+            }
+        }
+        out.flush();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Same messages the Implement button shows for a failed call
+    static String errorText(Exception e) {
+        if (e instanceof NumberFormatException) {
+            return "Error: Invalid number format.";
+        }
+        String message = e.getMessage();
+        if (message == null) {
+            return "Error: " + e.getClass().getSimpleName() + ".";
+        }
+        return message.startsWith("Error:") ? message : "Error: " + message;
+    }
+
+    private class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String functionName;
+        private final String[][] rows;
+        private final String[] results;
+        private final int from, to;
+
+        RowTask(String functionName, String[][] rows, String[] results, int from, int to) {
+            this.functionName = functionName;
+            this.rows = rows;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                FunctionEvaluator evaluator = evaluators.get();
+                evaluator.setFastMath(fastMath);
+                EvaluationBudget limits = budget;
+                ArgumentVector args = new ArgumentVector();
+                for (int i = from; i < to; i++) {
+                    try {
+                        args.reset(rows[i]);
+                        results[i] = evaluator.executeFunction(functionName, args,
+                                limits == null ? null : limits.start());
+                    } catch (Exception e) {
+                        results[i] = errorText(e);
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowTask(functionName, rows, results, from, mid),
+                    new RowTask(functionName, rows, results, mid, to));
+        }
+    }
+
+    // Like RowTask, but each chunk appends its lines to its own writer
+    private class WriteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String functionName;
+        private final String[][] rows;
+        private final ResultWriter[] writers;
+        private final int base, from, to;
+
+        WriteTask(String functionName, String[][] rows, ResultWriter[] writers, int base, int from, int to) {
+            this.functionName = functionName;
+            this.rows = rows;
+            this.writers = writers;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                FunctionEvaluator evaluator = evaluators.get();
+                evaluator.setFastMath(fastMath);
+                ResultWriter writer = writers[(from - base) / chunkSize];
+                writer.clear();
+                writer.setPrecision(precision);
+                EvaluationBudget limits = budget;
+                ArgumentVector args = new ArgumentVector();
+                for (int i = from; i < to; i++) {
+                    int mark = writer.length();
+                    try {
+                        args.reset(rows[i]);
+                        evaluator.executeFunction(functionName, args, writer, limits == null ? null : limits.start());
+                    } catch (Exception e) {
+                        writer.setLength(mark);
+                        writer.append(errorText(e));
+                    }
+                    writer.newLine();
+                }
+                return;
+            }
+            // Split on chunk boundaries so every leaf owns exactly one writer
+            int chunks = (to - from + chunkSize - 1) / chunkSize;
+            int mid = from + chunks / 2 * chunkSize;
+            invokeAll(new WriteTask(functionName, rows, writers, base, from, mid),
+                    new WriteTask(functionName, rows, writers, base, mid, to));
+        }
+    }
+
+    // Prints speedup from 1 to N cores for a cheap and two expensive functions
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+            int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHUNK_SIZE;
+            int cores = Runtime.getRuntime().availableProcessors();
+
+            String[][] addRows = new String[rowCount][];
+            String[][] primeRows = new String[rowCount][];
+            String[][] rootRows = new String[rowCount][];
+            for (int i = 0; i < rowCount; i++) {
+                addRows[i] = new String[] { String.valueOf(i), String.valueOf(rowCount - i) };
+                primeRows[i] = new String[] { String.valueOf(1_000_000_007 - 2 * i) };
+                rootRows[i] = new String[] { String.valueOf(i + 0.5), String.valueOf(2 + i % 7) };
+            }
+
+            System.out.println("| Function | Cores | Time (ms) | Speedup |");
+            System.out.println("|----------|-------|-----------|---------|");
+            run("add", addRows, cores, chunkSize);
+            run("isprime", primeRows, cores, chunkSize);
+            run("nthroot", rootRows, cores, chunkSize);
+        }
+
+        private static void run(String functionName, String[][] rows, int cores, int chunkSize) {
+            double baseline = 0;
+            for (int parallelism = 1; parallelism <= cores; parallelism++) {
+                ParallelExecutor executor = new ParallelExecutor(parallelism, chunkSize);
+                executor.execute(functionName, rows); // warm-up
+                long start = System.nanoTime();
+                executor.execute(functionName, rows);
+                double millis = (System.nanoTime() - start) / 1e6;
+                executor.shutdown();
+                if (parallelism == 1) {
+                    baseline = millis;
+                }
+                System.out.println(String.format("| %-8s | %-5d | %-9.1f | %-7.2f |",
+                        functionName, parallelism, millis, baseline / millis));
+            }
+        }
+    }
+}
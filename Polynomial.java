@@ -0,0 +1,410 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Random;
+
+// A univariate polynomial in coefficient form, c[0] + c[1] x + ... + c[n] x^n.
+// CompiledExpression builds these from add/multiply/power chains (see its
+// fusePolynomials option) and evaluates them with Horner's scheme on Math.fma, or
+// with Estrin's scheme from ESTRIN_MIN_DEGREE up, whose independent sub-products
+// shorten the dependency chain for high degrees.
+// Alongside the coefficients each polynomial keeps bounds: the same operations done on
+// absolute values, so that terms which cancel, as in x*x - x*x, still count. For
+// |x| = t, the bounds at t are at least the magnitude of every value the operations
+// would have computed one at a time, and limit() is the largest |x| at which none of
+// those values can overflow. Within the limit the coefficient form gives the same
+// result up to the rounding of those values; beyond it, or for x NaN or infinite, it
+// may not.
+final class Polynomial {
+    // Larger expansions are left as ordinary expression trees
+    static final int MAX_DEGREE = 64;
+    static final int ESTRIN_MIN_DEGREE = 12;
+    // Bounds stay this far below overflow, covering rounding in either form
+    private static final double SAFE = Double.MAX_VALUE / 8;
+
+    private final double[] coefficients;
+    // The coefficients zero-padded to a multiple of eight, for estrin
+    private final double[] blocks;
+    // Non-negative, and may have a higher degree than the coefficients
+    private final double[] bounds;
+    private final double limit;
+
+    private Polynomial(double[] coefficients, double[] bounds, double limit) {
+        int n = coefficients.length;
+        while (n > 1 && coefficients[n - 1] == 0) {
+            n--;
+        }
+        this.coefficients = n == coefficients.length ? coefficients : Arrays.copyOf(coefficients, n);
+        this.blocks = Arrays.copyOf(coefficients, (n + 7) / 8 * 8);
+        int m = bounds.length;
+        while (m > 1 && bounds[m - 1] == 0) {
+            m--;
+        }
+        this.bounds = m == bounds.length ? bounds : Arrays.copyOf(bounds, m);
+        this.limit = Math.min(limit, reach(this.bounds));
+    }
+
+    private Polynomial(double[] coefficients) {
+        this(coefficients, absolute(coefficients), Double.MAX_VALUE);
+    }
+
+    static Polynomial constant(double value) {
+        return new Polynomial(new double[] { value });
+    }
+
+    // The polynomial x
+    static Polynomial identity() {
+        return new Polynomial(new double[] { 0, 1 });
+    }
+
+    static Polynomial of(double... coefficients) {
+        return new Polynomial(coefficients.clone());
+    }
+
+    private static double[] absolute(double[] coefficients) {
+        double[] bounds = new double[coefficients.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = Math.abs(coefficients[i]);
+        }
+        return bounds;
+    }
+
+    // The largest t, at most Double.MAX_VALUE, at which the bounds stay within SAFE; -1
+    // when not even t = 0 does. Non-negative doubles are ordered like their bits, and
+    // the bounds only grow with t, so this is a binary search over the bits.
+    private static double reach(double[] bounds) {
+        if (!(magnitude(bounds, 0) <= SAFE)) {
+            return -1;
+        }
+        if (bounds.length == 1) {
+            return Double.MAX_VALUE;
+        }
+        long lo = 0;
+        long hi = Double.doubleToLongBits(Double.MAX_VALUE);
+        while (lo < hi) {
+            long mid = (lo + hi + 1) >>> 1;
+            if (magnitude(bounds, Double.longBitsToDouble(mid)) <= SAFE) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return Double.longBitsToDouble(lo);
+    }
+
+    private static double magnitude(double[] bounds, double t) {
+        double result = bounds[bounds.length - 1];
+        for (int i = bounds.length - 2; i >= 0; i--) {
+            result = Math.fma(result, t, bounds[i]);
+        }
+        return result;
+    }
+
+    int degree() {
+        return coefficients.length - 1;
+    }
+
+    double coefficient(int power) {
+        return power < coefficients.length ? coefficients[power] : 0;
+    }
+
+    boolean isConstant() {
+        return coefficients.length == 1;
+    }
+
+    // The largest |x| at which evaluate matches the operations done one at a time up to
+    // rounding; -1 when there is none
+    double limit() {
+        return limit;
+    }
+
+    boolean isFinite() {
+        for (double c : coefficients) {
+            if (!Double.isFinite(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Polynomial add(Polynomial other) {
+        double[] sum = new double[Math.max(coefficients.length, other.coefficients.length)];
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] = coefficient(i) + other.coefficient(i);
+        }
+        return new Polynomial(sum, addBounds(other), Math.min(limit, other.limit));
+    }
+
+    Polynomial subtract(Polynomial other) {
+        double[] difference = new double[Math.max(coefficients.length, other.coefficients.length)];
+        for (int i = 0; i < difference.length; i++) {
+            difference[i] = coefficient(i) - other.coefficient(i);
+        }
+        // Terms that cancel here still count towards the bounds
+        return new Polynomial(difference, addBounds(other), Math.min(limit, other.limit));
+    }
+
+    private double[] addBounds(Polynomial other) {
+        double[] sum = new double[Math.max(bounds.length, other.bounds.length)];
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] = (i < bounds.length ? bounds[i] : 0) + (i < other.bounds.length ? other.bounds[i] : 0);
+        }
+        return sum;
+    }
+
+    // Returns null when the product would exceed MAX_DEGREE, counting cancelled terms
+    Polynomial multiply(Polynomial other) {
+        if (bounds.length + other.bounds.length - 2 > MAX_DEGREE) {
+            return null;
+        }
+        return new Polynomial(product(coefficients, other.coefficients), product(bounds, other.bounds),
+                Math.min(limit, other.limit));
+    }
+
+    private static double[] product(double[] a, double[] b) {
+        double[] product = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                product[i + j] = Math.fma(a[i], b[j], product[i + j]);
+            }
+        }
+        return product;
+    }
+
+    Polynomial divide(double divisor) {
+        double[] quotient = new double[coefficients.length];
+        for (int i = 0; i < quotient.length; i++) {
+            quotient[i] = coefficients[i] / divisor;
+        }
+        double[] bounds = new double[this.bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = this.bounds[i] / Math.abs(divisor);
+        }
+        return new Polynomial(quotient, bounds, limit);
+    }
+
+    // Returns null when the power would exceed MAX_DEGREE, counting cancelled terms
+    Polynomial power(int exponent) {
+        if (exponent < 0 || (long) (bounds.length - 1) * exponent > MAX_DEGREE) {
+            return null;
+        }
+        Polynomial result = constant(1);
+        Polynomial base = this;
+        for (int e = exponent; e > 0; e >>= 1) {
+            if ((e & 1) != 0) {
+                result = result.multiply(base);
+            }
+            if (e > 1) {
+                base = base.multiply(base);
+            }
+        }
+        return result;
+    }
+
+    double evaluate(double x) {
+        return degree() >= ESTRIN_MIN_DEGREE ? estrin(x) : horner(x);
+    }
+
+    double horner(double x) {
+        double[] c = coefficients;
+        double result = c[c.length - 1];
+        for (int i = c.length - 2; i >= 0; i--) {
+            result = Math.fma(result, x, c[i]);
+        }
+        return result;
+    }
+
+    // Estrin's scheme on blocks of eight coefficients: each block pairs terms as
+    // (c0 + c1 x) + (c2 + c3 x) x^2, then with x^4, and the blocks are combined by
+    // Horner in x^8. Every step inside a block is independent of the previous block.
+    double estrin(double x) {
+        double[] c = blocks;
+        double x2 = x * x;
+        double x4 = x2 * x2;
+        double x8 = x4 * x4;
+        double result = block(c, c.length - 8, x, x2, x4);
+        for (int i = c.length - 16; i >= 0; i -= 8) {
+            result = Math.fma(result, x8, block(c, i, x, x2, x4));
+        }
+        return result;
+    }
+
+    private static double block(double[] c, int i, double x, double x2, double x4) {
+        double a0 = Math.fma(c[i + 1], x, c[i]);
+        double a1 = Math.fma(c[i + 3], x, c[i + 2]);
+        double a2 = Math.fma(c[i + 5], x, c[i + 4]);
+        double a3 = Math.fma(c[i + 7], x, c[i + 6]);
+        return Math.fma(Math.fma(a3, x2, a2), x4, Math.fma(a1, x2, a0));
+    }
+
+    // Values evaluate can return for x in the given range, following the same rounded
+    // fma and multiply steps so that RangeAnalysis stays sound
+    RangeAnalysis.Interval range(RangeAnalysis.Interval x) {
+        double[] c = coefficients;
+        if (degree() < ESTRIN_MIN_DEGREE) {
+            RangeAnalysis.Interval result = RangeAnalysis.Interval.point(c[c.length - 1]);
+            for (int i = c.length - 2; i >= 0; i--) {
+                result = RangeAnalysis.fma(result, x, RangeAnalysis.Interval.point(c[i]));
+            }
+            return result;
+        }
+        RangeAnalysis.Interval x2 = RangeAnalysis.multiply(x, x);
+        RangeAnalysis.Interval x4 = RangeAnalysis.multiply(x2, x2);
+        RangeAnalysis.Interval x8 = RangeAnalysis.multiply(x4, x4);
+        RangeAnalysis.Interval result = blockRange(blocks.length - 8, x, x2, x4);
+        for (int i = blocks.length - 16; i >= 0; i -= 8) {
+            result = RangeAnalysis.fma(result, x8, blockRange(i, x, x2, x4));
+        }
+        return result;
+    }
+
+    private RangeAnalysis.Interval blockRange(int i, RangeAnalysis.Interval x, RangeAnalysis.Interval x2,
+            RangeAnalysis.Interval x4) {
+        RangeAnalysis.Interval[] a = new RangeAnalysis.Interval[4];
+        for (int j = 0; j < 4; j++) {
+            a[j] = RangeAnalysis.fma(RangeAnalysis.Interval.point(blocks[i + 2 * j + 1]), x,
+                    RangeAnalysis.Interval.point(blocks[i + 2 * j]));
+        }
+        return RangeAnalysis.fma(RangeAnalysis.fma(a[3], x2, a[2]), x4, RangeAnalysis.fma(a[1], x2, a[0]));
+    }
+
+    @Override
+    public String toString() {
+        return toString("x");
+    }
+
+    String toString(String variable) {
+        StringBuilder text = new StringBuilder();
+        for (int i = coefficients.length - 1; i >= 0; i--) {
+            double c = coefficients[i];
+            if (c == 0 && coefficients.length > 1) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(c < 0 ? " - " : " + ");
+                c = Math.abs(c);
+            }
+            if (c != 1 || i == 0) {
+                text.append(c == (long) c ? Long.toString((long) c) : Double.toString(c));
+            }
+            if (i > 0) {
+                text.append(c != 1 ? " " : "").append(i == 1 ? variable : variable + "^" + i);
+            }
+        }
+        return text.toString();
+    }
+
+    // Naive Math.pow evaluation, Horner and Estrin against an exact BigDecimal reference,
+    // then the same polynomial compiled as an expression tree and fused
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+            Random random = new Random(37);
+            int[] degrees = { 2, 4, 8, 12, 16, 32, 64 };
+            double[] xs = new double[count];
+            for (int i = 0; i < count; i++) {
+                xs[i] = random.nextDouble() * 2 - 1;
+            }
+
+            System.out.println("| Degree | Naive (ns) | Horner (ns) | Estrin (ns) | Naive ulp | Horner ulp | Estrin ulp |");
+            System.out.println("|--------|------------|-------------|-------------|-----------|------------|------------|");
+            for (int degree : degrees) {
+                double[] c = new double[degree + 1];
+                for (int i = 0; i <= degree; i++) {
+                    // Alternating decaying coefficients, like a truncated series
+                    c[i] = (i % 2 == 0 ? 1 : -1) / (1.0 + i) * (0.5 + random.nextDouble());
+                }
+                Polynomial p = of(c);
+                double naive = Double.MAX_VALUE;
+                double horner = Double.MAX_VALUE;
+                double estrin = Double.MAX_VALUE;
+                double sink = 0;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (double x : xs) {
+                        sink += naive(c, x);
+                    }
+                    naive = Math.min(naive, (double) (System.nanoTime() - start) / count);
+                    start = System.nanoTime();
+                    for (double x : xs) {
+                        sink += p.horner(x);
+                    }
+                    horner = Math.min(horner, (double) (System.nanoTime() - start) / count);
+                    start = System.nanoTime();
+                    for (double x : xs) {
+                        sink += p.estrin(x);
+                    }
+                    estrin = Math.min(estrin, (double) (System.nanoTime() - start) / count);
+                }
+                double[] worst = new double[3];
+                for (int i = 0; i < 2_000; i++) {
+                    double x = xs[i];
+                    BigDecimal exact = exact(c, x);
+                    worst[0] = Math.max(worst[0], ulps(naive(c, x), exact));
+                    worst[1] = Math.max(worst[1], ulps(p.horner(x), exact));
+                    worst[2] = Math.max(worst[2], ulps(p.estrin(x), exact));
+                }
+                System.out.println(String.format("| %-6d | %-10.1f | %-11.1f | %-11.1f | %-9.1f | %-10.1f | %-10.1f |",
+                        degree, naive, horner, estrin, worst[0], worst[1], worst[2]) + (sink == 42 ? " " : ""));
+            }
+
+            String source = "3 * power(x, 5) - 2 * power(x, 4) + areaofsquare(x) * 7 + cubeofdiff(x, 1) + 0.5 * x - 4";
+            CompiledExpression tree = CompiledExpression.compile(source);
+            CompiledExpression fused = CompiledExpression.compile(source, java.util.Collections.emptyMap(), true);
+            double[] slot = new double[1];
+            double treeNanos = Double.MAX_VALUE;
+            double fusedNanos = Double.MAX_VALUE;
+            double worstTree = 0;
+            double worstFused = 0;
+            double sink = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (double x : xs) {
+                    slot[0] = x;
+                    sink += tree.evaluate(slot);
+                }
+                treeNanos = Math.min(treeNanos, (double) (System.nanoTime() - start) / count);
+                start = System.nanoTime();
+                for (double x : xs) {
+                    slot[0] = x;
+                    sink += fused.evaluate(slot);
+                }
+                fusedNanos = Math.min(fusedNanos, (double) (System.nanoTime() - start) / count);
+            }
+            // Away from the root near 0.75, where any evaluation order loses relative accuracy
+            double[] c = { -5, 3.5, 4, 1, -2, 3 };
+            for (int i = 0; i < 2_000; i++) {
+                slot[0] = 2 + xs[i];
+                BigDecimal exact = exact(c, slot[0]);
+                worstTree = Math.max(worstTree, ulps(tree.evaluate(slot), exact));
+                worstFused = Math.max(worstFused, ulps(fused.evaluate(slot), exact));
+            }
+            System.out.println();
+            System.out.println(source);
+            System.out.println(String.format("Expression tree: %.1f ns, %.1f ulp; fused polynomial: %.1f ns, %.1f ulp",
+                    treeNanos, worstTree, fusedNanos, worstFused) + (sink == 42 ? " " : ""));
+        }
+
+        private static double naive(double[] c, double x) {
+            double sum = 0;
+            for (int i = 0; i < c.length; i++) {
+                sum += c[i] * Math.pow(x, i);
+            }
+            return sum;
+        }
+
+        private static BigDecimal exact(double[] c, double x) {
+            BigDecimal bx = new BigDecimal(x);
+            BigDecimal sum = BigDecimal.ZERO;
+            for (int i = c.length - 1; i >= 0; i--) {
+                sum = sum.multiply(bx).add(new BigDecimal(c[i]));
+            }
+            return sum;
+        }
+
+        private static double ulps(double value, BigDecimal exact) {
+            double rounded = exact.round(MathContext.DECIMAL128).doubleValue();
+            return Math.abs(new BigDecimal(value).subtract(exact).doubleValue()) / Math.ulp(rounded);
+        }
+    }
+}
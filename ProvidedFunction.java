@@ -0,0 +1,190 @@
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// One function contributed by a FunctionProvider, e.g.
+//   new ProvidedFunction("double", "hypot", new String[] { "a", "b" }, true, null,
+//           MethodHandles.lookup().findStatic(Math.class, "hypot",
+//                   MethodType.methodType(double.class, double.class, double.class)));
+// The implementation takes one double per parameter and returns a double, with
+// booleans as 1 or 0 like Builtin; errors are unchecked exceptions whose message
+// starts with "Error:". Pure functions may be evaluated ahead of time when their
+// arguments are constant. The TAC template is the right-hand side of the instruction
+// computing a call, with $1, $2 and $3 standing for the arguments, e.g. "$1 * $1";
+// null lowers to a plain call, "t3 = hypot(t1, t2)".
+// The implementation is linked once, here, to an interface of its arity. A direct
+// handle to a method this class can see gets a class spun by LambdaMetafactory that
+// calls the method itself, so the JIT can inline it as it does a Builtin's apply; any
+// other handle, such as one made with insertArguments, is called with invokeExact.
+public final class ProvidedFunction {
+    final String returnType;
+    final String name;
+    final String[] params;
+    final boolean pure;
+    final String tac;
+    final MethodHandle implementation;
+    // Exactly one is set, by the arity
+    final DoubleUnaryOperator unary;
+    final DoubleBinaryOperator binary;
+    final DoubleTernaryOperator ternary;
+    private final boolean direct;
+
+    interface DoubleTernaryOperator {
+        double applyAsDouble(double a, double b, double c);
+    }
+
+    public ProvidedFunction(String returnType, String name, String[] params, boolean pure, String tac,
+            MethodHandle implementation) {
+        if (!returnType.matches("int|double|boolean")) {
+            throw new IllegalArgumentException("Error: Invalid return type '" + returnType + "'.");
+        }
+        if (!name.matches("[A-Za-z_]\\w*")) {
+            throw new IllegalArgumentException("Error: Invalid function name '" + name + "'.");
+        }
+        if (params.length < 1 || params.length > 3) {
+            throw new IllegalArgumentException("Error: Function '" + name + "' must take 1 to 3 parameters.");
+        }
+        for (int i = 0; i < params.length; i++) {
+            if (!params[i].matches("[A-Za-z_]\\w*")) {
+                throw new IllegalArgumentException("Error: Invalid parameter '" + params[i] + "'.");
+            }
+            for (int j = 0; j < i; j++) {
+                if (params[j].equals(params[i])) {
+                    throw new IllegalArgumentException("Error: Parameter '" + params[i] + "' is declared twice.");
+                }
+            }
+        }
+        MethodType type = MethodType.methodType(double.class, Collections.nCopies(params.length, double.class));
+        if (!implementation.type().equals(type)) {
+            throw new IllegalArgumentException("Error: The implementation of " + name + " is " + implementation.type()
+                    + " but must be " + type + ".");
+        }
+        this.returnType = returnType;
+        this.name = name;
+        this.params = params.clone();
+        this.pure = pure;
+        this.tac = tac;
+        this.implementation = implementation;
+
+        Class<?> target = params.length == 1 ? DoubleUnaryOperator.class
+                : params.length == 2 ? DoubleBinaryOperator.class : DoubleTernaryOperator.class;
+        Object linked = spin(implementation, target);
+        this.direct = linked != null;
+        if (linked == null) {
+            MethodHandle handle = implementation;
+            if (params.length == 1) {
+                linked = (DoubleUnaryOperator) a -> {
+                    try {
+                        return (double) handle.invokeExact(a);
+                    } catch (Throwable e) {
+                        throw rethrow(e);
+                    }
+                };
+            } else if (params.length == 2) {
+                linked = (DoubleBinaryOperator) (a, b) -> {
+                    try {
+                        return (double) handle.invokeExact(a, b);
+                    } catch (Throwable e) {
+                        throw rethrow(e);
+                    }
+                };
+            } else {
+                linked = (DoubleTernaryOperator) (a, b, c) -> {
+                    try {
+                        return (double) handle.invokeExact(a, b, c);
+                    } catch (Throwable e) {
+                        throw rethrow(e);
+                    }
+                };
+            }
+        }
+        this.unary = params.length == 1 ? (DoubleUnaryOperator) linked : null;
+        this.binary = params.length == 2 ? (DoubleBinaryOperator) linked : null;
+        this.ternary = params.length == 3 ? (DoubleTernaryOperator) linked : null;
+    }
+
+    // Pure, with a plain call as its TAC
+    public ProvidedFunction(String returnType, String name, String[] params, MethodHandle implementation) {
+        this(returnType, name, params, true, null, implementation);
+    }
+
+    // An instance of target that calls the handle's method directly, or null when the
+    // handle is not a direct one this class can see
+    private static Object spin(MethodHandle handle, Class<?> target) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            lookup.revealDirect(handle);
+            return LambdaMetafactory.metafactory(lookup, "applyAsDouble", MethodType.methodType(target), handle.type(),
+                    handle, handle.type()).getTarget().invoke();
+        } catch (IllegalArgumentException | SecurityException | LambdaConversionException e) {
+            return null;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new IllegalStateException("Error: " + e.getMessage(), e);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getArity() {
+        return params.length;
+    }
+
+    public boolean isPure() {
+        return pure;
+    }
+
+    // True when calls go straight to the implementing method rather than through invokeExact
+    public boolean isDirect() {
+        return direct;
+    }
+
+    // Evaluates the function on the given arguments, one per parameter
+    double call(double... args) {
+        if (args.length != params.length) {
+            throw new IllegalArgumentException("Error: Function '" + name + "' expects " + params.length
+                    + " argument(s) but got " + args.length + ".");
+        }
+        switch (args.length) {
+            case 1:
+                return unary.applyAsDouble(args[0]);
+            case 2:
+                return binary.applyAsDouble(args[0], args[1]);
+            default:
+                return ternary.applyAsDouble(args[0], args[1], args[2]);
+        }
+    }
+
+    // The right-hand side of the TAC instruction for a call on the given temporaries
+    String lower(String[] places) {
+        if (tac == null) {
+            return name + "(" + String.join(", ", places) + ")";
+        }
+        String text = tac;
+        for (int i = places.length; i >= 1; i--) {
+            text = text.replace("$" + i, places[i - 1]);
+        }
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return returnType + " " + name + "(" + String.join(", ", params) + ")";
+    }
+}
@@ -0,0 +1,519 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
+
+// Interval analysis used while an expression is compiled. Every node gets a range
+// [lo, hi] (plus whether it may be NaN) from declared variable ranges and literal
+// values; a runtime check is dropped only when its range proves the check can never
+// fire. Bounds of + - * / use the same rounded operations as the evaluator, which are
+// monotone, and library functions such as sqrt are widened by one ulp, so every range
+// holds all values evaluation can produce. The Report lists eliminated and kept
+// checks and the compile-time diagnostics.
+final class RangeAnalysis {
+    private static final Interval BOOLEAN = new Interval(0, 1, false);
+    private static final Interval INTS = new Interval(Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+
+    private final Map<String, Interval> declared;
+    private final List<String> eliminated = new ArrayList<>();
+    private final List<String> kept = new ArrayList<>();
+    private final List<String> diagnostics = new ArrayList<>();
+
+    RangeAnalysis(Map<String, Interval> declared) {
+        this.declared = new HashMap<>(declared);
+    }
+
+    // Variables without a declared range may hold any value, NaN included
+    Interval variable(String name) {
+        Interval range = declared.get(name);
+        return range != null ? range : Interval.ALL;
+    }
+
+    // Records the outcome for a check that throws when divisor is 0 (or truncates
+    // to 0 when truncated is set) and returns whether it can be eliminated
+    boolean proveNonZero(String check, Interval divisor, boolean truncated, Supplier<String> where) {
+        Interval tested = truncated ? truncate(divisor) : divisor;
+        boolean safe = tested.lo > 0 || tested.hi < 0;
+        String line = where.get() + ": " + check + ", divisor in " + divisor;
+        if (safe) {
+            eliminated.add(line);
+            return true;
+        }
+        kept.add(line);
+        if (tested.lo == 0 && tested.hi == 0 && !tested.maybeNaN) {
+            diagnostics.add("Error: " + where.get() + " always divides by zero.");
+        }
+        return false;
+    }
+
+    // Problems the evaluator does not check for at run time
+    void checkCall(Builtin builtin, Interval a, Interval b, Supplier<String> where) {
+        switch (builtin) {
+            case TAN:
+            case SEC:
+                checkPole(90, a, where);
+                break;
+            case COT:
+            case COSEC:
+                checkPole(0, a, where);
+                break;
+            case LCM: {
+                // The arguments are cast to long, which saturates at +-2^63 and maps NaN to 0
+                double product = Math.min(maxAbs(a), 0x1p63) * Math.min(maxAbs(b), 0x1p63);
+                if (product >= 0x1p63) {
+                    diagnostics.add("Warning: " + where.get() + " may overflow long and throw: |a| * |b| can reach "
+                            + product + ".");
+                }
+                break;
+            }
+            case ISMULTIPLE:
+                if (truncate(b).contains(0)) {
+                    diagnostics.add("Warning: " + where.get() + " divides by zero when the second argument is 0.");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Poles of the degree-based functions sit at offset + 180k
+    private void checkPole(double offset, Interval a, Supplier<String> where) {
+        if (a.maybeNaN || Double.isInfinite(a.lo) || Double.isInfinite(a.hi)) {
+            diagnostics.add("Warning: " + where.get() + " may reach a pole; argument in " + a + ".");
+            return;
+        }
+        double pole = offset + 180 * Math.ceil((a.lo - offset) / 180);
+        if (pole > a.hi) {
+            return;
+        }
+        if (a.lo == a.hi) {
+            diagnostics.add("Error: " + where.get() + " is always at its pole " + pole + ".");
+        } else {
+            diagnostics.add("Warning: " + where.get() + " has a pole at " + pole + "; argument in " + a + ".");
+        }
+    }
+
+    Report report() {
+        return new Report(eliminated, kept, diagnostics);
+    }
+
+    // The flat evaluator keeps every check, so nothing counts as eliminated there
+    Report reportAllKept() {
+        List<String> all = new ArrayList<>(kept);
+        all.addAll(eliminated);
+        return new Report(Collections.emptyList(), all, diagnostics);
+    }
+
+    static Interval binary(char operator, Interval a, Interval b) {
+        switch (operator) {
+            case '+':
+                return add(a, b);
+            case '-':
+                return subtract(a, b);
+            case '*':
+                return multiply(a, b);
+            default:
+                return divide(a, b);
+        }
+    }
+
+    // Range of builtin.apply(a, b, c); ALL where no useful bound is known
+    static Interval call(Builtin builtin, Interval a, Interval b, Interval c) {
+        switch (builtin) {
+            case ADD:
+                return add(a, b);
+            case SUBTRACT:
+                return subtract(a, b);
+            case MULTIPLY:
+            case AREAOFRECTANGLE:
+                return multiply(a, b);
+            case DIVIDE:
+                return divide(a, b);
+            case MODULUS: {
+                double limit = Math.max(maxAbs(truncate(b)) - 1, 0);
+                Interval x = truncate(a);
+                return new Interval(x.lo < 0 ? -limit : 0, x.hi > 0 ? limit : 0, false);
+            }
+            case POWER:
+                return b.isPoint(2) ? square(a) : Interval.ALL;
+            case AREAOFSQUARE:
+                return square(a);
+            case AREAOFCIRCLE: {
+                Interval p = multiply(Interval.point(Math.PI), square(a));
+                return new Interval(Math.nextDown(p.lo), Math.nextUp(p.hi), p.maybeNaN);
+            }
+            case SQUAREROOT:
+                return a.lo < 0 ? Interval.ALL : increasing(Math::sqrt, a, false);
+            case CUBEROOT:
+                return increasing(Math::cbrt, a, false);
+            case DEGREESTORADIANS:
+                return increasing(Math::toRadians, a, false);
+            case RADIANSTODEGREES:
+                return increasing(Math::toDegrees, a, false);
+            case CEIL:
+                return increasing(Math::ceil, a, true);
+            case FLOOR:
+                return increasing(Math::floor, a, true);
+            case ROUND:
+                return increasing(x -> Math.round(x), a, true);
+            case HALFVALUE:
+                return divide(a, Interval.point(2));
+            case DOUBLEVALUE:
+                return multiply(a, Interval.point(2));
+            case INCREMENT:
+                return add(a, Interval.point(1));
+            case DECREMENT:
+                return subtract(a, Interval.point(1));
+            case MEAN:
+                return divide(add(a, b), Interval.point(2));
+            case AVERAGEOF3:
+                return divide(add(add(a, b), c), Interval.point(3));
+            case RECIPROCAL:
+                return divide(Interval.point(1), a);
+            case FINDMAX:
+                return max(a, b);
+            case FINDMIN:
+                return min(a, b);
+            case MAXOFTHREE:
+                return max(a, max(b, c));
+            case MINOFTHREE:
+                return min(a, min(b, c));
+            case ABSOLUTEVALUE:
+                return abs(a);
+            case ABSOLUTEDIFFERENCE:
+                return abs(subtract(a, b));
+            case SIN:
+            case COS:
+                return new Interval(-1, 1, a.maybeNaN || !a.isFinite());
+            case ISEVEN:
+            case ISODD:
+            case ISPRIME:
+            case ISPOSITIVE:
+            case ISPERFECTSQUARE:
+            case ISMULTIPLE:
+            case ISPALINDROME:
+                return BOOLEAN;
+            case SUMOFDIGITS:
+                return new Interval(-82, 82, false);
+            case SUMOFSQUARES:
+                return new Interval(0, 730, false);
+            case GCD:
+            case LCM:
+                // Non-negative only when both arguments truncate to non-negative longs;
+                // otherwise the sign follows Euclid's remainders, gcd(4, -6) being -2
+                if (a.lo > -1 && b.lo > -1) {
+                    return new Interval(0, 0x1p63, false);
+                }
+                return new Interval(-0x1p63, 0x1p63, false);
+            case REVERSENUMBER:
+                return INTS;
+            default:
+                return Interval.ALL;
+        }
+    }
+
+    static Interval add(Interval a, Interval b) {
+        double lo = a.lo + b.lo;
+        double hi = a.hi + b.hi;
+        // Infinity - Infinity is the only way a sum of non-NaN values becomes NaN
+        boolean nan = a.maybeNaN || b.maybeNaN || Double.isNaN(lo) || Double.isNaN(hi)
+                || a.lo == Double.NEGATIVE_INFINITY && b.hi == Double.POSITIVE_INFINITY
+                || a.hi == Double.POSITIVE_INFINITY && b.lo == Double.NEGATIVE_INFINITY;
+        return new Interval(Double.isNaN(lo) ? Double.NEGATIVE_INFINITY : lo,
+                Double.isNaN(hi) ? Double.POSITIVE_INFINITY : hi, nan);
+    }
+
+    static Interval subtract(Interval a, Interval b) {
+        return add(a, new Interval(-b.hi, -b.lo, b.maybeNaN));
+    }
+
+    static Interval multiply(Interval a, Interval b) {
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        boolean nan = a.maybeNaN || b.maybeNaN;
+        double[] xs = { a.lo, a.hi };
+        double[] ys = { b.lo, b.hi };
+        for (double x : xs) {
+            for (double y : ys) {
+                double p = x * y;
+                if (Double.isNaN(p)) {
+                    // 0 * Infinity; every other product near that corner is 0 or Infinity
+                    nan = true;
+                    p = 0;
+                }
+                lo = Math.min(lo, p);
+                hi = Math.max(hi, p);
+            }
+        }
+        return new Interval(lo, hi, nan);
+    }
+
+    // Math.fma(a, b, c) rounds the exact a * b + c once, which is extreme at the corners
+    static Interval fma(Interval a, Interval b, Interval c) {
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        boolean nan = a.maybeNaN || b.maybeNaN || c.maybeNaN;
+        double[] xs = { a.lo, a.hi };
+        double[] ys = { b.lo, b.hi };
+        for (double x : xs) {
+            for (double y : ys) {
+                double low = Math.fma(x, y, c.lo);
+                double high = Math.fma(x, y, c.hi);
+                if (Double.isNaN(low) || Double.isNaN(high)) {
+                    // 0 * Infinity or Infinity - Infinity
+                    return new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+                }
+                lo = Math.min(lo, low);
+                hi = Math.max(hi, high);
+            }
+        }
+        return new Interval(lo, hi, nan);
+    }
+
+    static Interval divide(Interval a, Interval b) {
+        if (b.contains(0)) {
+            return Interval.ALL;
+        }
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        double[] xs = { a.lo, a.hi };
+        double[] ys = { b.lo, b.hi };
+        for (double x : xs) {
+            for (double y : ys) {
+                double q = x / y;
+                if (Double.isNaN(q)) {
+                    return Interval.ALL;
+                }
+                lo = Math.min(lo, q);
+                hi = Math.max(hi, q);
+            }
+        }
+        return new Interval(lo, hi, a.maybeNaN || b.maybeNaN);
+    }
+
+    // Math.pow(a, 2) may differ from a * a by an ulp
+    static Interval square(Interval a) {
+        Interval m = abs(a);
+        Interval p = multiply(m, m);
+        return new Interval(Math.nextDown(p.lo), Math.nextUp(p.hi), p.maybeNaN);
+    }
+
+    static Interval abs(Interval a) {
+        if (a.lo >= 0) {
+            return a;
+        }
+        if (a.hi <= 0) {
+            return new Interval(-a.hi, -a.lo, a.maybeNaN);
+        }
+        return new Interval(0, Math.max(-a.lo, a.hi), a.maybeNaN);
+    }
+
+    static Interval max(Interval a, Interval b) {
+        return new Interval(Math.max(a.lo, b.lo), Math.max(a.hi, b.hi), a.maybeNaN || b.maybeNaN);
+    }
+
+    static Interval min(Interval a, Interval b) {
+        return new Interval(Math.min(a.lo, b.lo), Math.min(a.hi, b.hi), a.maybeNaN || b.maybeNaN);
+    }
+
+    // Either of two values, as a conditional yields
+    static Interval hull(Interval a, Interval b) {
+        return new Interval(Math.min(a.lo, b.lo), Math.max(a.hi, b.hi), a.maybeNaN || b.maybeNaN);
+    }
+
+    // && and || yield 1 or 0
+    static Interval logical() {
+        return BOOLEAN;
+    }
+
+    // Range after the (int) casts the number-theory builtins apply; NaN becomes 0
+    static Interval truncate(Interval a) {
+        double lo = (int) a.lo;
+        double hi = (int) a.hi;
+        if (a.maybeNaN) {
+            lo = Math.min(lo, 0);
+            hi = Math.max(hi, 0);
+        }
+        return new Interval(lo, hi, false);
+    }
+
+    private static Interval increasing(DoubleUnaryOperator f, Interval a, boolean exact) {
+        double lo = f.applyAsDouble(a.lo);
+        double hi = f.applyAsDouble(a.hi);
+        return new Interval(exact ? lo : Math.nextDown(lo), exact ? hi : Math.nextUp(hi), a.maybeNaN);
+    }
+
+    private static double maxAbs(Interval a) {
+        return Math.max(Math.abs(a.lo), Math.abs(a.hi));
+    }
+
+    // A closed range of doubles, optionally also NaN
+    public static final class Interval {
+        static final Interval ALL = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+
+        final double lo, hi;
+        final boolean maybeNaN;
+
+        private Interval(double lo, double hi, boolean maybeNaN) {
+            this.lo = lo;
+            this.hi = hi;
+            this.maybeNaN = maybeNaN;
+        }
+
+        public static Interval of(double lo, double hi) {
+            if (!(lo <= hi)) {
+                throw new IllegalArgumentException("Error: Invalid range [" + lo + ", " + hi + "].");
+            }
+            return new Interval(lo, hi, false);
+        }
+
+        public static Interval point(double value) {
+            return Double.isNaN(value) ? ALL : new Interval(value, value, false);
+        }
+
+        boolean contains(double value) {
+            return lo <= value && value <= hi;
+        }
+
+        boolean isPoint(double value) {
+            return lo == value && hi == value && !maybeNaN;
+        }
+
+        boolean isFinite() {
+            return !Double.isInfinite(lo) && !Double.isInfinite(hi);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lo + ", " + hi + "]" + (maybeNaN ? " or NaN" : "");
+        }
+    }
+
+    // What the analysis proved for one compiled expression
+    public static final class Report {
+        private final List<String> eliminated;
+        private final List<String> kept;
+        private final List<String> diagnostics;
+
+        Report(List<String> eliminated, List<String> kept, List<String> diagnostics) {
+            this.eliminated = Collections.unmodifiableList(new ArrayList<>(eliminated));
+            this.kept = Collections.unmodifiableList(new ArrayList<>(kept));
+            this.diagnostics = Collections.unmodifiableList(new ArrayList<>(diagnostics));
+        }
+
+        public List<String> getEliminatedChecks() {
+            return eliminated;
+        }
+
+        public List<String> getKeptChecks() {
+            return kept;
+        }
+
+        public List<String> getDiagnostics() {
+            return diagnostics;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            section(out, "Checks eliminated", eliminated);
+            section(out, "Checks kept", kept);
+            section(out, "Diagnostics", diagnostics);
+            return out.toString();
+        }
+
+        private static void section(StringBuilder out, String title, List<String> lines) {
+            out.append(title).append(": ").append(lines.size()).append('\n');
+            for (String line : lines) {
+                out.append("  ").append(line).append('\n');
+            }
+        }
+    }
+
+    // Prints the report for an expression, e.g.
+    //   java RangeAnalysis\$Main "x / (y + 1) + cot(x)" x=0:90 y=0:10
+    public static class Main {
+        public static void main(String[] args) {
+            String source = args.length > 0 ? args[0] : "x / (y + 1) + reciprocal(x) + cot(x) + lcm(y, 100000)";
+            Map<String, Interval> ranges = new HashMap<>();
+            if (args.length > 1) {
+                for (int i = 1; i < args.length; i++) {
+                    int equals = args[i].indexOf('=');
+                    int colon = args[i].indexOf(':', equals);
+                    ranges.put(args[i].substring(0, equals), Interval.of(
+                            Double.parseDouble(args[i].substring(equals + 1, colon)),
+                            Double.parseDouble(args[i].substring(colon + 1))));
+                }
+            } else {
+                ranges.put("x", Interval.of(1, 90));
+                ranges.put("y", Interval.of(0, 50_000));
+            }
+            CompiledExpression compiled = CompiledExpression.compile(source, ranges);
+            System.out.println(compiled.getSource() + "  with " + ranges);
+            System.out.print(compiled.getRangeReport());
+        }
+    }
+
+    // Compiles expressions whose divisors RangeAnalysis reasons about and runs them on
+    // signed values, comparing each result or error with FlatAST, which keeps every
+    // check; a check removed unsoundly shows up as Infinity where FlatAST throws
+    public static class Verify {
+        public static void main(String[] args) {
+            String[] sources = { "1 / (gcd(x, 0) + 1)", "1 / (lcm(x, 1) + 1)", "1 / (gcd(x, y) + 1)",
+                    "1 / (lcm(x, y) + 1)", "x / (gcd(y, 6) + 2)", "y / (lcm(x, 3) + 3)",
+                    "1 / (sumofsquares(x) + 1)", "1 / (absolutevalue(x) + 1)" };
+            double[] values = { -1_000_000, -12, -6, -4, -3, -2, -1, -0.5, 0, 0.5, 1, 2, 3, 4, 6, 12, 1_000_000 };
+            Map<String, Interval> natural = Map.of("x", Interval.of(0, 1_000_000), "y", Interval.of(0, 1_000_000));
+            int mismatches = 0;
+            int runs = 0;
+            for (String source : sources) {
+                for (Map<String, Interval> ranges : List.of(Map.<String, Interval>of(), natural)) {
+                    CompiledExpression compiled = CompiledExpression.compile(source, ranges);
+                    FlatAST flat = new ASTParser().parseFlat(source);
+                    String[] names = compiled.getSlotNames();
+                    double[] slots = new double[names.length];
+                    double[] flatSlots = new double[flat.getSlotNames().length];
+                    for (double x : values) {
+                        for (double y : values) {
+                            if (!ranges.isEmpty() && !(ranges.get("x").contains(x) && ranges.get("y").contains(y))) {
+                                continue;
+                            }
+                            for (int i = 0; i < names.length; i++) {
+                                double value = names[i].equals("x") ? x : y;
+                                slots[i] = value;
+                                flatSlots[Arrays.asList(flat.getSlotNames()).indexOf(names[i])] = value;
+                            }
+                            runs++;
+                            String expected = outcome(() -> flat.evaluate(flatSlots));
+                            String actual = outcome(() -> compiled.evaluate(slots));
+                            if (!expected.equals(actual)) {
+                                if (mismatches++ < 10) {
+                                    System.out.println(source + " at x=" + slots[0] + (slots.length > 1 ? ", y="
+                                            + slots[1] : "") + ": " + actual + ", expected " + expected);
+                                }
+                            }
+                        }
+                    }
+                    if (!ranges.isEmpty()) {
+                        System.out.println(source + " with x, y >= 0: "
+                                + compiled.getRangeReport().getEliminatedChecks().size() + " check(s) removed");
+                    }
+                }
+            }
+            System.out.println(runs + " evaluations, " + mismatches + " mismatches");
+        }
+
+        private static String outcome(DoubleSupplier evaluation) {
+            try {
+                return Double.toString(evaluation.getAsDouble());
+            } catch (RuntimeException e) {
+                return e.getMessage();
+            }
+        }
+    }
+}
@@ -0,0 +1,544 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+// Formats results straight into a reusable byte buffer instead of building Strings.
+// By default doubles are written as the shortest decimal that reads back as the same
+// value (Schubfach), in the same layout as Double.toString; ints, longs and booleans
+// match String.valueOf. setPrecision(n) switches doubles to a fixed n digits after the
+// point, like String.format(Locale.ROOT, "%.nf", value). Appending never allocates once
+// the buffer is large enough. Not thread-safe: use one writer per thread.
+final class ResultWriter {
+    static final int SHORTEST = -1;
+
+    private static final int P = 53;
+    private static final long C_MIN = 1L << 52;
+    private static final long T_MASK = C_MIN - 1;
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long MASK_63 = (1L << 63) - 1;
+    // Double.toString on JDK 17 does not always pick the shortest (or the closest) digits.
+    // It differs from Schubfach only for powers of two, subnormals and integers from 2^54
+    // to 2^86; those copy its digits so the default output stays byte-identical.
+    private static final int JDK_MISMATCH_MIN = 1075 + 2;
+    private static final int JDK_MISMATCH_MAX = 1075 + 33;
+    // 126-bit approximations g of 10^-k scaled to [2^125, 2^126), split into two 63-bit halves
+    private static final long[] G1 = new long[K_MAX - K_MIN + 1];
+    private static final long[] G0 = new long[K_MAX - K_MIN + 1];
+    private static final long[] POW10 = new long[19];
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+
+    static {
+        BigInteger mask = BigInteger.valueOf(MASK_63);
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int shift = 125 - flog2pow10(-k);
+            BigInteger g;
+            if (k <= 0) {
+                BigInteger power = BigInteger.TEN.pow(-k);
+                g = shift >= 0 ? power.shiftLeft(shift) : power.shiftRight(-shift);
+            } else {
+                g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+            }
+            g = g.add(BigInteger.ONE);
+            G1[k - K_MIN] = g.shiftRight(63).longValue();
+            G0[k - K_MIN] = g.and(mask).longValue();
+        }
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    private byte[] bytes;
+    private int length;
+    private int precision = SHORTEST;
+
+    public ResultWriter() {
+        this(256);
+    }
+
+    public ResultWriter(int capacity) {
+        bytes = new byte[Math.max(capacity, 32)];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    // SHORTEST, or the number of digits to keep after the decimal point
+    public void setPrecision(int precision) {
+        if (precision < SHORTEST) {
+            throw new IllegalArgumentException("Error: Precision must be SHORTEST or at least 0.");
+        }
+        this.precision = precision;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // Drops everything after the first newLength bytes
+    public void setLength(int newLength) {
+        if (newLength < 0 || newLength > length) {
+            throw new IndexOutOfBoundsException("Length " + newLength + " out of bounds for length " + length);
+        }
+        length = newLength;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    // The backing array; only the first length() bytes are meaningful
+    public byte[] array() {
+        return bytes;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public ResultWriter newLine() {
+        return append('\n');
+    }
+
+    public ResultWriter append(char c) {
+        if (c >= 0x80) {
+            return append(String.valueOf(c));
+        }
+        ensure(1);
+        bytes[length++] = (byte) c;
+        return this;
+    }
+
+    // ASCII text is copied byte by byte; anything else is encoded as UTF-8
+    public ResultWriter append(String text) {
+        int count = text.length();
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                byte[] encoded = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                ensure(encoded.length);
+                System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                length += encoded.length;
+                return this;
+            }
+            bytes[length++] = (byte) c;
+        }
+        return this;
+    }
+
+    public ResultWriter append(boolean value) {
+        return append(value ? "true" : "false");
+    }
+
+    public ResultWriter append(int value) {
+        return append((long) value);
+    }
+
+    public ResultWriter append(long value) {
+        ensure(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            if (value == Long.MIN_VALUE) {
+                // -(2^63) has no positive long counterpart
+                writeDigits(922337203685477580L, 18);
+                bytes[length++] = '8';
+                return this;
+            }
+            value = -value;
+        }
+        writeDigits(value, digitCount(value));
+        return this;
+    }
+
+    public ResultWriter append(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        int biasedExponent = (int) (bits >>> 52) & 0x7FF;
+        long t = bits & T_MASK;
+        if (biasedExponent == 0x7FF) {
+            return append(t != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity");
+        }
+        ensure(32);
+        if (bits < 0) {
+            bytes[length++] = '-';
+        }
+        if (biasedExponent == 0) {
+            if (t == 0) {
+                appendDecimal(0, 0);
+            } else {
+                appendJdkDigits(Math.abs(value));
+            }
+            return this;
+        }
+        int mq = 1075 - biasedExponent;
+        long c = C_MIN | t;
+        if (0 < mq && mq < P) {
+            // Small integers are exact and need no search for the shortest digits
+            long f = c >> mq;
+            if (f << mq == c) {
+                appendDecimal(f, 0);
+                return this;
+            }
+        }
+        if (t == 0 || biasedExponent >= JDK_MISMATCH_MIN && biasedExponent <= JDK_MISMATCH_MAX) {
+            appendJdkDigits(Math.abs(value));
+        } else {
+            shortest(-mq, c);
+        }
+        return this;
+    }
+
+    // Schubfach: finds the shortest decimal in the rounding interval of c * 2^q and passes
+    // it to appendDecimal as digits f and a power of ten. The interval is symmetric, so c
+    // must not be a power of two (append(double) sends those to appendJdkDigits).
+    private void shortest(int q, long c) {
+        int out = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl = cb - 2;
+        int k = flog10pow2(q);
+        int h = q + flog2pow10(-k) + 2;
+        long g1 = G1[k - K_MIN];
+        long g0 = G0[k - K_MIN];
+        long vb = roundToOdd(g1, g0, cb << h);
+        long vbl = roundToOdd(g1, g0, cbl << h);
+        long vbr = roundToOdd(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // Try one digit less first
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                appendDecimal(upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            appendDecimal(uin ? s : t, k);
+            return;
+        }
+        // Both candidates are inside: take the closer one, ties to even
+        long cmp = vb - (s + t << 1);
+        appendDecimal(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k);
+    }
+
+    // Re-reads the digits Double.toString chose; allocates, but only for the rare values above
+    private void appendJdkDigits(double magnitude) {
+        String text = Double.toString(magnitude);
+        int point = text.indexOf('.');
+        int exponentMark = text.indexOf('E');
+        int end = exponentMark < 0 ? text.length() : exponentMark;
+        long f = 0;
+        int e = exponentMark < 0 ? 0 : Integer.parseInt(text.substring(exponentMark + 1));
+        int digits = 0;
+        for (int i = 0; i < end; i++) {
+            if (i == point) {
+                continue;
+            }
+            if (digits == 19) {
+                // More digits than a long can take: only the shortest layout can show them
+                append(text);
+                return;
+            }
+            f = f * 10 + (text.charAt(i) - '0');
+            if (f != 0) {
+                digits++;
+            }
+            if (i > point) {
+                e--;
+            }
+        }
+        appendDecimal(f, e);
+    }
+
+    private static long roundToOdd(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    // Writes f * 10^e (sign already written) in the current layout
+    private void appendDecimal(long f, int e) {
+        if (f != 0) {
+            while (f % 10 == 0) {
+                f /= 10;
+                e++;
+            }
+        }
+        if (precision != SHORTEST) {
+            appendFixed(f, e);
+            return;
+        }
+        if (f == 0) {
+            bytes[length++] = '0';
+            bytes[length++] = '.';
+            bytes[length++] = '0';
+            return;
+        }
+        int n = digitCount(f);
+        int exponent = e + n - 1;
+        if (exponent >= -3 && exponent < 7) {
+            if (exponent >= 0) {
+                int integerDigits = exponent + 1;
+                writeDigits(f, n);
+                if (n <= integerDigits) {
+                    writeZeros(integerDigits - n);
+                    bytes[length++] = '.';
+                    bytes[length++] = '0';
+                } else {
+                    // Open a gap for the point inside the digits just written
+                    int point = length - n + integerDigits;
+                    System.arraycopy(bytes, point, bytes, point + 1, n - integerDigits);
+                    bytes[point] = '.';
+                    length++;
+                }
+            } else {
+                bytes[length++] = '0';
+                bytes[length++] = '.';
+                writeZeros(-exponent - 1);
+                writeDigits(f, n);
+            }
+            return;
+        }
+        // Computerized scientific notation: d.dddE<exponent>
+        int first = length;
+        length++;
+        writeDigits(f, n);
+        bytes[first] = bytes[first + 1];
+        bytes[first + 1] = '.';
+        if (n == 1) {
+            bytes[length++] = '0';
+        }
+        bytes[length++] = 'E';
+        append(exponent);
+    }
+
+    // Rounds the shortest digits half up like java.util.Formatter, then pads with zeros
+    private void appendFixed(long f, int e) {
+        int dropped = -e - precision;
+        if (dropped > 0) {
+            if (dropped >= POW10.length) {
+                f = 0;
+            } else {
+                long divisor = POW10[dropped];
+                long remainder = f % divisor;
+                f /= divisor;
+                if (remainder >= divisor - remainder) {
+                    f++;
+                }
+            }
+            e = -precision;
+        }
+        int n = digitCount(f);
+        int trailingZeros = e + precision;
+        int digits = n + trailingZeros;
+        ensure(digits + precision + 2);
+        if (digits <= precision) {
+            bytes[length++] = '0';
+            if (precision > 0) {
+                bytes[length++] = '.';
+                writeZeros(precision - digits);
+                writeDigits(f, n);
+                writeZeros(trailingZeros);
+            }
+            return;
+        }
+        int point = length + digits - precision;
+        writeDigits(f, n);
+        writeZeros(trailingZeros);
+        if (precision > 0) {
+            System.arraycopy(bytes, point, bytes, point + 1, precision);
+            bytes[point] = '.';
+            length++;
+        }
+    }
+
+    private static int digitCount(long value) {
+        int n = 1;
+        while (n < POW10.length && value >= POW10[n]) {
+            n++;
+        }
+        return n;
+    }
+
+    // Writes the n decimal digits of a non-negative value, two at a time
+    private void writeDigits(long value, int n) {
+        int position = length + n;
+        while (value >= 100) {
+            int pair = (int) (value % 100) << 1;
+            value /= 100;
+            bytes[--position] = DIGIT_PAIRS[pair + 1];
+            bytes[--position] = DIGIT_PAIRS[pair];
+        }
+        int pair = (int) value << 1;
+        bytes[--position] = DIGIT_PAIRS[pair + 1];
+        if (value >= 10) {
+            bytes[--position] = DIGIT_PAIRS[pair];
+        }
+        length += n;
+    }
+
+    private void writeZeros(int count) {
+        ensure(count + 2);
+        for (int i = 0; i < count; i++) {
+            bytes[length++] = '0';
+        }
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, length + extra)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+
+    // Compares the output with String.valueOf and String.format on random and edge-case values
+    public static class Verify {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+            Random random = new Random(33);
+            ResultWriter writer = new ResultWriter();
+            long mismatches = 0;
+            double[] edges = { 0.0, -0.0, Double.MIN_VALUE, -Double.MIN_VALUE, 2 * Double.MIN_VALUE,
+                    3 * Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, 1e7, 9999999.999999998, 1e-3, 9.999999999999998e-4, 1e23, 2e23,
+                    0.1, 0.3, 1.0 / 3, 2.0 / 3, 100, 1e16, 1e17, 1e22, 5e-324, 4.9e-324, 1.7976931348623157e308,
+                    Math.PI, Math.E, 123456.789, 0.5, 0.125, 2.5, -2.5, 1.005, 1e-5 };
+            for (double value : edges) {
+                mismatches += check(writer, value, Double.toString(value));
+            }
+            for (int i = 0; i < count; i++) {
+                double value;
+                switch (i % 4) {
+                    case 0:
+                        value = Double.longBitsToDouble(random.nextLong());
+                        break;
+                    case 1:
+                        value = random.nextDouble() * Math.pow(10, random.nextInt(20) - 8);
+                        break;
+                    case 2:
+                        value = random.nextInt(2_000_000) / 100.0 - 10_000;
+                        break;
+                    default:
+                        value = Math.sqrt(random.nextInt(100_000)) * (random.nextBoolean() ? 1 : -1);
+                        break;
+                }
+                mismatches += check(writer, value, Double.toString(value));
+            }
+            // Short decimals across the whole range, where shortest and longer digits differ most
+            for (int exponent = -325; exponent <= 308; exponent++) {
+                for (int digits = 1; digits < 1000; digits += 1 + random.nextInt(3)) {
+                    double value = Double.parseDouble(digits + "E" + exponent);
+                    mismatches += check(writer, value, Double.toString(value));
+                }
+            }
+            long intMismatches = 0;
+            for (int i = 0; i < count / 4; i++) {
+                int value = i < 3 ? new int[] { 0, Integer.MIN_VALUE, Integer.MAX_VALUE }[i] : random.nextInt();
+                writer.clear();
+                intMismatches += writer.append(value).toString().equals(String.valueOf(value)) ? 0 : 1;
+                long wide = i == 0 ? Long.MIN_VALUE : random.nextLong() >> random.nextInt(64);
+                writer.clear();
+                intMismatches += writer.append(wide).toString().equals(String.valueOf(wide)) ? 0 : 1;
+            }
+            long fixedMismatches = 0;
+            for (int i = 0; i < count / 10; i++) {
+                double value = i < edges.length ? edges[i]
+                        : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(14) - 6);
+                int precision = i % 9;
+                writer.setPrecision(precision);
+                fixedMismatches += check(writer, value, String.format(Locale.ROOT, "%." + precision + "f", value));
+                writer.setPrecision(SHORTEST);
+            }
+            System.out.println("Double mismatches: " + mismatches);
+            System.out.println("Integer mismatches: " + intMismatches);
+            System.out.println("Fixed precision mismatches: " + fixedMismatches);
+        }
+
+        private static int check(ResultWriter writer, double value, String expected) {
+            writer.clear();
+            String actual = writer.append(value).toString();
+            if (actual.equals(expected)) {
+                return 0;
+            }
+            System.out.println("Mismatch for " + Double.doubleToRawLongBits(value) + ": expected " + expected
+                    + ", got " + actual + (Double.parseDouble(actual) == value ? " (round-trips)" : ""));
+            return 1;
+        }
+    }
+
+    // "Result: " lines through String concatenation against the writer
+    public static class Benchmark {
+        public static void main(String[] args) throws IOException {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            Random random = new Random(5);
+            double[] values = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = i % 2 == 0 ? random.nextDouble() * 1000 : random.nextInt(100_000) / 8.0;
+            }
+            ByteArrayOutputStream sink = new ByteArrayOutputStream(count * 32);
+            ResultWriter writer = new ResultWriter(1 << 16);
+
+            System.out.println("| Formatter                 | Mvalues/s |");
+            System.out.println("|---------------------------|-----------|");
+            for (int round = 0; round < 3; round++) {
+                sink.reset();
+                long start = System.nanoTime();
+                for (double value : values) {
+                    String line = "Result: " + String.valueOf(value) + "\n";
+                    sink.write(line.getBytes(StandardCharsets.UTF_8));
+                }
+                double strings = (System.nanoTime() - start) / 1e9;
+                sink.reset();
+                start = System.nanoTime();
+                for (double value : values) {
+                    writer.append("Result: ").append(value).newLine();
+                    if (writer.length() > 60_000) {
+                        writer.writeTo(sink);
+                        writer.clear();
+                    }
+                }
+                writer.writeTo(sink);
+                writer.clear();
+                double direct = (System.nanoTime() - start) / 1e9;
+                if (round == 2) {
+                    System.out.println(String.format("| String.valueOf + concat   | %-9.1f |", count / strings / 1e6));
+                    System.out.println(String.format("| ResultWriter              | %-9.1f |", count / direct / 1e6));
+                }
+            }
+        }
+    }
+}
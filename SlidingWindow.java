@@ -0,0 +1,299 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+
+// Sum, mean, max and min over the last `capacity` values of a numeric stream, e.g.
+//   SlidingWindow w = new SlidingWindow(1000);
+//   for (double x : series) { w.add(x); chart(w.mean(), w.max()); }
+// Every add() is amortized O(1) and allocates nothing: the window is a ring buffer, the
+// sum is kept with Neumaier's compensated summation and re-summed from the buffer once
+// every `capacity` adds so rounding error cannot build up over a long series, and max
+// and min come from monotonic deques of ring slots. NaN and infinite values are
+// counted rather than summed, so they stop affecting the results once they leave the
+// window. Instances are not thread-safe.
+final class SlidingWindow {
+    private final double[] values;
+    // Monotonic deques of ring slots, oldest first: the values they point at decrease
+    // from head to tail in maxQueue and increase in minQueue, so the head is always the
+    // window's extreme. Slots of a deque are in age order, so the evicted one can only
+    // be at its head.
+    private final int[] maxQueue;
+    private final int[] minQueue;
+    private int maxHead, maxTail, maxSize;
+    private int minHead, minTail, minSize;
+    // Slot the next value goes into, and how many slots hold window values
+    private int next, size;
+    private double sum, compensation;
+    private int nans, positiveInfinities, negativeInfinities;
+    private int untilResum;
+
+    SlidingWindow(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Error: Window size must be at least 1.");
+        }
+        values = new double[capacity];
+        maxQueue = new int[capacity];
+        minQueue = new int[capacity];
+        untilResum = capacity;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        next = size = 0;
+        sum = 0;
+        compensation = 0;
+        nans = positiveInfinities = negativeInfinities = 0;
+        maxHead = maxTail = maxSize = 0;
+        minHead = minTail = minSize = 0;
+        untilResum = values.length;
+    }
+
+    public void add(double value) {
+        int slot = next;
+        if (size == values.length) {
+            double evicted = values[slot];
+            if (Double.isFinite(evicted)) {
+                accumulate(-evicted);
+            } else {
+                countSpecial(evicted, -1);
+            }
+            if (maxSize > 0 && maxQueue[maxHead] == slot) {
+                maxHead = advance(maxHead);
+                maxSize--;
+            }
+            if (minSize > 0 && minQueue[minHead] == slot) {
+                minHead = advance(minHead);
+                minSize--;
+            }
+        } else {
+            size++;
+        }
+        values[slot] = value;
+        if (Double.isFinite(value)) {
+            accumulate(value);
+        } else {
+            countSpecial(value, 1);
+        }
+        if (!Double.isNaN(value)) {
+            while (maxSize > 0) {
+                int last = retreat(maxTail);
+                if (values[maxQueue[last]] > value) {
+                    break;
+                }
+                maxTail = last;
+                maxSize--;
+            }
+            maxQueue[maxTail] = slot;
+            maxTail = advance(maxTail);
+            maxSize++;
+            while (minSize > 0) {
+                int last = retreat(minTail);
+                if (values[minQueue[last]] < value) {
+                    break;
+                }
+                minTail = last;
+                minSize--;
+            }
+            minQueue[minTail] = slot;
+            minTail = advance(minTail);
+            minSize++;
+        }
+        next = advance(slot);
+        if (--untilResum == 0) {
+            resum();
+        }
+    }
+
+    private int advance(int index) {
+        return index + 1 == values.length ? 0 : index + 1;
+    }
+
+    private int retreat(int index) {
+        return index == 0 ? values.length - 1 : index - 1;
+    }
+
+    public double sum() {
+        if (nans > 0 || positiveInfinities > 0 && negativeInfinities > 0) {
+            return Double.NaN;
+        }
+        if (positiveInfinities > 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (negativeInfinities > 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return sum + compensation;
+    }
+
+    // NaN while the window is empty
+    public double mean() {
+        return sum() / size();
+    }
+
+    // NaN while the window is empty or holds a NaN
+    public double max() {
+        return nans > 0 || maxSize == 0 ? Double.NaN : values[maxQueue[maxHead]];
+    }
+
+    public double min() {
+        return nans > 0 || minSize == 0 ? Double.NaN : values[minQueue[minHead]];
+    }
+
+    // Neumaier's variant of Kahan summation, which also holds up when the running sum
+    // is smaller than the value added, as it is after large values leave the window
+    private void accumulate(double value) {
+        double t = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - t) + value;
+        } else {
+            compensation += (value - t) + sum;
+        }
+        sum = t;
+    }
+
+    private void countSpecial(double value, int delta) {
+        if (Double.isNaN(value)) {
+            nans += delta;
+        } else if (value > 0) {
+            positiveInfinities += delta;
+        } else {
+            negativeInfinities += delta;
+        }
+    }
+
+    // O(capacity) once every capacity adds, so still O(1) amortized
+    private void resum() {
+        untilResum = values.length;
+        sum = 0;
+        compensation = 0;
+        for (int i = 0; i < size; i++) {
+            if (Double.isFinite(values[i])) {
+                accumulate(values[i]);
+            }
+        }
+    }
+
+    // Whole-series helpers: results[i] aggregates series[max(0, i - window + 1) .. i]
+
+    static void rollingSum(double[] series, int window, double[] results) {
+        SlidingWindow w = new SlidingWindow(window);
+        for (int i = 0; i < series.length; i++) {
+            w.add(series[i]);
+            results[i] = w.sum();
+        }
+    }
+
+    static void rollingMean(double[] series, int window, double[] results) {
+        SlidingWindow w = new SlidingWindow(window);
+        for (int i = 0; i < series.length; i++) {
+            w.add(series[i]);
+            results[i] = w.mean();
+        }
+    }
+
+    static void rollingMax(double[] series, int window, double[] results) {
+        SlidingWindow w = new SlidingWindow(window);
+        for (int i = 0; i < series.length; i++) {
+            w.add(series[i]);
+            results[i] = w.max();
+        }
+    }
+
+    static void rollingMin(double[] series, int window, double[] results) {
+        SlidingWindow w = new SlidingWindow(window);
+        for (int i = 0; i < series.length; i++) {
+            w.add(series[i]);
+            results[i] = w.min();
+        }
+    }
+
+    // Update cost per point against recomputing each window, and the sum's error against
+    // an exact BigDecimal sum next to a plain running sum that adds and subtracts
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int points = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+            Random random = new Random(40);
+            double[] series = new double[points];
+            double level = 0;
+            for (int i = 0; i < points; i++) {
+                // A random walk with occasional large spikes, like a live price series
+                level += random.nextGaussian();
+                series[i] = random.nextInt(1000) == 0 ? level * 1e8 : level;
+            }
+            double[] results = new double[points];
+
+            System.out.println("| Window | Naive (ns/point) | Sliding (ns/point) | Max/min naive | Max/min sliding |");
+            System.out.println("|--------|------------------|--------------------|---------------|-----------------|");
+            for (int window : new int[] { 16, 256, 4096 }) {
+                int naivePoints = Math.min(points, 20_000_000 / window);
+                double naiveSum = Double.MAX_VALUE;
+                double slidingSum = Double.MAX_VALUE;
+                double naiveMax = Double.MAX_VALUE;
+                double slidingMax = Double.MAX_VALUE;
+                double sink = 0;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < naivePoints; i++) {
+                        double s = 0;
+                        for (int j = Math.max(0, i - window + 1); j <= i; j++) {
+                            s += series[j];
+                        }
+                        sink += s;
+                    }
+                    naiveSum = Math.min(naiveSum, (double) (System.nanoTime() - start) / naivePoints);
+                    start = System.nanoTime();
+                    rollingMean(series, window, results);
+                    slidingSum = Math.min(slidingSum, (double) (System.nanoTime() - start) / points);
+                    start = System.nanoTime();
+                    for (int i = 0; i < naivePoints; i++) {
+                        double m = Double.NEGATIVE_INFINITY;
+                        for (int j = Math.max(0, i - window + 1); j <= i; j++) {
+                            m = Math.max(m, series[j]);
+                        }
+                        sink += m;
+                    }
+                    naiveMax = Math.min(naiveMax, (double) (System.nanoTime() - start) / naivePoints);
+                    start = System.nanoTime();
+                    rollingMax(series, window, results);
+                    rollingMin(series, window, results);
+                    slidingMax = Math.min(slidingMax, (double) (System.nanoTime() - start) / points / 2);
+                }
+                System.out.println(String.format("| %-6d | %-16.1f | %-18.1f | %-13.1f | %-15.1f |", window, naiveSum,
+                        slidingSum, naiveMax, slidingMax) + (sink == 42 ? " " : ""));
+            }
+
+            int window = 1000;
+            SlidingWindow w = new SlidingWindow(window);
+            double running = 0;
+            double worstCompensated = 0;
+            double worstRunning = 0;
+            for (int i = 0; i < points; i++) {
+                w.add(series[i]);
+                running += series[i];
+                if (i >= window) {
+                    running -= series[i - window];
+                }
+                if (i % 10_007 == 0 && i >= window) {
+                    BigDecimal exact = BigDecimal.ZERO;
+                    for (int j = i - window + 1; j <= i; j++) {
+                        exact = exact.add(new BigDecimal(series[j]));
+                    }
+                    double ulp = Math.ulp(exact.round(MathContext.DECIMAL64).doubleValue());
+                    worstCompensated = Math.max(worstCompensated,
+                            new BigDecimal(w.sum()).subtract(exact).abs().doubleValue() / ulp);
+                    worstRunning = Math.max(worstRunning, new BigDecimal(running).subtract(exact).abs().doubleValue() / ulp);
+                }
+            }
+            System.out.println();
+            System.out.println(String.format("Window %d over %d points, worst sum error: sliding %.1f ulp, plain running sum %.3g ulp",
+                    window, points, worstCompensated, worstRunning));
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+// Compiles source text holding many ';'-terminated declarations and definitions, e.g.
+//   UserFunctions functions = new UserFunctions();
+//   SourceCompiler.Result result = new SourceCompiler().compile("int add(3,4);\ndouble sq(x) = x * x;", functions);
+//   for (SourceCompiler.Diagnostic d : result.diagnostics) System.out.println(d);
+// A pre-scan splits the text at every ';' outside parentheses and brackets and records
+// the line and column each statement starts at. Definitions are checked in parallel and
+// then registered in source order, so declarations anywhere in the text may call any
+// function it defines, and a later definition of a name wins; definitions go into the
+// registry passed in, or a fresh one that is dropped afterwards. Every statement is then
+// validated and translated to TAC on a ForkJoinPool, with results written back by
+// statement index, so diagnostics come out in source order however work is scheduled.
+class SourceCompiler {
+    static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final int chunkSize;
+
+    // Shares the common pool, so it needs no shutdown
+    public SourceCompiler() {
+        this.pool = ForkJoinPool.commonPool();
+        this.ownsPool = false;
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    public SourceCompiler(int parallelism, int chunkSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Error: Parallelism must be at least 1.");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Error: Chunk size must be at least 1.");
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    // One statement of the source, without its ';'
+    static final class Statement {
+        // 1-based position of the statement's first character
+        final int line, column;
+        final String text;
+        final boolean definition;
+        final boolean terminated;
+        // Parsed in the first pass, for definitions that are valid
+        UserFunctions.Definition function;
+        // The verdict, as compileCode would print it, and the TAC; set in the second pass
+        String message;
+        String tac;
+
+        Statement(int line, int column, String text, boolean terminated) {
+            this.line = line;
+            this.column = column;
+            this.text = text;
+            this.terminated = terminated;
+            this.definition = text.indexOf('=') >= 0;
+        }
+
+        boolean isError() {
+            return message.startsWith("Error");
+        }
+    }
+
+    static final class Diagnostic {
+        final int line, column;
+        final String message;
+
+        Diagnostic(int line, int column, String message) {
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return line + ":" + column + ": " + message;
+        }
+    }
+
+    static final class Result {
+        final List<Statement> statements;
+        // The failed statements' messages, in source order
+        final List<Diagnostic> diagnostics;
+        final long scanNanos;
+        final long totalNanos;
+
+        Result(List<Statement> statements, List<Diagnostic> diagnostics, long scanNanos, long totalNanos) {
+            this.statements = statements;
+            this.diagnostics = diagnostics;
+            this.scanNanos = scanNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        public double getDeclarationsPerSecond() {
+            return totalNanos == 0 ? 0 : statements.size() * 1e9 / totalNanos;
+        }
+
+        // Every statement's verdict followed by the throughput, as the Compile button shows it
+        public String summary() {
+            StringBuilder text = new StringBuilder();
+            for (Statement statement : statements) {
+                text.append(statement.line).append(':').append(statement.column).append(": ")
+                        .append(statement.message).append('\n');
+            }
+            return text.append(String.format("%d declaration(s), %d error(s) in %.1f ms (%.0f declarations/sec)",
+                    statements.size(), diagnostics.size(), totalNanos / 1e6, getDeclarationsPerSecond())).toString();
+        }
+    }
+
+    public Result compile(String source) {
+        return compile(source, new UserFunctions());
+    }
+
+    // Registers the definitions in functions, where calls are also resolved
+    public Result compile(String source, UserFunctions functions) {
+        long start = System.nanoTime();
+        List<Statement> statements = scan(source);
+        long scanned = System.nanoTime();
+        if (!statements.isEmpty()) {
+            pool.invoke(new StatementTask(statements, functions, true, 0, statements.size()));
+            for (Statement statement : statements) {
+                if (statement.function != null) {
+                    functions.register(statement.function);
+                }
+            }
+            resolve(statements, functions);
+            pool.invoke(new StatementTask(statements, functions, false, 0, statements.size()));
+        }
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        for (Statement statement : statements) {
+            if (statement.isError()) {
+                diagnostics.add(new Diagnostic(statement.line, statement.column, statement.message));
+            }
+        }
+        return new Result(Collections.unmodifiableList(statements), Collections.unmodifiableList(diagnostics),
+                scanned - start, System.nanoTime() - start);
+    }
+
+    // Splits at ';' outside parentheses and brackets in one pass over the text; blank
+    // statements are dropped and text after the last ';' becomes an unterminated one
+    static List<Statement> scan(String source) {
+        List<Statement> statements = new ArrayList<>();
+        int depth = 0;
+        int line = 1;
+        int lineStart = 0;
+        // Start of the current statement's text, or -1 until a non-blank character
+        int from = -1;
+        int fromLine = 0;
+        int fromColumn = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                line++;
+                lineStart = i + 1;
+                continue;
+            }
+            if (from < 0) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                from = i;
+                fromLine = line;
+                fromColumn = i - lineStart + 1;
+            }
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if ((c == ')' || c == ']') && depth > 0) {
+                depth--;
+            } else if (c == ';' && depth == 0) {
+                if (i > from) {
+                    statements.add(new Statement(fromLine, fromColumn, source.substring(from, i).trim(), true));
+                }
+                from = -1;
+            }
+        }
+        if (from >= 0) {
+            statements.add(new Statement(fromLine, fromColumn, source.substring(from).trim(), false));
+        }
+        return statements;
+    }
+
+    private static void parseDefinition(Statement statement, UserFunctions functions) {
+        if (statement.definition && statement.terminated) {
+            try {
+                statement.function = functions.parse(statement.text + ";");
+            } catch (RuntimeException e) {
+                statement.message = e.getMessage();
+            }
+        }
+    }
+
+    // Checks the calls in every definition once all of them are registered, so bodies can
+    // call functions defined later in the source; a definition that fails is removed,
+    // and so then is any that calls it
+    private static void resolve(List<Statement> statements, UserFunctions functions) {
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            for (Statement statement : statements) {
+                if (statement.function != null) {
+                    try {
+                        functions.resolve(statement.function);
+                    } catch (RuntimeException e) {
+                        statement.message = e.getMessage();
+                        functions.remove(statement.function);
+                        statement.function = null;
+                        removed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void check(Statement statement, UserFunctions functions) {
+        if (!statement.terminated) {
+            statement.message = "Error: Missing semicolon at the end.";
+            statement.tac = "";
+        } else if (statement.definition) {
+            if (statement.function != null) {
+                statement.message = "Function '" + statement.function.name + "' defined successfully.";
+                statement.tac = CompilerUI.expressionTAC(statement.function.body);
+            } else {
+                statement.tac = "";
+            }
+        } else {
+            statement.message = CompilerUI.validateFunctionDeclaration(statement.text + ";", functions);
+            // TAC is generated for the call itself, without the return type
+            int open = statement.text.indexOf('(');
+            int space = open < 0 ? -1 : statement.text.substring(0, open).trim().indexOf(' ');
+            statement.tac = statement.isError() ? "" : CompilerUI.generateTAC(statement.text.substring(space + 1), functions);
+        }
+    }
+
+    // First pass parses definitions, second validates and translates every statement
+    private class StatementTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Statement> statements;
+        private final UserFunctions functions;
+        private final boolean definitions;
+        private final int from, to;
+
+        StatementTask(List<Statement> statements, UserFunctions functions, boolean definitions, int from, int to) {
+            this.statements = statements;
+            this.functions = functions;
+            this.definitions = definitions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    if (definitions) {
+                        parseDefinition(statements.get(i), functions);
+                    } else {
+                        check(statements.get(i), functions);
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new StatementTask(statements, functions, definitions, from, mid),
+                    new StatementTask(statements, functions, definitions, mid, to));
+        }
+    }
+
+    // Declarations per second from 1 to N cores on a generated file, with the share of
+    // the time spent in the sequential pre-scan
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+            int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHUNK_SIZE;
+            int cores = Runtime.getRuntime().availableProcessors();
+            StringBuilder source = new StringBuilder();
+            String[] calls = { "int add(%d, 4);", "double power(%d, 2);", "boolean isprime(%d);",
+                    "double nthroot(%d, 3);", "int gcd(%d, 36);", "double area%d(r) = 3.14159 * r * r;",
+                    "double area5(%d);", "int undefined%d(1);" };
+            for (int i = 0; i < count; i++) {
+                source.append(String.format(calls[i % calls.length], i)).append(i % 3 == 0 ? "\n" : " ");
+            }
+            String text = source.toString();
+
+            System.out.println("| Cores | Time (ms) | Declarations/sec | Scan share | Speedup |");
+            System.out.println("|-------|-----------|------------------|------------|---------|");
+            double baseline = 0;
+            for (int parallelism = 1; parallelism <= cores; parallelism++) {
+                SourceCompiler compiler = new SourceCompiler(parallelism, chunkSize);
+                compiler.compile(text); // warm-up
+                Result result = compiler.compile(text);
+                compiler.shutdown();
+                double millis = result.totalNanos / 1e6;
+                if (parallelism == 1) {
+                    baseline = millis;
+                }
+                System.out.println(String.format("| %-5d | %-9.1f | %-16.0f | %-10.3f | %-7.2f |", parallelism, millis,
+                        result.getDeclarationsPerSecond(), (double) result.scanNanos / result.totalNanos,
+                        baseline / millis));
+                if (parallelism == cores) {
+                    System.out.println();
+                    System.out.println(result.statements.size() + " statements, " + result.diagnostics.size()
+                            + " errors; first: " + result.diagnostics.get(0));
+                }
+            }
+        }
+    }
+}
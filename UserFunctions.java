@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+// A registry of functions defined in the language itself, e.g.
+//   UserFunctions functions = new UserFunctions();
+//   functions.define("double hyp(a, b) = squareroot(add(multiply(a,a), multiply(b,b)));");
+//   CompiledExpression.compile("hyp(x, 4) + 1", functions);
+// Registries are independent: the UI owns one, and every other caller passes its own,
+// so one caller's definitions never change what another compiles. Bodies see only
+// their parameters and may call built-ins, provided functions and the functions of
+// their own registry, themselves included.
+final class UserFunctions {
+    // Non-recursive bodies with at most this many nodes are inlined at the call site;
+    // others are called through the Definition resolved when the caller is compiled
+    static final int INLINE_LIMIT = 32;
+    // Holds no definitions and takes none; what callers that pass no registry see
+    static final UserFunctions NONE = new UserFunctions(false);
+
+    private final Map<String, Definition> definitions = new ConcurrentHashMap<>();
+    private final boolean writable;
+
+    UserFunctions() {
+        this(true);
+    }
+
+    private UserFunctions(boolean writable) {
+        this.writable = writable;
+    }
+
+    // Parses "type name(p1, p2, ...) = body;" and registers it, replacing any earlier
+    // definition of the name
+    Definition define(String declaration) {
+        Definition definition = parse(declaration);
+        resolve(definition);
+        register(definition);
+        return definition;
+    }
+
+    // Makes a definition parsed by this registry callable, replacing any earlier one of
+    // the name for expressions compiled from now on; those compiled before keep the
+    // definition they were compiled against
+    void register(Definition definition) {
+        if (!writable) {
+            throw new UnsupportedOperationException("Error: This registry takes no definitions.");
+        }
+        if (definition.owner != this) {
+            throw new IllegalArgumentException("Error: " + definition.name + " was parsed by another registry.");
+        }
+        definitions.put(definition.name.toLowerCase(), definition);
+    }
+
+    // Checks that every call in the body names a built-in, a provided function, the
+    // definition itself or a function of this registry, with as many arguments as it takes
+    void resolve(Definition definition) {
+        resolve(definition, name -> false);
+    }
+
+    // Same, also accepting the lowercase names local accepts, with any argument count;
+    // LiveDiagnostics passes the functions defined elsewhere in the document
+    void resolve(Definition definition, Predicate<String> local) {
+        for (Map.Entry<String, Set<Integer>> call : definition.arities.entrySet()) {
+            String callee = call.getKey();
+            int arity;
+            if (callee.equalsIgnoreCase(definition.name)) {
+                arity = definition.params.length;
+            } else if (Builtin.lookup(callee) != null) {
+                arity = Builtin.lookup(callee).arity;
+            } else if (FunctionProviders.lookup(callee) != null) {
+                arity = FunctionProviders.lookup(callee).getArity();
+            } else if (local.test(callee)) {
+                continue;
+            } else if (lookup(callee) != null) {
+                arity = lookup(callee).params.length;
+            } else {
+                throw new IllegalArgumentException(
+                        "Error: Undefined Function '" + callee + "' in the body of " + definition.name + ".");
+            }
+            for (int count : call.getValue()) {
+                if (count != arity) {
+                    throw new IllegalArgumentException("Error: Function '" + callee + "' expects " + arity
+                            + " argument(s) but got " + count + " in the body of " + definition.name + ".");
+                }
+            }
+        }
+    }
+
+    // Checks a definition without registering it; the body's calls are checked by resolve
+    Definition parse(String declaration) {
+        String text = declaration.trim();
+        if (!text.endsWith(";")) {
+            throw new IllegalArgumentException("Error: Missing semicolon at the end.");
+        }
+        text = text.substring(0, text.length() - 1);
+        int equals = text.indexOf('=');
+        int open = text.indexOf('(');
+        int close = text.indexOf(')');
+        if (equals < 0 || open < 0 || close < open || close > equals) {
+            throw new IllegalArgumentException(
+                    "Error: Invalid function definition. Correct format: double name(a, b) = body;");
+        }
+        String[] header = text.substring(0, open).trim().split("\\s+");
+        if (header.length != 2 || !header[0].matches("int|double|boolean")) {
+            throw new IllegalArgumentException("Error: Invalid header format.");
+        }
+        String name = header[1];
+        if (!name.matches("[A-Za-z_]\\w*")) {
+            throw new IllegalArgumentException("Error: Invalid function name '" + name + "'.");
+        }
+        if (CompilerUI.predefinedFunctions.containsKey(name.toLowerCase()) || name.equalsIgnoreCase("if")
+                || FunctionProviders.lookup(name) != null) {
+            throw new IllegalArgumentException("Error: '" + name + "' is a predefined function.");
+        }
+        String paramsString = text.substring(open + 1, close).trim();
+        String[] params = paramsString.isEmpty() ? new String[0] : paramsString.split(",");
+        for (int i = 0; i < params.length; i++) {
+            params[i] = params[i].trim();
+            if (!params[i].matches("[A-Za-z_]\\w*")) {
+                throw new IllegalArgumentException("Error: Invalid parameter '" + params[i] + "'.");
+            }
+            for (int j = 0; j < i; j++) {
+                if (params[j].equals(params[i])) {
+                    throw new IllegalArgumentException("Error: Parameter '" + params[i] + "' is declared twice.");
+                }
+            }
+        }
+        String body = text.substring(equals + 1).trim();
+        if (body.isEmpty()) {
+            throw new IllegalArgumentException("Error: Function '" + name + "' has no body.");
+        }
+        return new Definition(this, header[0], name, params, body);
+    }
+
+    // Returns null when no user function has the name
+    Definition lookup(String name) {
+        return definitions.get(name.toLowerCase());
+    }
+
+    boolean remove(String name) {
+        return definitions.remove(name.toLowerCase()) != null;
+    }
+
+    // Removes the definition unless a later one of the name has replaced it
+    boolean remove(Definition definition) {
+        return definitions.remove(definition.name.toLowerCase(), definition);
+    }
+
+    Collection<Definition> all() {
+        List<Definition> all = new ArrayList<>(definitions.values());
+        all.sort((a, b) -> a.name.compareToIgnoreCase(b.name));
+        return all;
+    }
+
+    static final class Definition {
+        // The registry the body's calls are resolved in
+        final UserFunctions owner;
+        final String returnType;
+        final String name;
+        final String[] params;
+        final String body;
+        // Nodes in the body, how many times each parameter is read, the lowercase names
+        // of the functions the body calls, and the argument counts each is called with
+        final int size;
+        final int[] uses;
+        final Set<String> callees;
+        final Map<String, Set<Integer>> arities;
+        // The body compiled over the parameters as slots 0..n-1, built on the first
+        // call that is not inlined
+        private volatile CompiledExpression compiled;
+
+        private Definition(UserFunctions owner, String returnType, String name, String[] params, String body) {
+            this.owner = owner;
+            this.returnType = returnType;
+            this.name = name;
+            this.params = params;
+            this.body = body;
+            this.uses = new int[params.length];
+            this.arities = new HashMap<>();
+            this.callees = arities.keySet();
+            int[] count = new int[1];
+            new ASTParser().parse(body, new ASTParser.ASTBuilder() {
+                public int operand(String token) {
+                    if (!ASTParser.isNumber(token)) {
+                        int param = Arrays.asList(params).indexOf(token);
+                        if (param < 0) {
+                            throw new IllegalArgumentException(
+                                    "Error: '" + token + "' is not a parameter of " + name + ".");
+                        }
+                        uses[param]++;
+                    }
+                    return count[0]++;
+                }
+
+                public int binary(char operator, int left, int right) {
+                    return count[0]++;
+                }
+
+                public int call(String callee, int[] args, int from, int n) {
+                    arities.computeIfAbsent(callee.toLowerCase(), key -> new HashSet<>()).add(n);
+                    return count[0]++;
+                }
+
+                public int logical(char operator, int left, int right) {
+                    return count[0]++;
+                }
+
+                public int conditional(int condition, int then, int otherwise) {
+                    return count[0]++;
+                }
+            });
+            this.size = count[0];
+        }
+
+        // True when the body can reach a call to this function again
+        boolean isRecursive() {
+            Set<String> seen = new HashSet<>();
+            List<String> pending = new ArrayList<>(callees);
+            while (!pending.isEmpty()) {
+                String callee = pending.remove(pending.size() - 1);
+                if (callee.equals(name.toLowerCase())) {
+                    return true;
+                }
+                Definition definition = seen.add(callee) ? owner.lookup(callee) : null;
+                if (definition != null) {
+                    pending.addAll(definition.callees);
+                }
+            }
+            return false;
+        }
+
+        CompiledExpression compiled() {
+            CompiledExpression body = compiled;
+            if (body == null) {
+                synchronized (this) {
+                    body = compiled;
+                    if (body == null) {
+                        body = CompiledExpression.compileFunction(this);
+                        compiled = body;
+                    }
+                }
+            }
+            return body;
+        }
+
+        // Evaluates the function on the given arguments, one per parameter
+        double call(double... args) {
+            if (args.length != params.length) {
+                throw new IllegalArgumentException("Error: Function '" + name + "' expects " + params.length
+                        + " argument(s) but got " + args.length + ".");
+            }
+            return compiled().evaluate(args);
+        }
+
+        // The value as the Implement button shows it for the declared return type
+        String format(double value) {
+            switch (returnType) {
+                case "int":
+                    return Long.toString((long) value);
+                case "boolean":
+                    return Boolean.toString(value != 0);
+                default:
+                    return Double.toString(value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return returnType + " " + name + "(" + String.join(", ", params) + ") = " + body + ";";
+        }
+    }
+
+    // The same formula written out, called as an inlined user function, and called
+    // through its Definition as a recursive or large function would be
+    public static class Benchmark {
+        public static void main(String[] args) {
+            int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+            UserFunctions functions = new UserFunctions();
+            Definition hyp = functions.define("double hyp(a, b) = squareroot(add(multiply(a,a), multiply(b,b)));");
+            CompiledExpression written = CompiledExpression.compile("squareroot(add(multiply(x,x), multiply(y,y))) + 1");
+            CompiledExpression inlined = CompiledExpression.compile("hyp(x, y) + 1", functions);
+            double[] slots = new double[2];
+            double[] values = new double[2];
+            double[] best = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+            double sink = 0;
+            for (int round = 0; round < 5; round++) {
+                for (int variant = 0; variant < 3; variant++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < rows; i++) {
+                        slots[0] = values[0] = i;
+                        slots[1] = values[1] = 7;
+                        sink += variant == 0 ? written.evaluate(slots)
+                                : variant == 1 ? inlined.evaluate(slots) : hyp.call(values) + 1;
+                    }
+                    best[variant] = Math.min(best[variant], (double) (System.nanoTime() - start) / rows);
+                }
+            }
+            System.out.println("| Form                  | ns/call |");
+            System.out.println("|-----------------------|---------|");
+            String[] forms = { "written out", "inlined hyp(x, y)", "called through handle" };
+            for (int variant = 0; variant < 3; variant++) {
+                System.out.println(String.format("| %-21s | %-7.1f |", forms[variant], best[variant]));
+            }
+            System.out.println(sink == 42 ? " " : "");
+        }
+    }
+}
@@ -0,0 +1,505 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+// Random but valid workloads built from the predefinedFunctions signatures, e.g.
+//   WorkloadGenerator generator = new WorkloadGenerator(48);
+//   generator.setMaxDepth(4);
+//   generator.setFunctionWeight("isprime", 5);
+//   List<WorkloadGenerator.Item> items = generator.generate(100_000);
+// Items are either calls with literal arguments, as typed into the editor
+// ("int gcd(84, 36);"), or nested expressions over x0, x1 and x2 for CompiledExpression.
+// A function is picked with probability proportional to the weight of its arity times
+// its own weight; sum, dot, min, max and norm take array literals. int and boolean
+// functions get integer arguments. Every item parses and validates; some still fail
+// when run, e.g. on a division by zero, as real traffic does. The same seed and
+// settings always give the same items.
+final class WorkloadGenerator {
+    enum Kind {
+        CALL, EXPRESSION
+    }
+
+    enum Distribution {
+        // 0 to 99
+        SMALL_INTEGERS {
+            double sample(Random random) {
+                return random.nextInt(100);
+            }
+        },
+        // -1000 to 1000
+        UNIFORM {
+            double sample(Random random) {
+                return random.nextDouble() * 2000 - 1000;
+            }
+        },
+        // 0.001 to 1000000, spread evenly over the orders of magnitude
+        LOG_UNIFORM {
+            double sample(Random random) {
+                return Math.pow(10, random.nextDouble() * 9 - 3);
+            }
+        };
+
+        abstract double sample(Random random);
+    }
+
+    static final class Item {
+        final Kind kind;
+        final String source;
+
+        Item(Kind kind, String source) {
+            this.kind = kind;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            return source;
+        }
+    }
+
+    static final String[] VARIABLES = { "x0", "x1", "x2" };
+    // Functions whose arguments are arrays, with how many arrays they take
+    private static final Map<String, Integer> ARRAY_FUNCTIONS = Map.of("sum", 1, "dot", 2, "min", 1, "max", 1,
+            "norm", 1);
+
+    private final Random random;
+    private int maxDepth = 3;
+    private double expressionShare = 0.5;
+    private Distribution distribution = Distribution.SMALL_INTEGERS;
+    // Indexed by arity 1 to 3
+    private final double[] arityWeights = { 0, 1, 1, 1 };
+    private final Map<String, Double> functionWeights = new HashMap<>();
+    // The pick table, rebuilt after any weight changes
+    private String[] names;
+    private double[] cumulative;
+
+    WorkloadGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    // Nesting depth of expressions; 0 gives single literals and variables
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Error: Depth must be at least 0.");
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    // Fraction of items that are expressions rather than calls
+    public void setExpressionShare(double share) {
+        if (!(share >= 0 && share <= 1)) {
+            throw new IllegalArgumentException("Error: Expression share must be between 0 and 1.");
+        }
+        this.expressionShare = share;
+    }
+
+    public void setDistribution(Distribution distribution) {
+        this.distribution = distribution;
+    }
+
+    // Relative weights of functions taking one, two and three arguments
+    public void setArityWeights(double one, double two, double three) {
+        if (!(one >= 0 && two >= 0 && three >= 0) || one + two + three == 0) {
+            throw new IllegalArgumentException("Error: Arity weights must be non-negative and not all zero.");
+        }
+        arityWeights[1] = one;
+        arityWeights[2] = two;
+        arityWeights[3] = three;
+        names = null;
+    }
+
+    // 0 leaves the function out; the default weight is 1
+    public void setFunctionWeight(String name, double weight) {
+        if (!CompilerUI.predefinedFunctions.containsKey(name.toLowerCase())) {
+            throw new IllegalArgumentException("Error: Undefined Function '" + name + "'");
+        }
+        if (!(weight >= 0)) {
+            throw new IllegalArgumentException("Error: Function weights must be non-negative.");
+        }
+        functionWeights.put(name.toLowerCase(), weight);
+        names = null;
+    }
+
+    public List<Item> generate(int count) {
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(next());
+        }
+        return items;
+    }
+
+    public Item next() {
+        if (names == null) {
+            buildPickTable();
+        }
+        if (random.nextDouble() < expressionShare) {
+            StringBuilder text = new StringBuilder();
+            expression(text, maxDepth);
+            return new Item(Kind.EXPRESSION, text.toString());
+        }
+        String name = pick();
+        StringBuilder text = new StringBuilder(CompilerUI.predefinedFunctions.get(name)).append(' ').append(name)
+                .append('(');
+        Integer arrays = ARRAY_FUNCTIONS.get(name);
+        int count = arrays != null ? arrays : Builtin.lookup(name).arity;
+        // dot needs arrays of one length
+        int length = 1 + random.nextInt(8);
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : ", ");
+            if (arrays != null) {
+                text.append('[');
+                for (int j = 0; j < length; j++) {
+                    literal(text.append(j == 0 ? "" : ", "), false, false);
+                }
+                text.append(']');
+            } else {
+                literal(text, integral(name), false);
+            }
+        }
+        return new Item(Kind.CALL, text.append(");").toString());
+    }
+
+    private void expression(StringBuilder text, int depth) {
+        double choice = random.nextDouble();
+        if (depth == 0 || choice < 0.2) {
+            if (random.nextBoolean()) {
+                text.append(VARIABLES[random.nextInt(VARIABLES.length)]);
+            } else {
+                literal(text, false, true);
+            }
+        } else if (choice < 0.45) {
+            text.append('(');
+            expression(text, depth - 1);
+            text.append(' ').append("+-*/".charAt(random.nextInt(4))).append(' ');
+            expression(text, depth - 1);
+            text.append(')');
+        } else if (choice < 0.5) {
+            text.append('(');
+            expression(text, depth - 1);
+            text.append(" ? ");
+            expression(text, depth - 1);
+            text.append(" : ");
+            expression(text, depth - 1);
+            text.append(')');
+        } else {
+            String name = pick();
+            Integer arrays = ARRAY_FUNCTIONS.get(name);
+            int count = arrays != null ? arrays : Builtin.lookup(name).arity;
+            int length = 1 + random.nextInt(4);
+            text.append(name).append('(');
+            for (int i = 0; i < count; i++) {
+                text.append(i == 0 ? "" : ", ");
+                if (arrays != null) {
+                    text.append('[');
+                    for (int j = 0; j < length; j++) {
+                        text.append(j == 0 ? "" : ", ");
+                        expression(text, depth - 1);
+                    }
+                    text.append(']');
+                } else {
+                    expression(text, depth - 1);
+                }
+            }
+            text.append(')');
+        }
+    }
+
+    // Plain decimal text, since the editor does not read exponents; negative values are
+    // parenthesized inside expressions
+    private void literal(StringBuilder text, boolean integral, boolean inExpression) {
+        double value = distribution.sample(random);
+        String digits = integral || value == Math.rint(value) ? Long.toString(Math.round(value))
+                : String.format(Locale.ROOT, "%.3f", value);
+        if (inExpression && digits.startsWith("-")) {
+            text.append('(').append(digits).append(')');
+        } else {
+            text.append(digits);
+        }
+    }
+
+    private static boolean integral(String name) {
+        String type = CompilerUI.predefinedFunctions.get(name);
+        return type.equals("int") || type.equals("boolean");
+    }
+
+    private void buildPickTable() {
+        List<String> picked = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        // Sorted, so the table does not depend on HashMap order
+        for (String name : new TreeSet<>(CompilerUI.predefinedFunctions.keySet())) {
+            Integer arrays = ARRAY_FUNCTIONS.get(name);
+            Builtin builtin = Builtin.lookup(name);
+            if (arrays == null && builtin == null) {
+                continue;
+            }
+            int arity = arrays != null ? arrays : builtin.arity;
+            double weight = arityWeights[arity] * functionWeights.getOrDefault(name, 1.0);
+            if (weight > 0) {
+                picked.add(name);
+                weights.add(weight);
+            }
+        }
+        if (picked.isEmpty()) {
+            throw new IllegalStateException("Error: Every function has a weight of 0.");
+        }
+        names = picked.toArray(new String[0]);
+        cumulative = new double[names.length];
+        double total = 0;
+        for (int i = 0; i < names.length; i++) {
+            total += weights.get(i);
+            cumulative[i] = total;
+        }
+    }
+
+    private String pick() {
+        double target = random.nextDouble() * cumulative[cumulative.length - 1];
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] > target) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return names[low];
+    }
+
+    // Latencies in nanoseconds, counted in log-linear buckets: 32 per power of two, so
+    // a percentile is within about 3% of the true value whatever its magnitude, in
+    // fixed memory however many values are recorded
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private final long[] counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts[index(value)]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return total;
+        }
+
+        long max() {
+            return max;
+        }
+
+        // The upper edge of the bucket holding the given fraction of values, e.g. 0.999
+        long percentile(double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, upperEdge(i));
+                }
+            }
+            return max;
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperEdge(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+
+    // Runs a generated workload through tokenize, validate, execute and TAC on a number
+    // of threads for a fixed time, and prints throughput, latency percentiles per stage
+    // and the allocation rate. Arguments: seconds, threads, max depth, distribution, seed.
+    public static class Driver {
+        static final String[] STAGES = { "tokenize", "validate", "execute", "TAC", "total" };
+
+        public static void main(String[] args) throws Exception {
+            int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int depth = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+            Distribution distribution = args.length > 3 ? Distribution.valueOf(args[3]) : Distribution.SMALL_INTEGERS;
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : 48;
+
+            WorkloadGenerator generator = new WorkloadGenerator(seed);
+            generator.setMaxDepth(depth);
+            generator.setDistribution(distribution);
+            // Items are generated up front so generation is not measured; threads cycle
+            // through them from different offsets
+            List<Item> items = generator.generate(50_000);
+
+            // One warm-up second so the JIT has compiled the pipeline
+            run(items, threads, TimeUnit.SECONDS.toNanos(1));
+            Worker[] workers = run(items, threads, TimeUnit.SECONDS.toNanos(seconds));
+
+            Histogram[] merged = new Histogram[STAGES.length];
+            long operations = 0;
+            long errors = 0;
+            long bytes = 0;
+            long nanos = 0;
+            for (int s = 0; s < STAGES.length; s++) {
+                merged[s] = new Histogram();
+            }
+            for (Worker worker : workers) {
+                for (int s = 0; s < STAGES.length; s++) {
+                    merged[s].add(worker.latencies[s]);
+                }
+                operations += worker.operations;
+                errors += worker.errors;
+                bytes += worker.bytes;
+                nanos = Math.max(nanos, worker.elapsed);
+            }
+            double elapsed = nanos / 1e9;
+            System.out.println(String.format("%d threads, depth %d, %s values, seed %d: %d operations in %.1f s",
+                    threads, depth, distribution, seed, operations, elapsed));
+            System.out.println(String.format("Throughput %.0f ops/s, %.2f%% failed at run time, allocation %.1f MB/s "
+                    + "(%.0f bytes/op)", operations / elapsed, 100.0 * errors / Math.max(1, operations),
+                    bytes / elapsed / 1048576, bytes < 0 ? Double.NaN : (double) bytes / Math.max(1, operations)));
+            System.out.println();
+            System.out.println("| Stage    | p50 (us) | p99 (us) | p99.9 (us) | max (us) |");
+            System.out.println("|----------|----------|----------|------------|----------|");
+            for (int s = 0; s < STAGES.length; s++) {
+                Histogram h = merged[s];
+                System.out.println(String.format("| %-8s | %-8.2f | %-8.2f | %-10.2f | %-8.1f |", STAGES[s],
+                        h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3, h.percentile(0.999) / 1e3, h.max() / 1e3));
+            }
+        }
+
+        private static Worker[] run(List<Item> items, int threads, long nanos) throws InterruptedException {
+            Worker[] workers = new Worker[threads];
+            Thread[] running = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Worker(items, t * items.size() / threads, nanos);
+                running[t] = new Thread(workers[t], "load-" + t);
+                running[t].start();
+            }
+            for (Thread thread : running) {
+                thread.join();
+            }
+            return workers;
+        }
+    }
+
+    private static final class Worker implements Runnable {
+        private final List<Item> items;
+        private final int offset;
+        private final long duration;
+        final Histogram[] latencies = new Histogram[Driver.STAGES.length];
+        long operations;
+        long errors;
+        long bytes;
+        long elapsed;
+
+        Worker(List<Item> items, int offset, long duration) {
+            this.items = items;
+            this.offset = offset;
+            this.duration = duration;
+            for (int s = 0; s < latencies.length; s++) {
+                latencies[s] = new Histogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            FunctionEvaluator evaluator = new FunctionEvaluator();
+            Random values = new Random(offset);
+            double[] slots = new double[VARIABLES.length];
+            long[] stamps = new long[Driver.STAGES.length];
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long end = start + duration;
+            int next = offset;
+            long now = start;
+            while (now < end) {
+                Item item = items.get(next);
+                next = next + 1 == items.size() ? 0 : next + 1;
+                boolean failed;
+                if (item.kind == Kind.CALL) {
+                    CompilerUI.tokenizeFunction(item.source);
+                    stamps[0] = System.nanoTime();
+                    CompilerUI.compileCode(item.source);
+                    stamps[1] = System.nanoTime();
+                    failed = CompilerUI.implementFunction(item.source, evaluator).startsWith("Error");
+                    stamps[2] = System.nanoTime();
+                    // TAC is generated for the call without its return type
+                    CompilerUI.generateTAC(item.source.substring(item.source.indexOf(' ') + 1));
+                } else {
+                    CompilerUI.tokenizeFunction(item.source);
+                    stamps[0] = System.nanoTime();
+                    CompiledExpression expression;
+                    try {
+                        expression = CompiledExpression.compile(item.source);
+                    } catch (RuntimeException e) {
+                        expression = null;
+                    }
+                    stamps[1] = System.nanoTime();
+                    failed = expression == null;
+                    try {
+                        for (int i = 0; i < slots.length && !failed; i++) {
+                            slots[i] = values.nextInt(100);
+                        }
+                        if (!failed) {
+                            expression.evaluate(slots);
+                        }
+                    } catch (RuntimeException e) {
+                        failed = true;
+                    }
+                    stamps[2] = System.nanoTime();
+                    CompilerUI.expressionTAC(item.source);
+                }
+                long finished = System.nanoTime();
+                latencies[0].record(stamps[0] - now);
+                latencies[1].record(stamps[1] - stamps[0]);
+                latencies[2].record(stamps[2] - stamps[1]);
+                latencies[3].record(finished - stamps[2]);
+                latencies[4].record(finished - now);
+                operations++;
+                if (failed) {
+                    errors++;
+                }
+                now = finished;
+            }
+            elapsed = now - start;
+            long allocatedAfter = allocatedBytes();
+            bytes = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+        }
+
+        // -1 where the JVM does not count allocations per thread
+        private static long allocatedBytes() {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+    }
+}